@@ -0,0 +1,97 @@
+package com.zyter.groupcall;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Orders the participants of a room by how recently they spoke. The first
+ * {@code size} of them are the active speakers, whose video is forwarded to
+ * the others in last-N mode. Newcomers are added last, so until somebody
+ * speaks the earliest participants are shown.
+ *
+ * A speaker only displaces the least recent active one if that one has been
+ * quiet for the hold time, so that two people talking over each other do not
+ * make every subscriber switch streams back and forth.
+ *
+ * Not thread safe: only used from its room's mailbox.
+ */
+public class ActiveSpeakers {
+
+	private final int size;
+
+	private final long holdTime;
+
+	// Most recent speaker first
+	private final List<String> order = new ArrayList<>();
+
+	private final Map<String, Long> lastSpoke = new HashMap<>();
+
+	public ActiveSpeakers(int size, long holdTime) {
+		this.size = size;
+		this.holdTime = holdTime;
+	}
+
+	public void add(String name) {
+		if (!order.contains(name)) {
+			order.add(name);
+		}
+	}
+
+	public void remove(String name) {
+		order.remove(name);
+		lastSpoke.remove(name);
+	}
+
+	/**
+	 * Records that a participant is speaking.
+	 *
+	 * @return true if the active speakers changed
+	 */
+	public boolean speaking(String name, long now) {
+		int index = order.indexOf(name);
+		if (index < 0) {
+			return false;
+		}
+		if (index < size) {
+			lastSpoke.put(name, now);
+			order.remove(index);
+			order.add(0, name);
+			return false;
+		}
+
+		Long displacedSpoke = lastSpoke.get(order.get(size - 1));
+		if (displacedSpoke != null && now - displacedSpoke < holdTime) {
+			return false;
+		}
+		lastSpoke.put(name, now);
+		order.remove(index);
+		order.add(0, name);
+		return true;
+	}
+
+	/**
+	 * Records that a participant stopped sending audio, giving its place to the
+	 * next most recent speaker.
+	 *
+	 * @return true if the active speakers changed
+	 */
+	public boolean silent(String name) {
+		int index = order.indexOf(name);
+		if (index < 0 || index >= size) {
+			return false;
+		}
+		lastSpoke.remove(name);
+		order.remove(index);
+		order.add(name);
+		return order.size() > size;
+	}
+
+	public Set<String> getActive() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(order.subList(0, Math.min(size, order.size()))));
+	}
+}
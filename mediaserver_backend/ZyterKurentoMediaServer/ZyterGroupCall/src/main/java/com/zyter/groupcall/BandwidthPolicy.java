@@ -0,0 +1,395 @@
+package com.zyter.groupcall;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.kurento.client.WebRtcEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Sets the video bandwidth of every participant's endpoints instead of
+ * leaving each stream at the Kurento defaults, which let a subscriber of a
+ * large room be sent far more than its link can carry.
+ *
+ * A participant's budget comes from the tier of its domain. It is shared
+ * between the video streams the participant actually receives: the forwarded
+ * senders in SFU mode, the single mix in MCU mode. A sender that switched to
+ * audio with {@code changeMediaType} is held to a token rate. The budget is
+ * lowered while what the participant sends loses packets, as sampled by the
+ * {@link StatsCollector}, and raised again once it is clean.
+ *
+ * Limits are set when an endpoint is created and then re-evaluated every
+ * update interval. An endpoint is only updated if its target moved by more
+ * than the configured share and it was not updated during the last interval,
+ * and a tick sends a bounded number of updates, so a room growing or a
+ * speaker change does not set off a burst of calls to the media server.
+ *
+ * What a participant may send is only bounded once, before its offer, since
+ * Kurento puts the receive limit in the SDP answer. Afterwards the policy
+ * acts on send limits alone: the media server derives the REMB estimate it
+ * returns to the sender from the endpoints the stream is sent on, so
+ * limiting those also slows the sender down.
+ */
+public class BandwidthPolicy {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BandwidthPolicy.class);
+
+	private static final double MIN_CONGESTION = 0.25;
+
+	@Value("${groupcall.bandwidth.enabled:true}")
+	private boolean enabled;
+
+	@Value("${groupcall.bandwidth.tiers:basic:500,standard:1500,premium:4000}")
+	private String[] tiers;
+
+	@Value("${groupcall.bandwidth.default-tier:standard}")
+	private String defaultTier;
+
+	@Value("${groupcall.bandwidth.domain-tiers:}")
+	private String[] domainTiers;
+
+	@Value("${groupcall.bandwidth.min-video:150}")
+	private int minVideo;
+
+	@Value("${groupcall.bandwidth.audio-only-video:30}")
+	private int audioOnlyVideo;
+
+	@Value("${groupcall.bandwidth.update-interval:5000}")
+	private long updateInterval;
+
+	@Value("${groupcall.bandwidth.min-change:15}")
+	private int minChange;
+
+	@Value("${groupcall.bandwidth.max-updates-per-tick:200}")
+	private int maxUpdatesPerTick;
+
+	@Value("${groupcall.bandwidth.loss-high:5}")
+	private double lossHigh;
+
+	@Value("${groupcall.bandwidth.loss-low:1}")
+	private double lossLow;
+
+	@Autowired
+	private PresenceDirectory presenceDirectory;
+
+	@Autowired
+	private StatsCollector statsCollector;
+
+	// By session id: UserSession equality is by name and room, shared by a rejoining participant
+	private final ConcurrentMap<String, Participant> participants = new ConcurrentHashMap<>();
+
+	private Map<String, Integer> budgets;
+
+	private Map<String, String> tierByDomain;
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Starts following a participant and limits its outgoing endpoint.
+	 */
+	public void register(UserSession user) {
+		if (!enabled) {
+			return;
+		}
+		Participant state = new Participant(user, tierOf(user));
+		if (participants.putIfAbsent(user.getSession().getId(), state) == null) {
+			// Called as the outgoing endpoint is created, so before the participant's offer
+			limitSent(user, state, user.getOutgoingWebRtcPeer());
+			limit(user, state, user.getName(), user.getOutgoingWebRtcPeer(), "initial");
+		}
+	}
+
+	/**
+	 * Limits an endpoint the participant just created to receive a sender.
+	 */
+	public void endpointCreated(UserSession user, String senderName, WebRtcEndpoint endpoint) {
+		Participant state = stateOf(user);
+		if (state != null) {
+			limit(user, state, senderName, endpoint, "initial");
+		}
+	}
+
+	/**
+	 * Forgets the limits of an endpoint released by the participant.
+	 */
+	public void endpointReleased(UserSession user, String senderName) {
+		Participant state = stateOf(user);
+		if (state != null) {
+			state.applied.remove(senderName);
+		}
+	}
+
+	public void unregister(UserSession user) {
+		Participant state = stateOf(user);
+		if (state != null) {
+			participants.remove(user.getSession().getId(), state);
+		}
+	}
+
+	/**
+	 * Applies a sender's switch between audio and video to the endpoints of its
+	 * room without waiting for the next tick. Endpoints updated during the last
+	 * interval keep their limits until then, as for any other change.
+	 */
+	public void mediaTypeChanged(UserSession sender) {
+		long now = System.currentTimeMillis();
+		int remaining = maxUpdatesPerTick;
+		for (UserSession user : sender.getRoom().getParticipants()) {
+			Participant state = stateOf(user);
+			if (state != null && remaining > 0) {
+				remaining -= update(user, state, now, remaining, "mediaType");
+			}
+		}
+	}
+
+	public int getParticipantCount() {
+		return participants.size();
+	}
+
+	/**
+	 * Participants whose budget is currently lowered because of packet loss.
+	 */
+	public int getCongestedCount() {
+		int congested = 0;
+		for (Participant state : participants.values()) {
+			if (state.congestion < 1) {
+				congested++;
+			}
+		}
+		return congested;
+	}
+
+	private void tick() {
+		long now = System.currentTimeMillis();
+		int remaining = maxUpdatesPerTick;
+		for (Participant state : participants.values()) {
+			feedback(state.user, state);
+		}
+		for (Participant state : participants.values()) {
+			if (remaining <= 0) {
+				// Those updated now are not due at the next tick, leaving the others their turn
+				break;
+			}
+			remaining -= update(state.user, state, now, remaining, "policy");
+		}
+	}
+
+	/**
+	 * Sets the limits of the participant's endpoints whose target changed
+	 * enough.
+	 *
+	 * @return the number of endpoints updated
+	 */
+	private int update(UserSession user, Participant state, long now, int max, String reason) {
+		int updated = 0;
+		if (due(state.applied.get(user.getName()), loopback(user, state), now)) {
+			limit(user, state, user.getName(), user.getOutgoingWebRtcPeer(), reason);
+			updated++;
+		}
+		for (Map.Entry<String, WebRtcEndpoint> incoming : user.getIncomingEndpoints().entrySet()) {
+			if (updated >= max) {
+				break;
+			}
+			if (due(state.applied.get(incoming.getKey()), target(user, state, incoming.getKey()), now)) {
+				limit(user, state, incoming.getKey(), incoming.getValue(), reason);
+				updated++;
+			}
+		}
+		return updated;
+	}
+
+	private boolean due(Applied previous, int target, long now) {
+		if (previous == null) {
+			return true;
+		}
+		if (now - previous.at < updateInterval) {
+			return false;
+		}
+		return Math.abs(target - previous.kbps) * 100L > (long) previous.kbps * minChange;
+	}
+
+	/**
+	 * Kbps of video for one of the participant's endpoints: what it may send
+	 * for its outgoing endpoint, what it is sent for an incoming one.
+	 */
+	private int target(UserSession user, Participant state, String senderName) {
+		Room room = user.getRoom();
+		UserSession sender = senderName.equals(user.getName()) ? user : room.getParticipant(senderName);
+		if (sender != null && sender.isAudioOnly()) {
+			return audioOnlyVideo;
+		}
+		int budget = budget(state);
+		int streams;
+		if (room.getMode() == RoomMode.MCU) {
+			// One mix comes down, while the sent video is shrunk to a tile of it
+			streams = sender == user ? room.getParticipants().size() : 1;
+		} else {
+			streams = room.getVideoSenderCount() - (room.isVideoForwarded(user.getName()) ? 1 : 0);
+		}
+		return Math.max(minVideo, budget / Math.max(1, streams));
+	}
+
+	/**
+	 * Kbps of video sent back on the participant's outgoing endpoint: its
+	 * loopback, or the mix in MCU mode.
+	 */
+	private int loopback(UserSession user, Participant state) {
+		return user.getRoom().getMode() == RoomMode.MCU ? Math.max(minVideo, budget(state)) : target(user, state, user.getName());
+	}
+
+	private int budget(Participant state) {
+		return (int) (budgets.getOrDefault(state.tier, budgets.get(defaultTier)) * state.congestion);
+	}
+
+	/**
+	 * Bounds what the participant sends. Only effective before negotiation.
+	 */
+	private void limitSent(UserSession user, Participant state, WebRtcEndpoint endpoint) {
+		final int kbps = target(user, state, user.getName());
+		LOGGER.debug("PARTICIPANT {}: limiting its sent video to {} kbps", user.getName(), kbps);
+		KurentoAsync.<Void>call("setMaxVideoRecvBandwidth", c -> endpoint.setMaxVideoRecvBandwidth(kbps, c))
+				.whenComplete((ignored, error) -> limited(user, user.getName(), "initial", error));
+	}
+
+	/**
+	 * Bounds the video sent on one of the participant's endpoints, which takes
+	 * effect at any time.
+	 */
+	private void limit(UserSession user, Participant state, String senderName, WebRtcEndpoint endpoint, String reason) {
+		final boolean own = senderName.equals(user.getName());
+		final int kbps = own ? loopback(user, state) : target(user, state, senderName);
+		state.applied.put(senderName, new Applied(kbps, System.currentTimeMillis()));
+		LOGGER.debug("PARTICIPANT {}: limiting video of {} to {} kbps ({})", user.getName(), senderName, kbps, reason);
+
+		if (own) {
+			KurentoAsync.<Void>call("setMaxVideoSendBandwidth", c -> endpoint.setMaxVideoSendBandwidth(kbps, c))
+					.whenComplete((ignored, error) -> limited(user, senderName, reason, error));
+		} else {
+			final int floor = Math.min(minVideo, kbps);
+			KurentoAsync.<Void>call("setMaxVideoSendBandwidth", c -> endpoint.setMaxVideoSendBandwidth(kbps, c))
+					.thenCompose(ignored -> KurentoAsync.<Void>call("setMinVideoSendBandwidth", c -> endpoint.setMinVideoSendBandwidth(floor, c)))
+					.whenComplete((ignored, error) -> limited(user, senderName, reason, error));
+		}
+	}
+
+	private void limited(UserSession user, String senderName, String reason, Throwable error) {
+		if (error != null) {
+			LOGGER.warn("PARTICIPANT {}: could not limit the video of {}: {}", user.getName(), senderName, KurentoAsync.unwrap(error).getMessage());
+		}
+		GroupCallMetrics.recordBandwidthUpdate(reason, error == null);
+	}
+
+	/**
+	 * Lowers the participant's budget when the latest sample of what it sends
+	 * shows packet loss, and raises it back when the loss is low. Each sample
+	 * is only counted once.
+	 */
+	private void feedback(UserSession user, Participant state) {
+		QosSeries series = statsCollector.getSeries(user, user.getName());
+		if (series == null || series.getLastTime() <= state.feedbackAt) {
+			return;
+		}
+		state.feedbackAt = series.getLastTime();
+		float loss = series.getLastLoss();
+		double previous = state.congestion;
+		if (loss > lossHigh) {
+			state.congestion = Math.max(MIN_CONGESTION, previous * 0.8);
+		} else if (loss < lossLow) {
+			state.congestion = Math.min(1, previous * 1.1);
+		}
+		if (state.congestion != previous) {
+			LOGGER.debug("PARTICIPANT {}: {}% packet loss, budget at {}%", user.getName(), String.format("%.1f", loss), Math.round(state.congestion * 100));
+		}
+	}
+
+	/**
+	 * The state of this very participant, not of another session that joined
+	 * under the same name.
+	 */
+	private Participant stateOf(UserSession user) {
+		Participant state = participants.get(user.getSession().getId());
+		return state != null && state.user == user ? state : null;
+	}
+
+	private String tierOf(UserSession user) {
+		UserUtil device = presenceDirectory.get(user.getSession());
+		String tier = device == null || device.getDomain() == null ? null : tierByDomain.get(device.getDomain());
+		return tier != null ? tier : defaultTier;
+	}
+
+	@PostConstruct
+	private void start() {
+		budgets = new HashMap<>();
+		for (String entry : tiers) {
+			String[] parts = entry.trim().split(":");
+			if (parts.length == 2) {
+				budgets.put(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+			}
+		}
+		if (!budgets.containsKey(defaultTier)) {
+			throw new IllegalStateException("Default bandwidth tier " + defaultTier + " is not in groupcall.bandwidth.tiers");
+		}
+		tierByDomain = new HashMap<>();
+		for (String entry : domainTiers) {
+			String[] parts = entry.trim().split(":");
+			if (parts.length == 2) {
+				tierByDomain.put(parts[0].trim(), parts[1].trim());
+			}
+		}
+		if (!enabled) {
+			return;
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("bandwidth-policy").daemon(true).factory());
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				tick();
+			} catch (RuntimeException e) {
+				LOGGER.error("Bandwidth policy tick failed", e);
+			}
+		}, updateInterval, updateInterval, TimeUnit.MILLISECONDS);
+		LOGGER.info("Bandwidth policy started: tiers {} kbps, updates every {} ms", budgets, updateInterval);
+	}
+
+	@PreDestroy
+	private void shutdown() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	private static final class Participant {
+		private final UserSession user;
+		private final String tier;
+		private final ConcurrentMap<String, Applied> applied = new ConcurrentHashMap<>();
+		private volatile double congestion = 1;
+		// Time of the last statistics sample taken into account, only touched by the tick
+		private long feedbackAt;
+
+		private Participant(UserSession user, String tier) {
+			this.user = user;
+			this.tier = tier;
+		}
+	}
+
+	private static final class Applied {
+		private final int kbps;
+		private final long at;
+
+		private Applied(int kbps, long at) {
+			this.kbps = kbps;
+			this.at = at;
+		}
+	}
+}
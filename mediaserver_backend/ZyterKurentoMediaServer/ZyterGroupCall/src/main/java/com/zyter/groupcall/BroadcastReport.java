@@ -0,0 +1,52 @@
+package com.zyter.groupcall;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of a {@link Room#broadcast}: how many participants the message was
+ * handed to and why the others could not take it.
+ */
+public class BroadcastReport {
+
+	private final String messageId;
+
+	private int delivered;
+
+	private final Map<String, String> failures = new LinkedHashMap<>();
+
+	public BroadcastReport(String messageId) {
+		this.messageId = messageId;
+	}
+
+	void delivered() {
+		delivered++;
+	}
+
+	void failed(String participant, String reason) {
+		failures.put(participant, reason);
+	}
+
+	public String getMessageId() {
+		return messageId;
+	}
+
+	/**
+	 * Recipients whose outbound queue accepted the message.
+	 */
+	public int getDelivered() {
+		return delivered;
+	}
+
+	/**
+	 * Failure reason by participant name.
+	 */
+	public Map<String, String> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	public boolean hasFailures() {
+		return !failures.isEmpty();
+	}
+}
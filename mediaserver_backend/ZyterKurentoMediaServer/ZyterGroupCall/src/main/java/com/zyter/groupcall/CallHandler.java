@@ -1,34 +1,64 @@
 package com.zyter.groupcall;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.PostConstruct;
 
 import org.kurento.client.IceCandidate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.SubProtocolCapable;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
-
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonObject;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.socket.sockjs.transport.SockJsSession;
+
+import com.zyter.groupcall.logging.LogFormat;
+import com.zyter.groupcall.logging.LogMarkers;
+import com.zyter.groupcall.signaling.AudioLevelMessage;
+import com.zyter.groupcall.signaling.CallMessage;
+import com.zyter.groupcall.signaling.CandidateEntry;
+import com.zyter.groupcall.signaling.ChangeMediaTypeMessage;
+import com.zyter.groupcall.signaling.IncomingCallResponseMessage;
+import com.zyter.groupcall.signaling.InitialDataMessage;
+import com.zyter.groupcall.signaling.JoinRoomMessage;
+import com.zyter.groupcall.signaling.LeaveRoomMessage;
+import com.zyter.groupcall.signaling.OnIceCandidateMessage;
+import com.zyter.groupcall.signaling.OnIceCandidatesMessage;
+import com.zyter.groupcall.signaling.PingMessage;
+import com.zyter.groupcall.signaling.ReceiveVideoFromMessage;
+import com.zyter.groupcall.signaling.ResponseMessage;
+import com.zyter.groupcall.signaling.SignalingCodec;
+import com.zyter.groupcall.signaling.SignalingEncoding;
+import com.zyter.groupcall.signaling.SignalingMessage;
+import com.zyter.groupcall.signaling.UnknownMessage;
 
 /**
  * @author Senthil Kumar K
  * name - unique user id
  * roomName - unique room id
  */
-public class CallHandler extends TextWebSocketHandler {
+public class CallHandler extends AbstractWebSocketHandler implements SubProtocolCapable {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(CallHandler.class);
 
-	private static final Gson gson = new GsonBuilder().create();
+	// Domain the caller's own devices are looked up in
+	private static final String CALLER_DOMAIN = "molzyter";
 
 	@Autowired
 	private RoomManager roomManager;
@@ -36,16 +66,40 @@ public class CallHandler extends TextWebSocketHandler {
 	@Autowired
 	private UserRegistry userRegistry;
 
-	private static final ConcurrentHashMap<String, ConcurrentHashMap<String, CopyOnWriteArrayList<UserUtil>>> users;
+	@Autowired
+	private OutboundMessageWriter outboundWriter;
+
+	@Autowired
+	private SignalingDispatcher signalingDispatcher;
+
+	@Autowired
+	private PresenceDirectory presenceDirectory;
 
-	static {
-		users = new ConcurrentHashMap<String, ConcurrentHashMap<String, CopyOnWriteArrayList<UserUtil>>>();
+	@Autowired
+	private CallInvitations callInvitations;
+
+	@Autowired
+	private SessionHeartbeat sessionHeartbeat;
+
+	private final ConcurrentHashMap<String, OutboundSessionDecorator> outboundSessions = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	private void init() {
+		sessionHeartbeat.setReaper(this::reap);
 	}
 
 	@Override
 	public void afterConnectionEstablished(WebSocketSession session) throws Exception {
 		LOGGER.info("afterConnectionEstablished......");
 
+		// SockJS sessions cannot carry ping frames and have their own heartbeat
+		boolean pingable = !(session instanceof SockJsSession);
+
+		session = outbound(session);
+		if (pingable) {
+			sessionHeartbeat.register(session);
+		}
+
 		HttpHeaders headers = session.getHandshakeHeaders();
 
 		String userName = "";
@@ -63,115 +117,283 @@ public class CallHandler extends TextWebSocketHandler {
 			LOGGER.info("domain : {}", domain);
 			
 			authToken = headers.get(Constants.AUTHTOKEN).get(0);
-			LOGGER.info("authToken : {}", authToken);
+			LOGGER.info("authToken : {}", LogFormat.mask(authToken));
 			
 			displayName = headers.get(Constants.DISPLAYNAME).get(0);
 			LOGGER.info("displayName : {}", displayName);
+
+			if (headers.get(Constants.ICE_BATCHING) != null) {
+				session.getAttributes().put(Constants.ICE_BATCHING, Boolean.valueOf(headers.get(Constants.ICE_BATCHING).get(0)));
+			}
+
+			if (headers.get(Constants.SDP_COMPRESSION) != null) {
+				session.getAttributes().put(Constants.SDP_COMPRESSION, Boolean.valueOf(headers.get(Constants.SDP_COMPRESSION).get(0)));
+			}
 			
 			storeUserSessionInMemory(session, userName, domain, authToken, displayName);
 		}
 	}
 
+	/**
+	 * Subprotocols a client may request to choose the signaling encoding. A
+	 * client requesting none keeps JSON text frames.
+	 */
+	@Override
+	public List<String> getSubProtocols() {
+		return Arrays.asList(SignalingEncoding.CBOR.getSubProtocol(), SignalingEncoding.JSON.getSubProtocol());
+	}
+
 	@Override
 	public void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-		LOGGER.info("Inside handleTextMessage");
-		
-		if (message.getPayload().toString() == null || message.getPayload().toString().isEmpty()) {
+		LOGGER.debug("Inside handleTextMessage");
+
+		sessionHeartbeat.touch(session);
+
+		String payload = message.getPayload();
+		if (payload == null || payload.isEmpty()) {
 			return;
 		}
 
-		JsonObject jsonMessage = null;
-		
+		session = outbound(session);
+
+		SignalingMessage signalingMessage;
 		try {
-			jsonMessage = gson.fromJson(message.getPayload(), JsonObject.class);
-			
-			if (jsonMessage.get("id") == null)
+			signalingMessage = SignalingCodec.decode(payload);
+		} catch (Exception ex) {
+			handleErrorResponse(ex, session, "Error");
+			return;
+		}
+		dispatch(session, signalingMessage, payload);
+	}
+
+	/**
+	 * Binary frames carry the same messages encoded as CBOR, sent by clients that
+	 * negotiated {@link SignalingEncoding#CBOR} at handshake.
+	 */
+	@Override
+	protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+		LOGGER.debug("Inside handleBinaryMessage");
+
+		sessionHeartbeat.touch(session);
+
+		if (message.getPayloadLength() == 0) {
+			return;
+		}
+
+		session = outbound(session);
+
+		SignalingMessage signalingMessage;
+		try {
+			signalingMessage = SignalingCodec.decode(message.getPayload());
+		} catch (Exception ex) {
+			handleErrorResponse(ex, session, "Error");
+			return;
+		}
+		String description = signalingMessage == null ? null : signalingMessage.getId() + " (" + message.getPayloadLength() + " bytes)";
+		dispatch(session, signalingMessage, description);
+	}
+
+	/**
+	 * Answer to the heartbeat's ping frames.
+	 */
+	@Override
+	protected void handlePongMessage(WebSocketSession session, PongMessage message) throws Exception {
+		sessionHeartbeat.touch(session);
+	}
+
+	/**
+	 * Hands a decoded message to the session's serial executor, so that the
+	 * container thread is free as soon as the frame is parsed.
+	 */
+	private void dispatch(WebSocketSession session, SignalingMessage signalingMessage, String payload) {
+		if (signalingMessage == null) {
+			return;
+		}
+		signalingDispatcher.dispatch(session, () -> {
+			try {
+				handleSignalingMessage(session, signalingMessage, payload);
+			} catch (IOException e) {
+				LOGGER.error("Could not answer session {}: {}", session.getId(), e.getMessage());
+			}
+		});
+	}
+
+	private void handleSignalingMessage(WebSocketSession session, SignalingMessage signalingMessage, String payload) throws IOException {
+		if (signalingMessage == null) {
+			return;
+		}
+
+		// Ids sent by clients are only used as metric tags when the server knows them
+		final String metricId = signalingMessage instanceof UnknownMessage ? "unknown" : signalingMessage.getId();
+		final long start = GroupCallMetrics.start();
+		boolean success = false;
+		try {
+			if (signalingMessage instanceof PingMessage) {
+				LOGGER.debug(LogMarkers.PAYLOAD, "Incoming message : {}", LogFormat.payload(payload));
+
+				PingMessage ping = (PingMessage) signalingMessage;
+				LOGGER.debug(LogMarkers.PAYLOAD, "Sending the pong message to participant '{}'", ping.getFrom());
+				sendMessage(session, ping.toPong());
 				return;
-			
-			if("ping".equals(jsonMessage.get("id").getAsString())) {
-				LOGGER.info("Incoming message : {}", jsonMessage);
-				
-				jsonMessage.addProperty("id", "pong");
-				LOGGER.info("Sending the message to participant '{}' with data '{}'", jsonMessage.get("from").getAsString(), jsonMessage.toString());
-			    session.sendMessage(new TextMessage(jsonMessage.toString()));
-			    return;
 			}
 
 			UserSession user = userRegistry.getBySession(session);
 
 			if (user != null) {
-				LOGGER.info("Incoming message from user '{}': {}", user.getName(), jsonMessage);
+				LOGGER.info(LogMarkers.PAYLOAD, "Incoming message from user '{}': {}", user.getName(), LogFormat.payload(payload));
 			} else {
-				LOGGER.info("Incoming message from new user: {}", jsonMessage);
+				LOGGER.info(LogMarkers.PAYLOAD, "Incoming message from new user: {}", LogFormat.payload(payload));
 			}
 
-			switch (jsonMessage.get("id").getAsString()) {
-				case "initialData":
-					String userName = jsonMessage.get("userid").getAsString();
-					String domain = jsonMessage.get("domain").getAsString();
-					String authToken = jsonMessage.get("auth_token").getAsString();
-					String displayName = jsonMessage.get("display_name").getAsString();
+			switch (signalingMessage.getId()) {
+				case InitialDataMessage.ID:
+					InitialDataMessage initialData = (InitialDataMessage) signalingMessage;
+					if (initialData.getIceBatching() != null) {
+						session.getAttributes().put(Constants.ICE_BATCHING, initialData.getIceBatching());
+					}
+					if (initialData.getSdpCompression() != null) {
+						session.getAttributes().put(Constants.SDP_COMPRESSION, initialData.getSdpCompression());
+					}
 	
-					storeUserSessionInMemory(session, userName, domain, authToken, displayName);
+					storeUserSessionInMemory(session, initialData.getUserId(), initialData.getDomain(), initialData.getAuthToken(), initialData.getDisplayName());
 					break;
-				case "joinRoom":
-					joinRoom(jsonMessage, session);
+				case JoinRoomMessage.ID:
+					JoinRoomMessage joinRoom = (JoinRoomMessage) signalingMessage;
+					joinRoom(joinRoom.getRoom(), joinRoom.getName(), null, session);
 					break;
-				case "call":
+				case CallMessage.ID:
+					CallMessage callMessage = (CallMessage) signalingMessage;
 					String roomName = UUID.randomUUID().toString();
 					LOGGER.info("roomName : {}", roomName);
-					jsonMessage.addProperty("room", roomName);
-					jsonMessage.addProperty("name", jsonMessage.get("from").getAsString());
-					joinRoom(jsonMessage, session);
+					joinRoom(roomName, callMessage.getFrom(), callMessage.getFrom(), session);
 	
 					UserSession caller = userRegistry.getBySession(session);
-					call(caller, jsonMessage, roomName);
+					call(caller, callMessage, roomName);
 					break;
-				case "incomingCallResponse":
-					incomingCallResponse(session, jsonMessage);
+				case IncomingCallResponseMessage.ID:
+					incomingCallResponse(session, (IncomingCallResponseMessage) signalingMessage);
 					break;
-				case "receiveVideoFrom":
-					final String senderName = jsonMessage.get("sender").getAsString();
-					final UserSession sender = userRegistry.getByName(senderName);
-					final String sdpOffer = jsonMessage.get("sdpOffer").getAsString();
-					user.receiveVideoFrom(sender, sdpOffer);
+				case ReceiveVideoFromMessage.ID:
+					ReceiveVideoFromMessage receiveVideoFrom = (ReceiveVideoFromMessage) signalingMessage;
+					if (receiveVideoFrom.isCompressed()) {
+						// A client sending compressed offers reads compressed answers
+						session.getAttributes().put(Constants.SDP_COMPRESSION, Boolean.TRUE);
+					}
+					final UserSession sender = userRegistry.getByName(receiveVideoFrom.getSender());
+					user.receiveVideoFrom(sender, receiveVideoFrom.getSdpOffer());
 					break;
-				case "leaveRoom":
+				case LeaveRoomMessage.ID:
 					leaveRoom(user);
 					userRegistry.removeBySession(session);
 					break;
-				case "onIceCandidate":
-					JsonObject candidate = jsonMessage.get("candidate").getAsJsonObject();
+				case OnIceCandidateMessage.ID:
+					OnIceCandidateMessage onIceCandidate = (OnIceCandidateMessage) signalingMessage;
 					if (user != null) {
-						IceCandidate cand = new IceCandidate(candidate.get("candidate").getAsString(), candidate.get("sdpMid").getAsString(), candidate.get("sdpMLineIndex").getAsInt());
-						user.addCandidate(cand, jsonMessage.get("name").getAsString());
+						user.addCandidate(onIceCandidate.getCandidate(), onIceCandidate.getName());
 					}
 					break;
-				case "changeMediaType":
-					Room room = roomManager.getRoom(user.getRoomName());
-					String type = jsonMessage.get("type").getAsString();
-					String name = jsonMessage.get("name").getAsString();
-					user.changeMediaType(room.getParticipants(), name, type);
+				case OnIceCandidatesMessage.ID:
+					if (user != null) {
+						addCandidates(user, (OnIceCandidatesMessage) signalingMessage);
+					}
+					break;
+				case ChangeMediaTypeMessage.ID:
+					ChangeMediaTypeMessage changeMediaType = (ChangeMediaTypeMessage) signalingMessage;
+					if (user != null) {
+						user.getRoom().changeMediaType(user, changeMediaType.getName(), changeMediaType.getType());
+					}
+					break;
+				case AudioLevelMessage.ID:
+					if (user != null) {
+						user.getRoom().audioLevel(user.getName(), ((AudioLevelMessage) signalingMessage).getLevel());
+					}
 					break;
 				default:
 					break;
 			}
+			success = true;
 		} catch (Exception ex) {
-			if(jsonMessage != null && jsonMessage.get("id") != null) {
-				handleErrorResponse(ex, session, jsonMessage.get("id").getAsString() + "Response");
-			}else {
-				handleErrorResponse(ex, session, "Error");
-			}
+			handleErrorResponse(ex, session, metricId + "Response");
+		} finally {
+			GroupCallMetrics.recordSignaling(metricId, success, start);
 		}
 	}
 
 	@Override
 	public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
 		LOGGER.info("Inside afterConnectionClosed() method");
-		/*UserSession user = registry.removeBySession(session);
-		if (user != null) {
-			roomManager.getRoom(user.getRoomName()).leave(user);
-		}*/
+		sessionHeartbeat.unregister(session);
+		// Queued after the session's pending messages, so a leaveRoom among them is honoured first
+		signalingDispatcher.dispatchAlways(session, () -> releaseParticipants(Collections.singletonList(session), "disconnect"));
+		signalingDispatcher.release(session);
+		presenceDirectory.unregister(session);
+		OutboundSessionDecorator outboundSession = outboundSessions.remove(session.getId());
+		if (outboundSession != null) {
+			outboundWriter.release(outboundSession);
+		}
+	}
+
+	/**
+	 * Cleans up after the sessions the heartbeat found dead, which are closed
+	 * once this returns. As on a disconnect, the participants are released
+	 * after the messages already queued for their sessions, but still together,
+	 * once every queue has been drained.
+	 */
+	private void reap(List<WebSocketSession> sessions) {
+		List<CompletableFuture<Void>> drained = new ArrayList<>(sessions.size());
+		for (WebSocketSession session : sessions) {
+			CompletableFuture<Void> done = new CompletableFuture<>();
+			signalingDispatcher.dispatchAlways(session, () -> done.complete(null));
+			drained.add(done);
+			signalingDispatcher.release(session);
+			presenceDirectory.unregister(session);
+			OutboundSessionDecorator outboundSession = outboundSessions.remove(session.getId());
+			if (outboundSession != null) {
+				outboundWriter.release(outboundSession);
+			}
+		}
+		CompletableFuture.allOf(drained.toArray(new CompletableFuture<?>[0]))
+				.thenRun(() -> releaseParticipants(sessions, "heartbeat"))
+				.whenComplete((ignored, error) -> {
+					if (error != null) {
+						LOGGER.error("Could not release the participants of {} dead sessions", sessions.size(), error);
+					}
+				});
+	}
+
+	/**
+	 * Takes the participants of closed or dead sessions out of their rooms, one
+	 * command per room, which releases their endpoints and the pipeline of
+	 * every room left empty.
+	 */
+	private void releaseParticipants(Collection<WebSocketSession> sessions, String reason) {
+		Map<Room, List<UserSession>> usersByRoom = new LinkedHashMap<>();
+		int endpoints = 0;
+		for (WebSocketSession session : sessions) {
+			UserSession user = userRegistry.removeBySession(session);
+			if (user != null) {
+				usersByRoom.computeIfAbsent(user.getRoom(), room -> new ArrayList<>()).add(user);
+				endpoints += user.getEndpointCount();
+			}
+		}
+		if (usersByRoom.isEmpty()) {
+			return;
+		}
+
+		int released = 0;
+		for (Map.Entry<Room, List<UserSession>> entry : usersByRoom.entrySet()) {
+			try {
+				roomManager.leaveRoom(entry.getKey(), entry.getValue());
+			} catch (Exception e) {
+				LOGGER.error("ROOM {}: could not release {} participants: {}", entry.getKey().getName(), entry.getValue().size(), e.getMessage());
+			}
+			for (UserSession user : entry.getValue()) {
+				presenceDirectory.setRoomName(CALLER_DOMAIN, user.getName(), null);
+			}
+			released += entry.getValue().size();
+		}
+		LOGGER.info("Released {} participants and {} endpoints left behind by {}", released, endpoints, reason);
+		GroupCallMetrics.recordReclaimed(reason, released, endpoints);
 	}
 	
 	// Handler method that is called when the message sent by the client don't reach the server for any reason.
@@ -187,21 +409,30 @@ public class CallHandler extends TextWebSocketHandler {
         }
 	}
 
-	private void joinRoom(JsonObject params, WebSocketSession session) throws IOException {
-		final String roomName = params.get("room").getAsString();
-		final String name = params.get("name").getAsString();
+	/**
+	 * Returns the queued outbound view of the session, so that every write made
+	 * on behalf of this client goes through its own send queue.
+	 */
+	private WebSocketSession outbound(WebSocketSession session) {
+		return outboundSessions.computeIfAbsent(session.getId(), id -> outboundWriter.decorate(session));
+	}
+
+	private void joinRoom(String roomName, String name, String callInitiator, WebSocketSession session) throws IOException {
 		LOGGER.info("PARTICIPANT {}: trying to join room {}", name, roomName);
+		final long start = GroupCallMetrics.start();
+		boolean success = false;
 		//String responseMsg = "accepted";
 		UserSession user = null;
 		if (name.isEmpty() || roomName.isEmpty()) {
 			//responseMsg = "rejected: empty user name";
 		} else {
-			Room room = roomManager.getRoom(roomName);
-			if("call".equals(params.get("id").getAsString())) {
-				room.setCallInitiator(params.get("from").getAsString());
+			try {
+				user = roomManager.joinRoom(roomName, name, session, callInitiator);
+				userRegistry.register(user);
+				success = true;
+			} finally {
+				GroupCallMetrics.recordJoin(success, start);
 			}
-			user = room.join(name, session);
-			userRegistry.register(user);
 		}
 		/*if(user != null) {
 			JsonObject response = new JsonObject();
@@ -211,90 +442,42 @@ public class CallHandler extends TextWebSocketHandler {
 		}*/
 	}
 
+	/**
+	 * Applies an {@code onIceCandidates} batch, grouping the candidates by the
+	 * endpoint they belong to so each endpoint receives them in one go.
+	 */
+	private void addCandidates(UserSession user, OnIceCandidatesMessage message) {
+		Map<String, List<IceCandidate>> candidatesByName = new LinkedHashMap<>();
+		for (CandidateEntry entry : message.getCandidates()) {
+			candidatesByName.computeIfAbsent(entry.getName(), name -> new ArrayList<>()).add(entry.getCandidate());
+		}
+		for (Map.Entry<String, List<IceCandidate>> entry : candidatesByName.entrySet()) {
+			user.addCandidates(entry.getValue(), entry.getKey());
+		}
+	}
+
 	private void leaveRoom(UserSession user) throws IOException {
 		LOGGER.info("Inside leaveRoom() method");
-		final Room room = roomManager.getRoom(user.getRoomName());
-		room.leave(user);
-		if (room.getParticipants().isEmpty()) {
-			roomManager.removeRoom(room);
-		}
+		roomManager.leaveRoom(user.getRoom(), user);
 		
-		CopyOnWriteArrayList<UserUtil> utilsList = users.get("molzyter") == null ? null : users.get("molzyter").get(user.getName());
-		if (utilsList != null) {
-			for (UserUtil utils : utilsList) {
-				LOGGER.info("Changing roomName as null for user id {}", utils.getUserId());
-				utils.setRoomName(null);
-			}
-		}
+		presenceDirectory.setRoomName(CALLER_DOMAIN, user.getName(), null);
 	}
 
-	private void call(UserSession caller, JsonObject jsonMessage, String roomName) throws IOException {
+	private void call(UserSession caller, CallMessage callMessage, String roomName) throws IOException {
 		LOGGER.info("Inside call() method");
 		
-		String domain = jsonMessage.get("domain").getAsString().toLowerCase();
-		String from = jsonMessage.get("from").getAsString();
-		String to = jsonMessage.get("to").getAsString();
-
-		CopyOnWriteArrayList<UserUtil> utilsList = users.get("molzyter") == null ? null : users.get("molzyter").get(caller.getName());
-		if (utilsList != null) {
-			for (UserUtil utils : utilsList) {
-				LOGGER.info("Setting roomName for user id {}", utils.getUserId());
-				utils.setRoomName(roomName);
-			}
-		}
+		String domain = callMessage.getDomain().toLowerCase();
+		String to = callMessage.getTo();
+
+		presenceDirectory.setRoomName(CALLER_DOMAIN, caller.getName(), roomName);
 		
-		String[] toList = to.split(",");
-
-		for (String userName : toList) {
-			utilsList = users.get(domain) == null ? null : users.get(domain).get(userName);
-			if (utilsList != null) {
-				for (UserUtil utils : utilsList) {
-					try {
-						if (utils.getSession().isOpen()) {
-							utils.setRoomName(roomName);
-							LOGGER.info("User session is available for the user '{}'", userName);
-							
-							JsonObject response = new JsonObject();
-
-							jsonMessage.addProperty("name", utils.getUserId());
-							//joinRoom(jsonMessage, utils.getSession());
-
-							//if (userRegistry.exists(userName)) {
-								LOGGER.info("User '{}' is available in user registry", userName);
-
-								// caller.setSdpOffer(jsonMessage.getAsJsonPrimitive("sdpOffer").getAsString());
-								// caller.setCallingTo(to);
-
-								response.addProperty("id", "incomingCall");
-								response.addProperty("from", from);
-								
-								LOGGER.info("Sending the message to participant '{}' with data '{}'", userName, response.toString());
-
-								// UserSession callee = registry.getByName(userName);
-								// callee.sendMessage(response);
-								utils.getSession().sendMessage(new TextMessage(response.toString()));
-								// callee.setCallingFrom(from);
-							/*} else {
-								response.addProperty("id", "callResponse");
-								response.addProperty("response", "rejected: user '" + userName + "' is not registered");
-
-								LOGGER.info("Sending the message to caller '{}' with data '{}'", caller.getName(), response.toString());
-								
-								caller.sendMessage(response);
-							}*/
-						}
-					} catch (Throwable t) {
-						handleErrorResponse(t, utils.getSession(), "callResponse");
-					}
-				}
-			}
-		}
+		callInvitations.invite(caller, domain, to.split(","), roomName);
 	}
 
-	private void incomingCallResponse(WebSocketSession session, JsonObject jsonMessage) throws IOException {
+	private void incomingCallResponse(WebSocketSession session, IncomingCallResponseMessage message) throws IOException {
 		LOGGER.info("Inside incomingCallResponse() method");
-		String callResponse = jsonMessage.get("callResponse").getAsString();
-		String from = jsonMessage.get("from").getAsString();
+		String callResponse = message.getCallResponse();
+		String from = message.getFrom();
 		
 		/*JsonObject response = new JsonObject();
 		response.addProperty("id", "callResponse");
@@ -304,16 +487,7 @@ public class CallHandler extends TextWebSocketHandler {
 			//LOGGER.info("Accepted call from '{}' to '{}'", from, caller.getName());
 			LOGGER.info("Accepted call from '{}'", from);
 			try {
-				String roomName = null;
-				CopyOnWriteArrayList<UserUtil> utilsList = users.get("molzyter") == null ? null : users.get("molzyter").get(from);
-				if (utilsList != null) {
-					for (UserUtil utils : utilsList) {
-						roomName = utils.getRoomName();
-						if(roomName != null) {
-							break;
-						}
-					}
-				}
+				String roomName = presenceDirectory.getRoomName(CALLER_DOMAIN, from);
 				
 				Room room = roomManager.getRoom(roomName);
 				if(room.getCallInitiator() == null) {
@@ -323,9 +497,7 @@ public class CallHandler extends TextWebSocketHandler {
 					final UserSession caller = userRegistry.getByName(room.getCallInitiator());
 					room.sendParticipantNames(caller);
 				}
-				jsonMessage.addProperty("room", roomName);
-				jsonMessage.addProperty("name", from);
-				joinRoom(jsonMessage, session);
+				joinRoom(roomName, from, null, session);
 				
 				UserSession callee = userRegistry.getByName(from);
 				room.sendParticipantNames(callee);
@@ -352,28 +524,9 @@ public class CallHandler extends TextWebSocketHandler {
 	private void storeUserSessionInMemory(WebSocketSession session, String userName, String domain, String authToken, String displayName) {
 		LOGGER.info("Inside storeUserSessionInMemory() method");
 		try {
-			ConcurrentHashMap<String, CopyOnWriteArrayList<UserUtil>> domains = users.get(domain);
-
-			if (domains == null) {
-				domains = new ConcurrentHashMap<String, CopyOnWriteArrayList<UserUtil>>();
-				users.put(domain, domains);
-			}
-
-			CopyOnWriteArrayList<UserUtil> temp = domains.get(userName);
-			if (temp == null) {
-				temp = new CopyOnWriteArrayList<UserUtil>();
-				domains.put(userName, temp);
+			if (presenceDirectory.register(session, userName, domain, authToken, displayName) != null) {
+				LOGGER.info("User session has been stored in the server");
 			}
-
-			UserUtil details = new UserUtil();
-			details.setUserId(userName);
-			details.setSession(session);
-			details.setDomain(domain);
-			details.setAuthToken(authToken);
-			details.setDisplayName(displayName);
-			temp.add(details);
-			
-			LOGGER.info("User session has been stored in the server");
 		} catch (Exception ex) {
 			LOGGER.error(ex.getMessage());
 		}
@@ -381,10 +534,11 @@ public class CallHandler extends TextWebSocketHandler {
 	
 	private void handleErrorResponse(Throwable throwable, WebSocketSession session, String responseId) throws IOException {
 		LOGGER.error(throwable.getMessage(), throwable);
-		JsonObject response = new JsonObject();
-		response.addProperty("id", responseId);
-		response.addProperty("response", "rejected");
-		response.addProperty("message", throwable.getMessage());
-		session.sendMessage(new TextMessage(response.toString()));
+		GroupCallMetrics.errorResponse(responseId);
+		sendMessage(session, ResponseMessage.rejected(responseId, throwable));
+	}
+
+	private void sendMessage(WebSocketSession session, SignalingMessage message) throws IOException {
+		session.sendMessage(SignalingCodec.frame(session, message));
 	}
 }
\ No newline at end of file
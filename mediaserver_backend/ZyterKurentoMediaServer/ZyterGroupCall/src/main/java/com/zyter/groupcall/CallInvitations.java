@@ -0,0 +1,138 @@
+package com.zyter.groupcall;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.zyter.groupcall.signaling.IncomingCallMessage;
+import com.zyter.groupcall.signaling.InvitationReportMessage;
+import com.zyter.groupcall.signaling.SharedFrame;
+
+/**
+ * Rings the callees of a {@code call} on all their connected devices. The
+ * {@code incomingCall} message is encoded once and queued on every device's
+ * outbound session, whose writers deliver to the sockets in parallel, so a
+ * stuck device neither delays the other callees nor the caller.
+ *
+ * A callee counts as rung as soon as one of its devices has been written to.
+ * Each callee has its own delivery deadline; once every callee is settled the
+ * caller receives an {@code invitationReport}.
+ */
+public class CallInvitations {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CallInvitations.class);
+
+	@Autowired
+	private PresenceDirectory presenceDirectory;
+
+	@Value("${groupcall.call.delivery-timeout:5000}")
+	private long deliveryTimeout;
+
+	/**
+	 * Rings the callees and reports to the caller once they are all settled.
+	 *
+	 * @return a future completed with the failure reason by callee, empty when
+	 *         every callee was rung
+	 */
+	public CompletableFuture<Map<String, String>> invite(UserSession caller, String domain, String[] callees, String roomName) {
+		final long start = GroupCallMetrics.start();
+		final SharedFrame frame = new SharedFrame(new IncomingCallMessage(caller.getName()));
+		final Set<String> names = new LinkedHashSet<>(Arrays.asList(callees));
+
+		final Map<String, CompletableFuture<String>> outcomes = new LinkedHashMap<>();
+		for (String name : names) {
+			outcomes.put(name, ring(caller.getName(), domain, name, roomName, frame));
+		}
+
+		return CompletableFuture.allOf(outcomes.values().toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+			final List<String> delivered = new ArrayList<>();
+			final Map<String, String> failed = new LinkedHashMap<>();
+			for (Map.Entry<String, CompletableFuture<String>> outcome : outcomes.entrySet()) {
+				String reason = outcome.getValue().join();
+				if (reason == null) {
+					delivered.add(outcome.getKey());
+				} else {
+					failed.put(outcome.getKey(), reason);
+				}
+			}
+
+			if (!failed.isEmpty()) {
+				LOGGER.warn("ROOM {}: {} could not ring {}", roomName, caller.getName(), failed);
+			}
+			GroupCallMetrics.recordInvitations(delivered.size(), failed.size(), start);
+			try {
+				caller.sendMessage(new InvitationReportMessage(roomName, delivered, failed));
+			} catch (IOException e) {
+				LOGGER.error("PARTICIPANT {}: could not send the invitation report: {}", caller.getName(), e.getMessage());
+			}
+			return failed;
+		});
+	}
+
+	/**
+	 * Queues the frame on every open device of the callee.
+	 *
+	 * @return a future completed with null once a device received it, or with
+	 *         the reason none did
+	 */
+	private CompletableFuture<String> ring(String from, String domain, String name, String roomName, SharedFrame frame) {
+		final List<CompletableFuture<Void>> writes = new ArrayList<>();
+		for (UserUtil device : presenceDirectory.getDevices(domain, name)) {
+			WebSocketSession session = device.getSession();
+			if (!session.isOpen()) {
+				continue;
+			}
+			device.setRoomName(roomName);
+			LOGGER.info("Sending the incomingCall message from '{}' to participant '{}'", from, name);
+			writes.add(send(session, frame));
+		}
+		if (writes.isEmpty()) {
+			return CompletableFuture.completedFuture("not connected");
+		}
+
+		final CompletableFuture<String> outcome = new CompletableFuture<>();
+		final AtomicInteger remaining = new AtomicInteger(writes.size());
+		for (CompletableFuture<Void> write : writes) {
+			write.whenComplete((result, error) -> {
+				if (error == null) {
+					outcome.complete(null);
+				} else if (remaining.decrementAndGet() == 0) {
+					outcome.complete(reason(error));
+				}
+			});
+		}
+		return outcome.completeOnTimeout("not delivered within " + deliveryTimeout + " ms", deliveryTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	private CompletableFuture<Void> send(WebSocketSession session, SharedFrame frame) {
+		try {
+			if (session instanceof OutboundSessionDecorator) {
+				return ((OutboundSessionDecorator) session).send(frame.forSession(session));
+			}
+			session.sendMessage(frame.forSession(session));
+			return CompletableFuture.completedFuture(null);
+		} catch (IOException | RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private static String reason(Throwable error) {
+		Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+		return cause.getMessage();
+	}
+}
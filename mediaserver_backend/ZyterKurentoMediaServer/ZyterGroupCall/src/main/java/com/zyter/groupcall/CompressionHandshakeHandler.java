@@ -0,0 +1,78 @@
+package com.zyter.groupcall;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+/**
+ * Handshake handler of the native {@code /webSocketServer} endpoint. The
+ * container offers permessage-deflate, which shrinks the repetitive SDP
+ * offers and answers several times; {@code groupcall.websocket.compression}
+ * allows turning it off, e.g. to compare bandwidth and latency on cellular
+ * clients.
+ */
+public class CompressionHandshakeHandler extends DefaultHandshakeHandler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CompressionHandshakeHandler.class);
+
+	public static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+	@Value("${groupcall.websocket.compression:true}")
+	private boolean compression;
+
+	private final AtomicLong compressedSessions = new AtomicLong();
+
+	private final AtomicLong uncompressedSessions = new AtomicLong();
+
+	@Override
+	protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request, List<WebSocketExtension> requestedExtensions, List<WebSocketExtension> supportedExtensions) {
+		List<WebSocketExtension> extensions = super.filterRequestedExtensions(request, requestedExtensions, supportedExtensions);
+		if (!compression) {
+			List<WebSocketExtension> filtered = new ArrayList<>(extensions.size());
+			for (WebSocketExtension extension : extensions) {
+				if (!PERMESSAGE_DEFLATE.equalsIgnoreCase(extension.getName())) {
+					filtered.add(extension);
+				}
+			}
+			extensions = filtered;
+		}
+
+		boolean deflate = false;
+		for (WebSocketExtension extension : extensions) {
+			deflate |= PERMESSAGE_DEFLATE.equalsIgnoreCase(extension.getName());
+		}
+		if (deflate) {
+			compressedSessions.incrementAndGet();
+		} else {
+			uncompressedSessions.incrementAndGet();
+		}
+		LOGGER.info("Web socket extensions for {}: {}", request.getRemoteAddress(), extensions);
+		return extensions;
+	}
+
+	public boolean isCompression() {
+		return compression;
+	}
+
+	/**
+	 * Handshakes that negotiated permessage-deflate since startup.
+	 */
+	public long getCompressedSessions() {
+		return compressedSessions.get();
+	}
+
+	/**
+	 * Handshakes that ended without compression, because it was disabled or the
+	 * client did not offer it.
+	 */
+	public long getUncompressedSessions() {
+		return uncompressedSessions.get();
+	}
+}
@@ -12,6 +12,8 @@ public final class Constants {
 	public static final String APPTOKEN = "X-App-Token";
 	public static final String USERTYPE = "X-User-Type";
 	public static final String USERSEATID = "X-User-SeatId";
+	public static final String ICE_BATCHING = "X-Ice-Batching";
+	public static final String SDP_COMPRESSION = "X-Sdp-Compression";
 
 	public static final Integer CALLHISTORYSTATUS_INITIATE_CALL = 1;
 
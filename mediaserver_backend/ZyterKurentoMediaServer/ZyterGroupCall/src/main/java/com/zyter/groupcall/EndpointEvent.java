@@ -0,0 +1,131 @@
+package com.zyter.groupcall;
+
+import org.kurento.client.Continuation;
+import org.kurento.client.ListenerSubscription;
+import org.kurento.client.WebRtcEndpoint;
+
+/**
+ * The Kurento events the server may listen to on a {@code WebRtcEndpoint},
+ * each with the {@link EventProfile} from which it is subscribed.
+ */
+enum EndpointEvent {
+
+	ICE_CANDIDATE_FOUND(EventProfile.MINIMAL) {
+		@Override
+		void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation) {
+			events.getEndpoint().addIceCandidateFoundListener(event -> events.candidateFound(event.getCandidate()), continuation);
+		}
+	},
+
+	ERROR(EventProfile.MINIMAL) {
+		@Override
+		void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation) {
+			events.getEndpoint().addErrorListener(events::error, continuation);
+		}
+	},
+
+	ICE_COMPONENT_STATE_CHANGE(EventProfile.DIAGNOSTIC) {
+		@Override
+		void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation) {
+			WebRtcEndpoint endpoint = events.getEndpoint();
+			endpoint.addIceComponentStateChangeListener(event -> events.log("IceComponentStateChangeEvent", event.getState()), continuation);
+		}
+	},
+
+	ICE_GATHERING_DONE(EventProfile.DIAGNOSTIC) {
+		@Override
+		void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation) {
+			events.getEndpoint().addIceGatheringDoneListener(event -> events.log("IceGatheringDoneEvent", event.getType()), continuation);
+		}
+	},
+
+	NEW_CANDIDATE_PAIR_SELECTED(EventProfile.DIAGNOSTIC) {
+		@Override
+		void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation) {
+			WebRtcEndpoint endpoint = events.getEndpoint();
+			endpoint.addNewCandidatePairSelectedListener(event -> events.log("NewCandidatePairSelectedEvent", event.getCandidatePair()), continuation);
+		}
+	},
+
+	CONNECTION_STATE_CHANGED(EventProfile.DIAGNOSTIC) {
+		@Override
+		void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation) {
+			WebRtcEndpoint endpoint = events.getEndpoint();
+			endpoint.addConnectionStateChangedListener(event -> events.log("ConnectionStateChangedEvent", event.getNewState()), continuation);
+		}
+	},
+
+	MEDIA_STATE_CHANGED(EventProfile.DIAGNOSTIC) {
+		@Override
+		void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation) {
+			events.getEndpoint().addMediaStateChangedListener(event -> events.log("MediaStateChangedEvent", event.getNewState()), continuation);
+		}
+	},
+
+	MEDIA_FLOW_IN_STATE_CHANGE(EventProfile.DIAGNOSTIC) {
+		@Override
+		void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation) {
+			WebRtcEndpoint endpoint = events.getEndpoint();
+			endpoint.addMediaFlowInStateChangeListener(event -> events.log("MediaFlowInStateChangeEvent", event.getState()), continuation);
+		}
+	},
+
+	MEDIA_FLOW_OUT_STATE_CHANGE(EventProfile.DIAGNOSTIC) {
+		@Override
+		void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation) {
+			WebRtcEndpoint endpoint = events.getEndpoint();
+			endpoint.addMediaFlowOutStateChangeListener(event -> events.log("MediaFlowOutStateChangeEvent", event.getState()), continuation);
+		}
+	},
+
+	MEDIA_TRANSCODING_STATE_CHANGE(EventProfile.FULL) {
+		@Override
+		void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation) {
+			WebRtcEndpoint endpoint = events.getEndpoint();
+			endpoint.addMediaTranscodingStateChangeListener(event -> events.log("MediaTranscodingStateChangeEvent", event.getState()), continuation);
+		}
+	},
+
+	ELEMENT_CONNECTED(EventProfile.FULL) {
+		@Override
+		void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation) {
+			events.getEndpoint().addElementConnectedListener(event -> events.log("ElementConnectedEvent", event.getMediaType()), continuation);
+		}
+	},
+
+	ELEMENT_DISCONNECTED(EventProfile.FULL) {
+		@Override
+		void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation) {
+			events.getEndpoint().addElementDisconnectedListener(event -> events.log("ElementDisconnectedEvent", event.getMediaType()), continuation);
+		}
+	},
+
+	MEDIA_SESSION_STARTED(EventProfile.FULL) {
+		@Override
+		void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation) {
+			events.getEndpoint().addMediaSessionStartedListener(event -> events.log("MediaSessionStartedEvent", event.getType()), continuation);
+		}
+	},
+
+	MEDIA_SESSION_TERMINATED(EventProfile.FULL) {
+		@Override
+		void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation) {
+			events.getEndpoint().addMediaSessionTerminatedListener(event -> events.log("MediaSessionTerminatedEvent", event.getType()), continuation);
+		}
+	};
+
+	private final EventProfile profile;
+
+	EndpointEvent(EventProfile profile) {
+		this.profile = profile;
+	}
+
+	EventProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Issues the asynchronous {@code subscribe} request for this event.
+	 */
+	abstract void subscribe(EndpointEvents events, Continuation<ListenerSubscription> continuation);
+}
@@ -0,0 +1,156 @@
+package com.zyter.groupcall;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.kurento.client.Continuation;
+import org.kurento.client.ErrorEvent;
+import org.kurento.client.IceCandidate;
+import org.kurento.client.ListenerSubscription;
+import org.kurento.client.WebRtcEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zyter.groupcall.logging.LogMarkers;
+
+/**
+ * The event subscriptions of one {@code WebRtcEndpoint}. Subscribe requests
+ * are sent without waiting for each other or for KMS to answer, so they add
+ * no latency to the endpoint creation; only candidate gathering has to wait,
+ * see {@link #ready()}. Changing the profile subscribes the missing events and
+ * drops those the new profile does not include.
+ */
+public class EndpointEvents {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(EndpointEvents.class);
+
+	private static final AtomicInteger ACTIVE_SUBSCRIPTIONS = new AtomicInteger();
+
+	private final WebRtcEndpoint endpoint;
+
+	private final String owner;
+
+	private final String name;
+
+	private final BiConsumer<String, IceCandidate> candidateHandler;
+
+	private final Map<EndpointEvent, CompletableFuture<ListenerSubscription>> subscriptions = new EnumMap<>(EndpointEvent.class);
+
+	private boolean released;
+
+	/**
+	 * @param owner participant owning the endpoint
+	 * @param name participant whose media the endpoint carries, the owner for
+	 * its outgoing endpoint
+	 * @param candidateHandler receives the name and every local candidate found
+	 */
+	public EndpointEvents(WebRtcEndpoint endpoint, String owner, String name, BiConsumer<String, IceCandidate> candidateHandler) {
+		this.endpoint = endpoint;
+		this.owner = owner;
+		this.name = name;
+		this.candidateHandler = candidateHandler;
+	}
+
+	/**
+	 * Brings the subscriptions in line with the given profile.
+	 *
+	 * @return completes once the events needed to run the call are subscribed
+	 */
+	public synchronized CompletableFuture<Void> apply(EventProfile profile) {
+		if (released) {
+			return ready();
+		}
+		for (EndpointEvent event : EndpointEvent.values()) {
+			if (profile.includes(event.getProfile())) {
+				subscriptions.computeIfAbsent(event, this::subscribe);
+			} else {
+				CompletableFuture<ListenerSubscription> subscription = subscriptions.remove(event);
+				if (subscription != null) {
+					subscription.thenAccept(this::unsubscribe);
+				}
+			}
+		}
+		return ready();
+	}
+
+	/**
+	 * Completes once {@code IceCandidateFound} and {@code Error} are subscribed,
+	 * so that gathering can start without losing candidates.
+	 */
+	public synchronized CompletableFuture<Void> ready() {
+		List<CompletableFuture<ListenerSubscription>> required = new ArrayList<>();
+		for (Map.Entry<EndpointEvent, CompletableFuture<ListenerSubscription>> entry : subscriptions.entrySet()) {
+			if (entry.getKey().getProfile() == EventProfile.MINIMAL) {
+				required.add(entry.getValue());
+			}
+		}
+		return CompletableFuture.allOf(required.toArray(new CompletableFuture<?>[0]));
+	}
+
+	/**
+	 * Forgets the subscriptions of an endpoint being released; KMS drops them
+	 * together with the endpoint.
+	 */
+	public synchronized void released() {
+		released = true;
+		for (CompletableFuture<ListenerSubscription> subscription : subscriptions.values()) {
+			subscription.thenAccept(s -> ACTIVE_SUBSCRIPTIONS.decrementAndGet());
+		}
+		subscriptions.clear();
+	}
+
+	WebRtcEndpoint getEndpoint() {
+		return endpoint;
+	}
+
+	void candidateFound(IceCandidate candidate) {
+		LOGGER.debug(LogMarkers.ICE, "PARTICIPANT {}: IceCandidateFoundEvent for {}", owner, name);
+		candidateHandler.accept(name, candidate);
+	}
+
+	void error(ErrorEvent event) {
+		LOGGER.error("PARTICIPANT {}: endpoint for {} raised error code : {}, description : {}", owner, name, event.getErrorCode(), event.getDescription());
+	}
+
+	void log(String type, Object detail) {
+		LOGGER.info(LogMarkers.MEDIA_EVENT, "PARTICIPANT {}: {} for {} : {}", owner, type, name, detail);
+	}
+
+	private CompletableFuture<ListenerSubscription> subscribe(EndpointEvent event) {
+		CompletableFuture<ListenerSubscription> subscription = KurentoAsync.call("subscribe", c -> event.subscribe(this, c));
+		subscription.whenComplete((result, error) -> {
+			if (error != null) {
+				LOGGER.warn("PARTICIPANT {}: could not subscribe to {} for {}: {}", owner, event, name, KurentoAsync.unwrap(error).getMessage());
+			} else {
+				ACTIVE_SUBSCRIPTIONS.incrementAndGet();
+			}
+		});
+		return subscription;
+	}
+
+	private void unsubscribe(ListenerSubscription subscription) {
+		endpoint.removeEventListener(subscription, KurentoAsync.timed("unsubscribe", new Continuation<Void>() {
+			@Override
+			public void onSuccess(Void result) throws Exception {
+				ACTIVE_SUBSCRIPTIONS.decrementAndGet();
+			}
+
+			@Override
+			public void onError(Throwable cause) throws Exception {
+				LOGGER.warn("PARTICIPANT {}: could not unsubscribe event for {}: {}", owner, name, cause.getMessage());
+			}
+		}));
+	}
+
+	/**
+	 * Event subscriptions currently held on KMS by this node.
+	 */
+	public static int getActiveSubscriptions() {
+		return ACTIVE_SUBSCRIPTIONS.get();
+	}
+}
@@ -0,0 +1,55 @@
+package com.zyter.groupcall;
+
+/**
+ * How many Kurento events are subscribed on each {@code WebRtcEndpoint}.
+ * Every subscription is a round trip to KMS, repeated for each of the N²
+ * endpoints of a room, so only what signaling needs is subscribed unless
+ * diagnostics are requested for a room or a user.
+ */
+public enum EventProfile {
+
+	/**
+	 * {@code IceCandidateFound} and {@code Error}, needed to run the call.
+	 */
+	MINIMAL,
+
+	/**
+	 * Adds the ICE, connection and media flow state events, for troubleshooting
+	 * connectivity.
+	 */
+	DIAGNOSTIC,
+
+	/**
+	 * Every event the endpoint raises.
+	 */
+	FULL;
+
+	public boolean includes(EventProfile other) {
+		return compareTo(other) >= 0;
+	}
+
+	/**
+	 * The more detailed of two profiles, either of which may be null.
+	 */
+	public static EventProfile max(EventProfile first, EventProfile second) {
+		if (first == null) {
+			return second;
+		}
+		if (second == null) {
+			return first;
+		}
+		return first.compareTo(second) >= 0 ? first : second;
+	}
+
+	/**
+	 * Parses a profile name, case insensitive.
+	 *
+	 * @return the profile, or null for {@code default}, meaning no override
+	 */
+	public static EventProfile parse(String value) {
+		if (value == null || value.trim().isEmpty() || "default".equalsIgnoreCase(value.trim())) {
+			return null;
+		}
+		return valueOf(value.trim().toUpperCase());
+	}
+}
@@ -0,0 +1,82 @@
+package com.zyter.groupcall;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+
+/**
+ * Attaches or detaches Kurento event diagnostics on a live room or user, e.g.
+ * {@code POST /actuator/events/rooms/{room}} with
+ * {@code {"profile": "diagnostic"}}. The profile {@code default} removes the
+ * override.
+ *
+ * An actuator endpoint rather than a controller, so that it is only served
+ * on the management port, which is kept off the public network.
+ */
+@WebEndpoint(id = "events")
+public class EventProfileEndpoint {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(EventProfileEndpoint.class);
+
+	@Autowired
+	private RoomManager roomManager;
+
+	@Autowired
+	private UserRegistry userRegistry;
+
+	/**
+	 * @param scope {@code rooms} or {@code users}
+	 */
+	@ReadOperation
+	public WebEndpointResponse<String> getProfile(@Selector String scope, @Selector String name) {
+		if ("rooms".equals(scope)) {
+			Room room = roomManager.findRoom(name);
+			return room == null ? notFound() : new WebEndpointResponse<>(room.getEventProfile().name());
+		}
+		UserSession user = findUser(scope, name);
+		return user == null ? notFound() : new WebEndpointResponse<>(user.getEventProfile().name());
+	}
+
+	@WriteOperation
+	public WebEndpointResponse<String> setProfile(@Selector String scope, @Selector String name, String profile) {
+		EventProfile eventProfile;
+		try {
+			eventProfile = EventProfile.parse(profile);
+		} catch (IllegalArgumentException e) {
+			throw new InvalidEndpointRequestException("Unknown profile " + profile, "Unknown profile");
+		}
+		if ("rooms".equals(scope)) {
+			Room room = roomManager.findRoom(name);
+			if (room == null) {
+				return notFound();
+			}
+			LOGGER.info("Setting event profile of room {} to {}", name, profile);
+			room.setEventProfile(eventProfile);
+			return new WebEndpointResponse<>(room.getEventProfile().name());
+		}
+		UserSession user = findUser(scope, name);
+		if (user == null) {
+			return notFound();
+		}
+		LOGGER.info("Setting event profile of user {} to {}", name, profile);
+		user.setEventProfile(eventProfile);
+		return new WebEndpointResponse<>(user.getEventProfile().name());
+	}
+
+	private UserSession findUser(String scope, String name) {
+		if (!"users".equals(scope)) {
+			throw new InvalidEndpointRequestException("Unknown scope " + scope + ", expected rooms or users", "Unknown scope");
+		}
+		return userRegistry.getByName(name);
+	}
+
+	private static WebEndpointResponse<String> notFound() {
+		return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+	}
+}
@@ -1,6 +1,5 @@
 package com.zyter.groupcall;
 
-import org.kurento.client.KurentoClient;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
@@ -24,25 +23,86 @@ public class GroupCallApp extends SpringBootServletInitializer implements WebSoc
 		return new UserRegistry();
 	}
 
+	@Bean
+	public PresenceDirectory presenceDirectory() {
+		return new PresenceDirectory();
+	}
+
+	@Bean
+	public SessionHeartbeat sessionHeartbeat() {
+		return new SessionHeartbeat();
+	}
+
+	@Bean
+	public CallInvitations callInvitations() {
+		return new CallInvitations();
+	}
+
+	@Bean
+	public StatsCollector statsCollector() {
+		return new StatsCollector();
+	}
+
+	@Bean
+	public BandwidthPolicy bandwidthPolicy() {
+		return new BandwidthPolicy();
+	}
+
 	@Bean
 	public RoomManager roomManager() {
 		return new RoomManager();
 	}
 
 	@Bean
-	public CallHandler groupCallHandler() {
-		return new CallHandler();
+	public GroupCallSettings groupCallSettings() {
+		return new GroupCallSettings();
+	}
+
+	@Bean
+	public KurentoServerPool kurentoServerPool() {
+		return new KurentoServerPool();
 	}
 
 	@Bean
-	public KurentoClient kurentoClient() {
-		return KurentoClient.create("ws://34.203.8.163:8888/kurento");
+	public OutboundMessageWriter outboundMessageWriter() {
+		return new OutboundMessageWriter();
+	}
+
+	@Bean
+	public SignalingDispatcher signalingDispatcher() {
+		return new SignalingDispatcher();
+	}
+
+	@Bean
+	public CompressionHandshakeHandler compressionHandshakeHandler() {
+		return new CompressionHandshakeHandler();
+	}
+
+	@Bean
+	public GroupCallMetricsBinder groupCallMetricsBinder() {
+		return new GroupCallMetricsBinder();
+	}
+
+	@Bean
+	public EventProfileEndpoint eventProfileEndpoint() {
+		return new EventProfileEndpoint();
+	}
+
+	@Bean
+	public StatsEndpoint statsEndpoint() {
+		return new StatsEndpoint();
+	}
+
+	@Bean
+	public CallHandler groupCallHandler() {
+		return new CallHandler();
 	}
 
 	@Bean
 	public ServletServerContainerFactoryBean createServletServerContainerFactoryBean() {
 		ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
 		container.setMaxTextMessageBufferSize(32768);
+		container.setMaxBinaryMessageBufferSize(32768);
 		container.setMaxSessionIdleTimeout(60 * 1000L);
 		container.setAsyncSendTimeout(180 * 1000L);
 		return container;
@@ -67,6 +127,7 @@ public class GroupCallApp extends SpringBootServletInitializer implements WebSoc
 	public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
 		// When client native web socket functionality is used, the below handler & URL path are used.
 		registry.addHandler(groupCallHandler(), "/webSocketServer").setAllowedOrigins("*")
+				.setHandshakeHandler(compressionHandshakeHandler())
 				.addInterceptors(new WebSocketHandshakeInterceptor());
 
 		// When sockjs(third party library) is used, the below handler & URL path are used.
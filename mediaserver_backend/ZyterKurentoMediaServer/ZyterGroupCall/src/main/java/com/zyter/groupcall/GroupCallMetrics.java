@@ -0,0 +1,206 @@
+package com.zyter.groupcall;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Latency timers and error counters of the signaling server. They are
+ * registered in Micrometer's global registry, to which Spring Boot adds the
+ * Prometheus registry, so rooms and sessions can record without being beans.
+ * Live counts are published by {@link GroupCallMetricsBinder}.
+ *
+ * All timers publish histogram buckets, e.g. the p99 join time is
+ * {@code histogram_quantile(0.99, rate(groupcall_join_seconds_bucket[5m]))}.
+ */
+public final class GroupCallMetrics {
+
+	public static final String SIGNALING = "groupcall.signaling";
+
+	public static final String JOIN = "groupcall.join";
+
+	public static final String RECEIVE_VIDEO = "groupcall.receive.video";
+
+	public static final String ROOM_CREATION = "groupcall.room.creation";
+
+	public static final String PARTICIPANT_CLOSE = "groupcall.participant.close";
+
+	public static final String KMS_RPC = "groupcall.kms.rpc";
+
+	public static final String ERROR_RESPONSES = "groupcall.error.responses";
+
+	public static final String BROADCAST_RECIPIENTS = "groupcall.broadcast.recipients";
+
+	public static final String RECLAIMED_PARTICIPANTS = "groupcall.reclaimed.participants";
+
+	public static final String RECLAIMED_ENDPOINTS = "groupcall.reclaimed.endpoints";
+
+	public static final String ACTIVE_SPEAKER_CHANGES = "groupcall.active.speaker.changes";
+
+	public static final String ROOM_MODE_SWITCHES = "groupcall.room.mode.switches";
+
+	public static final String BANDWIDTH_UPDATES = "groupcall.bandwidth.updates";
+
+	public static final String CALL_INVITATIONS = "groupcall.call.invitations";
+
+	public static final String CALL_INVITATION_DELIVERY = "groupcall.call.invitation.delivery";
+
+	private static final ConcurrentMap<String, Timer> TIMERS = new ConcurrentHashMap<>();
+
+	private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+
+	private GroupCallMetrics() {
+	}
+
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Time spent handling one incoming message of the given type.
+	 */
+	public static void recordSignaling(String messageId, boolean success, long start) {
+		timer(SIGNALING, "Handling of incoming signaling messages", "message", messageId, success).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Time from a {@code joinRoom} request to the participant being in the room.
+	 */
+	public static void recordJoin(boolean success, long start) {
+		timer(JOIN, "Room join, including the room creation when needed", null, null, success).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Time from a {@code receiveVideoFrom} offer to its answer being sent.
+	 */
+	public static void recordReceiveVideo(boolean success, long start) {
+		timer(RECEIVE_VIDEO, "Offer to answer of receiveVideoFrom", null, null, success).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	public static void recordRoomCreation(boolean success, long start) {
+		timer(ROOM_CREATION, "Creation of a room with its media pipeline", null, null, success).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	public static void recordParticipantClose(boolean success, long start) {
+		timer(PARTICIPANT_CLOSE, "Release of a participant and its endpoints", null, null, success).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Round trip of one Kurento JSON-RPC operation.
+	 */
+	public static void recordKms(String operation, boolean success, long start) {
+		timer(KMS_RPC, "Kurento JSON-RPC round trips", "operation", operation, success).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Counts an error response sent to a client, by response id.
+	 */
+	public static void errorResponse(String responseId) {
+		counter(ERROR_RESPONSES, "Error responses sent to clients", "response", responseId, null).increment();
+	}
+
+	/**
+	 * Counts the recipients a room notification was handed to, and those it
+	 * could not be.
+	 */
+	public static void recordBroadcast(String messageId, int delivered, int failed) {
+		String description = "Recipients of room notifications";
+		if (delivered > 0) {
+			counter(BROADCAST_RECIPIENTS, description, "message", messageId, "delivered").increment(delivered);
+		}
+		if (failed > 0) {
+			counter(BROADCAST_RECIPIENTS, description, "message", messageId, "failed").increment(failed);
+		}
+	}
+
+	/**
+	 * Counts the participants, and their endpoints, released because their
+	 * client disconnected or stopped answering the heartbeat without leaving.
+	 */
+	public static void recordReclaimed(String reason, int participants, int endpoints) {
+		counter(RECLAIMED_PARTICIPANTS, "Participants released without leaveRoom", "reason", reason, null).increment(participants);
+		counter(RECLAIMED_ENDPOINTS, "Endpoints released for participants gone without leaveRoom", "reason", reason, null).increment(endpoints);
+	}
+
+	/**
+	 * Counts the changes of a last-N room's forwarded video, by what caused it:
+	 * a participant joining or leaving, a reported audio level or a change of
+	 * audio flow.
+	 */
+	public static void recordSpeakerChange(String cause) {
+		counter(ACTIVE_SPEAKER_CHANGES, "Changes of the video senders forwarded in last-N rooms", "cause", cause, null).increment();
+	}
+
+	/**
+	 * Counts the rooms switching to the given mode.
+	 */
+	public static void recordRoomMode(RoomMode mode) {
+		counter(ROOM_MODE_SWITCHES, "Rooms switching between one endpoint per sender and a mix", "mode", mode.name(), null).increment();
+	}
+
+	/**
+	 * Counts the bandwidth limits set on endpoints, by what triggered them:
+	 * their creation, the periodic policy or a change of media type.
+	 */
+	public static void recordBandwidthUpdate(String reason, boolean success) {
+		counter(BANDWIDTH_UPDATES, "Bandwidth limits set on endpoints", "reason", reason, success ? "success" : "error").increment();
+	}
+
+	/**
+	 * Counts the callees of a {@code call} that were rung and those that were
+	 * not, and the time until all of them were settled.
+	 */
+	public static void recordInvitations(int delivered, int failed, long start) {
+		String description = "Callees rung on at least one device";
+		if (delivered > 0) {
+			counter(CALL_INVITATIONS, description, "message", "incomingCall", "delivered").increment(delivered);
+		}
+		if (failed > 0) {
+			counter(CALL_INVITATIONS, description, "message", "incomingCall", "failed").increment(failed);
+		}
+		timer(CALL_INVITATION_DELIVERY, "Call to every callee being rung or given up on", null, null, failed == 0).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	private static Counter counter(String name, String description, String tagKey, String tagValue, String outcome) {
+		String key = name + '|' + tagValue + '|' + outcome;
+		Counter counter = COUNTERS.get(key);
+		if (counter == null) {
+			counter = COUNTERS.computeIfAbsent(key, k -> {
+				Counter.Builder builder = Counter.builder(name)
+						.description(description)
+						.tag(tagKey, tagValue);
+				if (outcome != null) {
+					builder.tag("outcome", outcome);
+				}
+				return builder.register(Metrics.globalRegistry);
+			});
+		}
+		return counter;
+	}
+
+	private static Timer timer(String name, String description, String tagKey, String tagValue, boolean success) {
+		String outcome = success ? "success" : "error";
+		String key = name + '|' + tagValue + '|' + outcome;
+		Timer timer = TIMERS.get(key);
+		if (timer == null) {
+			timer = TIMERS.computeIfAbsent(key, k -> {
+				Timer.Builder builder = Timer.builder(name)
+						.description(description)
+						.tag("outcome", outcome)
+						.publishPercentileHistogram()
+						.minimumExpectedValue(Duration.ofMillis(1))
+						.maximumExpectedValue(Duration.ofSeconds(30));
+				if (tagKey != null) {
+					builder.tag(tagKey, tagValue);
+				}
+				return builder.register(Metrics.globalRegistry);
+			});
+		}
+		return timer;
+	}
+}
@@ -0,0 +1,129 @@
+package com.zyter.groupcall;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.zyter.groupcall.signaling.SdpCompression;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Publishes the live state of the server as gauges: rooms, participants,
+ * connected devices, endpoints and pipelines per media server, the outbound send queues and the
+ * counters kept by the ICE, event and compression helpers.
+ */
+public class GroupCallMetricsBinder implements MeterBinder {
+
+	@Autowired
+	private RoomManager roomManager;
+
+	@Autowired
+	private UserRegistry userRegistry;
+
+	@Autowired
+	private PresenceDirectory presenceDirectory;
+
+	@Autowired
+	private KurentoServerPool kurentoServers;
+
+	@Autowired
+	private OutboundMessageWriter outboundWriter;
+
+	@Autowired
+	private SignalingDispatcher signalingDispatcher;
+
+	@Autowired
+	private SessionHeartbeat sessionHeartbeat;
+
+	@Autowired
+	private BandwidthPolicy bandwidthPolicy;
+
+	@Autowired
+	private StatsCollector statsCollector;
+
+	@Autowired
+	private CompressionHandshakeHandler compressionHandshakeHandler;
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("groupcall.rooms", roomManager, RoomManager::getRoomCount)
+				.description("Active rooms").register(registry);
+		Gauge.builder("groupcall.participants", userRegistry, UserRegistry::getUserCount)
+				.description("Participants registered in a room").register(registry);
+		for (RoomMode mode : RoomMode.values()) {
+			Gauge.builder("groupcall.rooms.mode", roomManager, manager -> manager.getRoomCount(mode))
+					.description("Active rooms by media mode").tag("mode", mode.name()).register(registry);
+			Gauge.builder("groupcall.room.endpoints", roomManager, manager -> manager.getEndpointCount(mode))
+					.description("WebRtcEndpoints held by the participants of rooms in each media mode").tag("mode", mode.name()).register(registry);
+		}
+
+		Gauge.builder("groupcall.presence.entries", presenceDirectory, PresenceDirectory::getLiveCount)
+				.description("Connected devices in the presence directory").tag("state", "live").register(registry);
+		Gauge.builder("groupcall.presence.entries", presenceDirectory, PresenceDirectory::getStaleCount)
+				.description("Connected devices in the presence directory").tag("state", "stale").register(registry);
+		FunctionCounter.builder("groupcall.presence.rejected", presenceDirectory, PresenceDirectory::getRejectedCount)
+				.description("Devices not stored because the presence directory was full").register(registry);
+
+		for (KurentoServer server : kurentoServers.getServers()) {
+			Gauge.builder("groupcall.kms.pipelines", server, KurentoServer::getPipelineCount)
+					.description("Pipelines holding a room").tag("server", server.getUri()).register(registry);
+			Gauge.builder("groupcall.kms.endpoints", server, KurentoServer::getEndpointCount)
+					.description("WebRtcEndpoints created").tag("server", server.getUri()).register(registry);
+			Gauge.builder("groupcall.kms.load", server, KurentoServer::getLoadScore)
+					.description("Load score used for room placement").tag("server", server.getUri()).register(registry);
+			Gauge.builder("groupcall.pipeline.pool.idle", server.getPipelinePool(), MediaPipelinePool::getIdleCount)
+					.description("Pre-created pipelines ready for a room").tag("server", server.getUri()).register(registry);
+		}
+
+		Gauge.builder("groupcall.bandwidth.participants", bandwidthPolicy, BandwidthPolicy::getParticipantCount)
+				.description("Participants whose endpoints are bandwidth limited").register(registry);
+		Gauge.builder("groupcall.bandwidth.congested", bandwidthPolicy, BandwidthPolicy::getCongestedCount)
+				.description("Participants whose bandwidth is lowered because of packet loss").register(registry);
+
+		Gauge.builder("groupcall.stats.endpoints", statsCollector, StatsCollector::getEndpointCount)
+				.description("Endpoints whose statistics are collected").register(registry);
+		Gauge.builder("groupcall.stats.in.flight", statsCollector, StatsCollector::getInFlight)
+				.description("getStats requests waiting for the media server").register(registry);
+
+		Gauge.builder("groupcall.heartbeat.sessions", sessionHeartbeat, SessionHeartbeat::getSessionCount)
+				.description("Sessions watched by the heartbeat").register(registry);
+		Gauge.builder("groupcall.signaling.pending", signalingDispatcher, SignalingDispatcher::getPendingTasks)
+				.description("Incoming messages waiting for their session's previous ones").register(registry);
+
+		Gauge.builder("groupcall.outbound.sessions", outboundWriter, OutboundMessageWriter::getSessionCount)
+				.description("Sessions with an outbound send queue").register(registry);
+		Gauge.builder("groupcall.outbound.queued", outboundWriter, OutboundMessageWriter::getQueuedMessages)
+				.description("Messages waiting in all send queues").register(registry);
+		Gauge.builder("groupcall.outbound.queue.max", outboundWriter, OutboundMessageWriter::getMaxQueueDepth)
+				.description("Deepest send queue").register(registry);
+		FunctionCounter.builder("groupcall.outbound.evicted", outboundWriter, OutboundMessageWriter::getEvictedSessions)
+				.description("Sessions closed for being too slow").register(registry);
+
+		Gauge.builder("groupcall.ice.buffer.pending", IceCandidateBuffer::getPendingCount)
+				.description("Early candidates waiting for their endpoint").register(registry);
+		FunctionCounter.builder("groupcall.ice.buffer.buffered", IceCandidateBuffer.class, type -> IceCandidateBuffer.getBufferedCount())
+				.description("Candidates received before their endpoint").register(registry);
+		FunctionCounter.builder("groupcall.ice.buffer.flushed", IceCandidateBuffer.class, type -> IceCandidateBuffer.getFlushedCount())
+				.description("Early candidates applied to their endpoint").register(registry);
+		FunctionCounter.builder("groupcall.ice.buffer.expired", IceCandidateBuffer.class, type -> IceCandidateBuffer.getExpiredCount())
+				.description("Early candidates discarded after the TTL").register(registry);
+		FunctionCounter.builder("groupcall.ice.buffer.dropped", IceCandidateBuffer.class, type -> IceCandidateBuffer.getDroppedCount())
+				.description("Early candidates discarded because a buffer was full").register(registry);
+
+		Gauge.builder("groupcall.kms.subscriptions", EndpointEvents::getActiveSubscriptions)
+				.description("Event subscriptions held on the media servers").register(registry);
+
+		FunctionCounter.builder("groupcall.sdp.compressed.in.bytes", SdpCompression.class, type -> SdpCompression.getInflatedWireBytes())
+				.description("Compressed SDP offers received, as sent").register(registry);
+		FunctionCounter.builder("groupcall.sdp.uncompressed.in.bytes", SdpCompression.class, type -> SdpCompression.getInflatedBytes())
+				.description("Compressed SDP offers received, once inflated").register(registry);
+		FunctionCounter.builder("groupcall.sdp.compressed.out.bytes", SdpCompression.class, type -> SdpCompression.getDeflatedWireBytes())
+				.description("Compressed SDP answers sent, as sent").register(registry);
+		FunctionCounter.builder("groupcall.sdp.uncompressed.out.bytes", SdpCompression.class, type -> SdpCompression.getDeflatedBytes())
+				.description("Compressed SDP answers sent, before compression").register(registry);
+		FunctionCounter.builder("groupcall.websocket.deflate.sessions", compressionHandshakeHandler, CompressionHandshakeHandler::getCompressedSessions)
+				.description("Handshakes that negotiated permessage-deflate").register(registry);
+	}
+}
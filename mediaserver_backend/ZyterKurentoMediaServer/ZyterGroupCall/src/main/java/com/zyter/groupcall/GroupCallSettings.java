@@ -0,0 +1,133 @@
+package com.zyter.groupcall;
+
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Tunables needed by the per-room and per-participant objects, which are not
+ * Spring beans themselves. The instance is handed from {@link RoomManager} to
+ * every {@link Room} and from there to its {@link UserSession}s.
+ */
+public class GroupCallSettings {
+
+	@Value("${groupcall.ice.batch-window:20}")
+	private long iceBatchWindow;
+
+	@Value("${groupcall.ice.batch-max-size:32}")
+	private int iceBatchMaxSize;
+
+	@Value("${groupcall.ice.buffer-size:32}")
+	private int iceBufferSize;
+
+	@Value("${groupcall.ice.buffer-max-endpoints:64}")
+	private int iceBufferMaxEndpoints;
+
+	@Value("${groupcall.ice.buffer-ttl:15000}")
+	private long iceBufferTtl;
+
+	@Value("${groupcall.events.profile:MINIMAL}")
+	private EventProfile eventProfile;
+
+	@Value("${groupcall.mcu.threshold:0}")
+	private int mcuThreshold;
+
+	@Value("${groupcall.mcu.leave-below:8}")
+	private int mcuLeaveBelow;
+
+	@Value("${groupcall.last-n.size:0}")
+	private int lastN;
+
+	@Value("${groupcall.last-n.min-participants:8}")
+	private int lastNMinParticipants;
+
+	@Value("${groupcall.last-n.speech-threshold:0.1}")
+	private double speechThreshold;
+
+	@Value("${groupcall.last-n.hold-time:2000}")
+	private long speakerHoldTime;
+
+	/**
+	 * Milliseconds outbound ICE candidates are held to be sent together.
+	 */
+	public long getIceBatchWindow() {
+		return iceBatchWindow;
+	}
+
+	/**
+	 * Number of pending candidates that flushes a batch before the window ends.
+	 */
+	public int getIceBatchMaxSize() {
+		return iceBatchMaxSize;
+	}
+
+	/**
+	 * Early candidates kept per endpoint that does not exist yet.
+	 */
+	public int getIceBufferSize() {
+		return iceBufferSize;
+	}
+
+	/**
+	 * Endpoints per participant that may have early candidates pending.
+	 */
+	public int getIceBufferMaxEndpoints() {
+		return iceBufferMaxEndpoints;
+	}
+
+	/**
+	 * Milliseconds an early candidate is kept waiting for its endpoint.
+	 */
+	public long getIceBufferTtl() {
+		return iceBufferTtl;
+	}
+
+	/**
+	 * Kurento events subscribed on every endpoint unless a room or user asks for
+	 * more.
+	 */
+	public EventProfile getEventProfile() {
+		return eventProfile;
+	}
+
+	/**
+	 * Room size from which the room switches to a mix, 0 to never mix.
+	 */
+	public int getMcuThreshold() {
+		return mcuThreshold;
+	}
+
+	/**
+	 * Room size under which a mixed room goes back to one endpoint per sender.
+	 */
+	public int getMcuLeaveBelow() {
+		return mcuLeaveBelow;
+	}
+
+	/**
+	 * Number of active speakers whose video is forwarded in a large room, 0 to
+	 * always forward every participant's video.
+	 */
+	public int getLastN() {
+		return lastN;
+	}
+
+	/**
+	 * Room size from which only the active speakers' video is forwarded.
+	 */
+	public int getLastNMinParticipants() {
+		return lastNMinParticipants;
+	}
+
+	/**
+	 * Client reported audio level, between 0 and 1, counted as speech.
+	 */
+	public double getSpeechThreshold() {
+		return speechThreshold;
+	}
+
+	/**
+	 * Milliseconds an active speaker keeps its place after speaking.
+	 */
+	public long getSpeakerHoldTime() {
+		return speakerHoldTime;
+	}
+}
@@ -0,0 +1,90 @@
+package com.zyter.groupcall;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.kurento.client.IceCandidate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.zyter.groupcall.signaling.CandidateEntry;
+import com.zyter.groupcall.signaling.IceCandidatesMessage;
+import com.zyter.groupcall.signaling.SignalingCodec;
+
+/**
+ * Coalesces the ICE candidates gathered by KMS for one client into
+ * {@code iceCandidates} messages. The first candidate opens a short window;
+ * everything found until it closes, for any of the client's endpoints, goes
+ * out in a single frame.
+ */
+public class IceCandidateBatcher {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(IceCandidateBatcher.class);
+
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "ice-batcher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final WebSocketSession session;
+
+	private final long window;
+
+	private final int maxSize;
+
+	private final Queue<CandidateEntry> pending = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger pendingCount = new AtomicInteger();
+
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	public IceCandidateBatcher(WebSocketSession session, long window, int maxSize) {
+		this.session = session;
+		this.window = window;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Queues a candidate of the endpoint associated to the given participant.
+	 */
+	public void add(String name, IceCandidate candidate) {
+		pending.add(new CandidateEntry(name, candidate));
+
+		if (pendingCount.incrementAndGet() >= maxSize) {
+			SCHEDULER.execute(this::flush);
+		} else if (scheduled.compareAndSet(false, true)) {
+			SCHEDULER.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void flush() {
+		// Cleared before draining, so a candidate added meanwhile opens a new window
+		scheduled.set(false);
+
+		List<CandidateEntry> candidates = new ArrayList<>();
+		CandidateEntry entry;
+		while ((entry = pending.poll()) != null) {
+			pendingCount.decrementAndGet();
+			candidates.add(entry);
+		}
+		if (candidates.isEmpty()) {
+			return;
+		}
+
+		try {
+			session.sendMessage(SignalingCodec.frame(session, new IceCandidatesMessage(candidates)));
+		} catch (IOException e) {
+			LOGGER.error("Could not send {} ICE candidates to session {}: {}", candidates.size(), session.getId(), e.getMessage());
+		}
+	}
+}
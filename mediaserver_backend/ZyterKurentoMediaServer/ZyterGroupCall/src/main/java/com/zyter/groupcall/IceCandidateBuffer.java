@@ -0,0 +1,201 @@
+package com.zyter.groupcall;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kurento.client.Continuation;
+import org.kurento.client.IceCandidate;
+import org.kurento.client.WebRtcEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the remote candidates a client sends for an endpoint that does not
+ * exist yet, typically because {@code onIceCandidate} overtook the
+ * {@code receiveVideoFrom} offer. They are handed to the endpoint as soon as
+ * it is created instead of being lost.
+ *
+ * Each endpoint keeps at most {@code capacity} candidates, the oldest being
+ * dropped first, and candidates older than the TTL are discarded.
+ */
+public class IceCandidateBuffer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(IceCandidateBuffer.class);
+
+	private static final AtomicLong BUFFERED = new AtomicLong();
+
+	private static final AtomicLong FLUSHED = new AtomicLong();
+
+	private static final AtomicLong EXPIRED = new AtomicLong();
+
+	private static final AtomicLong DROPPED = new AtomicLong();
+
+	private static final AtomicInteger PENDING = new AtomicInteger();
+
+	private final String owner;
+
+	private final int capacity;
+
+	private final int maxEndpoints;
+
+	private final long ttl;
+
+	private final ConcurrentMap<String, Deque<BufferedCandidate>> candidates = new ConcurrentHashMap<>();
+
+	public IceCandidateBuffer(String owner, int capacity, int maxEndpoints, long ttl) {
+		this.owner = owner;
+		this.capacity = capacity;
+		this.maxEndpoints = maxEndpoints;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Buffers a candidate for the endpoint associated to the given participant.
+	 */
+	public void add(String name, IceCandidate candidate) {
+		final BufferedCandidate buffered = new BufferedCandidate(candidate);
+		Deque<BufferedCandidate> queue;
+		while (true) {
+			queue = candidates.get(name);
+			if (queue == null) {
+				if (candidates.size() >= maxEndpoints) {
+					DROPPED.incrementAndGet();
+					LOGGER.warn("PARTICIPANT {}: too many pending endpoints, dropping candidate for {}", owner, name);
+					return;
+				}
+				queue = candidates.computeIfAbsent(name, key -> new ConcurrentLinkedDeque<>());
+			}
+
+			expire(queue);
+			// Counted first, as a concurrent flush may take it at once
+			PENDING.incrementAndGet();
+			queue.addLast(buffered);
+			// A flush may have taken the queue out of the map meanwhile
+			if (candidates.get(name) == queue || !queue.remove(buffered)) {
+				break;
+			}
+			PENDING.decrementAndGet();
+		}
+		BUFFERED.incrementAndGet();
+
+		while (queue.size() > capacity && queue.pollFirst() != null) {
+			PENDING.decrementAndGet();
+			DROPPED.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Hands every buffered, still valid candidate for the participant to its
+	 * endpoint and forgets the participant, so that it no longer counts
+	 * against the limit of pending endpoints. Safe to call concurrently, each
+	 * candidate is delivered once.
+	 */
+	public void flush(String name, WebRtcEndpoint endpoint) {
+		Deque<BufferedCandidate> queue = candidates.remove(name);
+		if (queue == null) {
+			return;
+		}
+
+		long deadline = System.currentTimeMillis() - ttl;
+		int flushed = 0;
+		BufferedCandidate buffered;
+		while ((buffered = queue.pollFirst()) != null) {
+			PENDING.decrementAndGet();
+			if (buffered.receivedAt < deadline) {
+				EXPIRED.incrementAndGet();
+				continue;
+			}
+			endpoint.addIceCandidate(buffered.candidate, KurentoAsync.timed("addIceCandidate", new Continuation<Void>() {
+				@Override
+				public void onSuccess(Void result) throws Exception {
+				}
+
+				@Override
+				public void onError(Throwable cause) throws Exception {
+					LOGGER.warn("PARTICIPANT {}: could not add buffered candidate for {}: {}", owner, name, cause.getMessage());
+				}
+			}));
+			flushed++;
+		}
+
+		if (flushed > 0) {
+			FLUSHED.addAndGet(flushed);
+			LOGGER.info("PARTICIPANT {}: applied {} early candidates for {}", owner, flushed, name);
+		}
+	}
+
+	/**
+	 * Forgets the candidates of a participant whose endpoint will not be created.
+	 */
+	public void discard(String name) {
+		Deque<BufferedCandidate> queue = candidates.remove(name);
+		if (queue != null) {
+			PENDING.addAndGet(-queue.size());
+		}
+	}
+
+	public void clear() {
+		for (String name : candidates.keySet()) {
+			discard(name);
+		}
+	}
+
+	private void expire(Deque<BufferedCandidate> queue) {
+		long deadline = System.currentTimeMillis() - ttl;
+		BufferedCandidate head;
+		while ((head = queue.peekFirst()) != null && head.receivedAt < deadline) {
+			if (queue.remove(head)) {
+				PENDING.decrementAndGet();
+				EXPIRED.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Candidates buffered since startup, across all participants.
+	 */
+	public static long getBufferedCount() {
+		return BUFFERED.get();
+	}
+
+	/**
+	 * Buffered candidates later applied to their endpoint.
+	 */
+	public static long getFlushedCount() {
+		return FLUSHED.get();
+	}
+
+	/**
+	 * Buffered candidates discarded because their endpoint appeared too late.
+	 */
+	public static long getExpiredCount() {
+		return EXPIRED.get();
+	}
+
+	/**
+	 * Candidates discarded because a buffer was full.
+	 */
+	public static long getDroppedCount() {
+		return DROPPED.get();
+	}
+
+	/**
+	 * Candidates currently waiting for their endpoint.
+	 */
+	public static int getPendingCount() {
+		return PENDING.get();
+	}
+
+	private static final class BufferedCandidate {
+		private final IceCandidate candidate;
+		private final long receivedAt = System.currentTimeMillis();
+
+		private BufferedCandidate(IceCandidate candidate) {
+			this.candidate = candidate;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.zyter.groupcall;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import org.kurento.client.Continuation;
+
+/**
+ * Bridges kurento-client's {@link Continuation} callbacks to
+ * {@link CompletableFuture}, so multi step negotiations can be chained
+ * without holding the calling thread for every JSON-RPC round trip.
+ */
+public final class KurentoAsync {
+
+	private static final ExecutorService BLOCKING_EXECUTOR = Executors.newThreadPerTaskExecutor(
+			Thread.ofVirtual().name("kms-async-", 1).factory());
+
+	private KurentoAsync() {
+	}
+
+	/**
+	 * Issues an asynchronous Kurento operation and returns a future completed
+	 * by its continuation, e.g.
+	 * {@code call("processOffer", c -> endpoint.processOffer(sdp, c))}. The
+	 * round trip is recorded under the operation name.
+	 */
+	public static <T> CompletableFuture<T> call(String operation, Consumer<Continuation<T>> invocation) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		final long start = GroupCallMetrics.start();
+		try {
+			invocation.accept(new Continuation<T>() {
+				@Override
+				public void onSuccess(T result) throws Exception {
+					GroupCallMetrics.recordKms(operation, true, start);
+					future.complete(result);
+				}
+
+				@Override
+				public void onError(Throwable cause) throws Exception {
+					GroupCallMetrics.recordKms(operation, false, start);
+					future.completeExceptionally(cause);
+				}
+			});
+		} catch (RuntimeException e) {
+			GroupCallMetrics.recordKms(operation, false, start);
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Wraps a continuation so that the round trip of the operation it waits for
+	 * is recorded.
+	 */
+	public static <T> Continuation<T> timed(String operation, Continuation<T> continuation) {
+		final long start = GroupCallMetrics.start();
+		return new Continuation<T>() {
+			@Override
+			public void onSuccess(T result) throws Exception {
+				GroupCallMetrics.recordKms(operation, true, start);
+				continuation.onSuccess(result);
+			}
+
+			@Override
+			public void onError(Throwable cause) throws Exception {
+				GroupCallMetrics.recordKms(operation, false, start);
+				continuation.onError(cause);
+			}
+		};
+	}
+
+	/**
+	 * Executor for the remaining synchronous Kurento calls made from a
+	 * continuation. They must not run on kurento-client's own response threads,
+	 * which would otherwise wait on themselves; each gets a virtual thread that
+	 * parks for the round trip.
+	 */
+	public static ExecutorService blockingExecutor() {
+		return BLOCKING_EXECUTOR;
+	}
+
+	/**
+	 * Unwraps the {@link CompletionException} added by
+	 * dependent stages so that the original KMS error is reported.
+	 */
+	public static Throwable unwrap(Throwable throwable) {
+		Throwable cause = throwable;
+		while (cause instanceof CompletionException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		return cause;
+	}
+}
@@ -0,0 +1,110 @@
+package com.zyter.groupcall;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.kurento.client.KurentoClient;
+import org.kurento.client.MediaPipeline;
+
+/**
+ * One media server of the {@link KurentoServerPool}, together with the load
+ * this signaling node has placed on it. Rooms keep a reference to the server
+ * their pipeline lives on so every participant's endpoints are created there.
+ */
+public class KurentoServer {
+
+	private final String uri;
+
+	private final KurentoClient client;
+
+	private final int capacity;
+
+	private final int pipelineWeight;
+
+	private final MediaPipelinePool pipelinePool;
+
+	private final AtomicInteger pipelines = new AtomicInteger();
+
+	private final AtomicInteger endpoints = new AtomicInteger();
+
+	private volatile int reportedPipelines;
+
+	public KurentoServer(String uri, KurentoClient client, int capacity, int pipelineWeight, MediaPipelinePool pipelinePool) {
+		this.uri = uri;
+		this.client = client;
+		this.capacity = capacity;
+		this.pipelineWeight = pipelineWeight;
+		this.pipelinePool = pipelinePool;
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	public KurentoClient getClient() {
+		return client;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public boolean isAvailable() {
+		return !client.isClosed();
+	}
+
+	/**
+	 * Takes a pipeline for a new room and accounts it to this server.
+	 */
+	public MediaPipeline acquirePipeline() {
+		MediaPipeline pipeline = pipelinePool.acquire();
+		pipelines.incrementAndGet();
+		return pipeline;
+	}
+
+	public void pipelineReleased() {
+		pipelines.decrementAndGet();
+	}
+
+	public void endpointCreated() {
+		endpoints.incrementAndGet();
+	}
+
+	public void endpointReleased() {
+		endpoints.decrementAndGet();
+	}
+
+	public int getPipelineCount() {
+		return pipelines.get();
+	}
+
+	public int getEndpointCount() {
+		return endpoints.get();
+	}
+
+	/**
+	 * Pipeline count as last reported by the server itself, which includes rooms
+	 * placed by other signaling nodes.
+	 */
+	public void setReportedPipelines(int reportedPipelines) {
+		this.reportedPipelines = reportedPipelines;
+	}
+
+	public MediaPipelinePool getPipelinePool() {
+		return pipelinePool;
+	}
+
+	/**
+	 * Relative load of the server: each room counts as a fixed number of
+	 * endpoints plus the endpoints actually created, scaled by the capacity so
+	 * that a bigger box receives proportionally more rooms.
+	 */
+	public double getLoadScore() {
+		int roomCount = Math.max(pipelines.get(), reportedPipelines);
+		return (double) (roomCount * pipelineWeight + endpoints.get()) / capacity;
+	}
+
+	@Override
+	public String toString() {
+		return uri;
+	}
+}
@@ -0,0 +1,137 @@
+package com.zyter.groupcall;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.kurento.client.KurentoClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * The media servers this node may place rooms on, as configured in
+ * {@code groupcall.kms.urls}. New rooms go to the least loaded available
+ * server; a room never moves once placed.
+ */
+public class KurentoServerPool {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(KurentoServerPool.class);
+
+	@Value("${groupcall.kms.urls:ws://34.203.8.163:8888/kurento}")
+	private String[] urls;
+
+	@Value("${groupcall.kms.capacities:}")
+	private String[] capacities;
+
+	@Value("${groupcall.kms.default-capacity:100}")
+	private int defaultCapacity;
+
+	@Value("${groupcall.kms.pipeline-weight:4}")
+	private int pipelineWeight;
+
+	@Value("${groupcall.kms.load-refresh-interval:10000}")
+	private long loadRefreshInterval;
+
+	@Value("${groupcall.pipeline-pool.low-watermark:2}")
+	private int lowWatermark;
+
+	@Value("${groupcall.pipeline-pool.high-watermark:5}")
+	private int highWatermark;
+
+	@Value("${groupcall.pipeline-pool.idle-ttl:300000}")
+	private long idleTtl;
+
+	@Value("${groupcall.pipeline-pool.maintenance-interval:1000}")
+	private long maintenanceInterval;
+
+	private final List<KurentoServer> servers = new ArrayList<>();
+
+	private ScheduledExecutorService scheduler;
+
+	@PostConstruct
+	private void start() {
+		for (int i = 0; i < urls.length; i++) {
+			String uri = urls[i].trim();
+			if (uri.isEmpty()) {
+				continue;
+			}
+			int capacity = defaultCapacity;
+			if (capacities != null && i < capacities.length && !capacities[i].trim().isEmpty()) {
+				capacity = Integer.parseInt(capacities[i].trim());
+			}
+
+			KurentoClient client = KurentoClient.create(uri);
+			MediaPipelinePool pipelinePool = new MediaPipelinePool(uri, client, lowWatermark, highWatermark, idleTtl, maintenanceInterval);
+			servers.add(new KurentoServer(uri, client, capacity, pipelineWeight, pipelinePool));
+			pipelinePool.start();
+			LOGGER.info("Media server {} added with capacity {}", uri, capacity);
+		}
+
+		if (servers.isEmpty()) {
+			throw new IllegalStateException("No media server configured in groupcall.kms.urls");
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "kms-load");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::refreshLoad, loadRefreshInterval, loadRefreshInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Picks the server for a new room.
+	 *
+	 * @return the available server with the lowest load score
+	 */
+	public KurentoServer leastLoaded() {
+		KurentoServer best = null;
+		for (KurentoServer server : servers) {
+			if (server.isAvailable() && (best == null || server.getLoadScore() < best.getLoadScore())) {
+				best = server;
+			}
+		}
+		if (best == null) {
+			throw new IllegalStateException("No media server available");
+		}
+		return best;
+	}
+
+	public List<KurentoServer> getServers() {
+		return Collections.unmodifiableList(servers);
+	}
+
+	/**
+	 * Reads the pipeline count from every server so that rooms placed by other
+	 * signaling nodes on the same media server are taken into account.
+	 */
+	private void refreshLoad() {
+		for (KurentoServer server : servers) {
+			try {
+				if (server.isAvailable()) {
+					// Pipelines waiting in our own pool carry no room yet
+					int pipelines = server.getClient().getServerManager().getPipelines().size();
+					server.setReportedPipelines(pipelines - server.getPipelinePool().getIdleCount());
+				}
+			} catch (Exception e) {
+				LOGGER.warn("Could not read load of media server {}: {}", server.getUri(), e.getMessage());
+			}
+		}
+	}
+
+	@PreDestroy
+	private void shutdown() {
+		scheduler.shutdownNow();
+		for (KurentoServer server : servers) {
+			server.getPipelinePool().shutdown();
+			server.getClient().destroy();
+		}
+	}
+}
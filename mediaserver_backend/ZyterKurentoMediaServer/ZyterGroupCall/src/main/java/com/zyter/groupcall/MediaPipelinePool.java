@@ -0,0 +1,174 @@
+package com.zyter.groupcall;
+
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.kurento.client.Continuation;
+import org.kurento.client.KurentoClient;
+import org.kurento.client.MediaPipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a number of empty media pipelines ready on KMS so that creating a room
+ * does not wait for a JSON-RPC round trip. The pool is refilled in the
+ * background up to the high watermark whenever it drops below the low one, and
+ * pipelines idle for longer than the TTL are released and replaced.
+ *
+ * Each {@link KurentoServer} owns one pool against its own client.
+ */
+public class MediaPipelinePool {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MediaPipelinePool.class);
+
+	private final String serverName;
+
+	private final KurentoClient kurento;
+
+	private final int lowWatermark;
+
+	private final int highWatermark;
+
+	private final long idleTtl;
+
+	private final long maintenanceInterval;
+
+	private final Deque<PooledPipeline> idle = new ConcurrentLinkedDeque<>();
+
+	private final AtomicInteger idleCount = new AtomicInteger();
+
+	private final AtomicInteger pendingCount = new AtomicInteger();
+
+	private ScheduledExecutorService scheduler;
+
+	public MediaPipelinePool(String serverName, KurentoClient kurento, int lowWatermark, int highWatermark, long idleTtl, long maintenanceInterval) {
+		this.serverName = serverName;
+		this.kurento = kurento;
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		this.idleTtl = idleTtl;
+		this.maintenanceInterval = maintenanceInterval;
+	}
+
+	public void start() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "pipeline-pool-" + serverName);
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::maintain, 0, maintenanceInterval, TimeUnit.MILLISECONDS);
+		LOGGER.info("Pipeline pool for {} started with watermarks {}/{} and idle TTL {} ms", serverName, lowWatermark, highWatermark, idleTtl);
+	}
+
+	/**
+	 * Takes a ready pipeline from the pool. When the pool is empty a pipeline is
+	 * created synchronously, which is the only case paying the KMS round trip.
+	 *
+	 * @return a pipeline owned by the caller
+	 */
+	public MediaPipeline acquire() {
+		PooledPipeline pooled = idle.pollLast();
+		if (pooled != null) {
+			idleCount.decrementAndGet();
+		}
+		scheduler.execute(this::refill);
+
+		if (pooled != null) {
+			LOGGER.debug("Pipeline {} taken from the pool, {} left", pooled.pipeline.getId(), idleCount.get());
+			return pooled.pipeline;
+		}
+
+		LOGGER.warn("Pipeline pool for {} is empty, creating a pipeline on the caller thread", serverName);
+		return kurento.createMediaPipeline();
+	}
+
+	public int getIdleCount() {
+		return idleCount.get();
+	}
+
+	public int getPendingCount() {
+		return pendingCount.get();
+	}
+
+	private void maintain() {
+		try {
+			expire();
+			refill();
+		} catch (Exception e) {
+			LOGGER.error("Pipeline pool maintenance failed", e);
+		}
+	}
+
+	private void expire() {
+		long deadline = System.currentTimeMillis() - idleTtl;
+		Iterator<PooledPipeline> it = idle.iterator();
+		while (it.hasNext()) {
+			PooledPipeline pooled = it.next();
+			// Oldest entries are at the head, so stop at the first fresh one
+			if (pooled.createdAt > deadline) {
+				break;
+			}
+			if (idle.removeFirstOccurrence(pooled)) {
+				idleCount.decrementAndGet();
+				LOGGER.info("Releasing pipeline {} idle for more than {} ms", pooled.pipeline.getId(), idleTtl);
+				release(pooled.pipeline);
+			}
+		}
+	}
+
+	private void refill() {
+		if (idleCount.get() + pendingCount.get() >= lowWatermark) {
+			return;
+		}
+		int missing = highWatermark - idleCount.get() - pendingCount.get();
+		for (int i = 0; i < missing; i++) {
+			pendingCount.incrementAndGet();
+			KurentoAsync.<MediaPipeline>call("createPipeline", c -> kurento.createMediaPipeline(c)).whenComplete((pipeline, error) -> {
+				pendingCount.decrementAndGet();
+				if (error != null) {
+					LOGGER.error("Could not pre-create pipeline on {}: {}", serverName, KurentoAsync.unwrap(error).getMessage());
+				} else {
+					idle.addLast(new PooledPipeline(pipeline));
+					idleCount.incrementAndGet();
+				}
+			});
+		}
+	}
+
+	private void release(MediaPipeline pipeline) {
+		pipeline.release(KurentoAsync.timed("releasePipeline", new Continuation<Void>() {
+			@Override
+			public void onSuccess(Void result) throws Exception {
+				LOGGER.debug("Released pooled pipeline");
+			}
+
+			@Override
+			public void onError(Throwable cause) throws Exception {
+				LOGGER.error("Could not release pooled pipeline: {}", cause.getMessage());
+			}
+		}));
+	}
+
+	public void shutdown() {
+		scheduler.shutdownNow();
+		PooledPipeline pooled;
+		while ((pooled = idle.pollFirst()) != null) {
+			release(pooled.pipeline);
+		}
+		idleCount.set(0);
+	}
+
+	private static final class PooledPipeline {
+		private final MediaPipeline pipeline;
+		private final long createdAt = System.currentTimeMillis();
+
+		private PooledPipeline(MediaPipeline pipeline) {
+			this.pipeline = pipeline;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.zyter.groupcall;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * Owns the writer threads that drain every {@link OutboundSessionDecorator}
+ * and the limits applied to them. Senders only ever enqueue, so fan-out loops
+ * and Kurento event callbacks are never held up by a slow client.
+ *
+ * Writers come from an unbounded pool, so sockets stuck in a write only hold
+ * their own thread. A watchdog evicts the sessions whose current write has
+ * exceeded the send time limit while it is still blocked.
+ */
+public class OutboundMessageWriter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(OutboundMessageWriter.class);
+
+	@Value("${groupcall.outbound.buffer-size-limit:524288}")
+	private int bufferSizeLimit;
+
+	@Value("${groupcall.outbound.send-time-limit:10000}")
+	private int sendTimeLimit;
+
+	@Value("${groupcall.outbound.watchdog-interval:1000}")
+	private long watchdogInterval;
+
+	private final Set<OutboundSessionDecorator> sessions = ConcurrentHashMap.newKeySet();
+
+	private final AtomicLong evictedSessions = new AtomicLong();
+
+	private ExecutorService executor;
+
+	private ScheduledExecutorService watchdog;
+
+	public OutboundSessionDecorator decorate(WebSocketSession session) {
+		OutboundSessionDecorator decorated = new OutboundSessionDecorator(session, this);
+		sessions.add(decorated);
+		return decorated;
+	}
+
+	public void release(OutboundSessionDecorator session) {
+		sessions.remove(session);
+	}
+
+	void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	void sessionEvicted(OutboundSessionDecorator session) {
+		evictedSessions.incrementAndGet();
+		sessions.remove(session);
+	}
+
+	public int getBufferSizeLimit() {
+		return bufferSizeLimit;
+	}
+
+	public int getSendTimeLimit() {
+		return sendTimeLimit;
+	}
+
+	/**
+	 * Total number of messages queued across all live sessions.
+	 */
+	public int getQueuedMessages() {
+		int depth = 0;
+		for (OutboundSessionDecorator session : sessions) {
+			depth += session.getQueueDepth();
+		}
+		return depth;
+	}
+
+	/**
+	 * Deepest single session queue, useful to spot one slow client.
+	 */
+	public int getMaxQueueDepth() {
+		int max = 0;
+		for (OutboundSessionDecorator session : sessions) {
+			max = Math.max(max, session.getQueueDepth());
+		}
+		return max;
+	}
+
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	public long getEvictedSessions() {
+		return evictedSessions.get();
+	}
+
+	private void checkSendTimes() {
+		long now = System.currentTimeMillis();
+		for (OutboundSessionDecorator session : sessions) {
+			try {
+				session.checkSendTime(now);
+			} catch (RuntimeException e) {
+				LOGGER.error("Could not check the send time of session {}", session.getId(), e);
+			}
+		}
+	}
+
+	@PostConstruct
+	private void start() {
+		// Platform threads: the container's blocking write may hold monitors, which would pin a virtual thread's carrier
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ws-writer-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		watchdog = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("ws-writer-watchdog").daemon(true).factory());
+		watchdog.scheduleWithFixedDelay(this::checkSendTimes, watchdogInterval, watchdogInterval, TimeUnit.MILLISECONDS);
+		LOGGER.info("Outbound writer started, buffer limit {} bytes, send time limit {} ms", bufferSizeLimit, sendTimeLimit);
+	}
+
+	@PreDestroy
+	private void shutdown() {
+		watchdog.shutdownNow();
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,215 @@
+package com.zyter.groupcall;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+/**
+ * Web socket session whose {@link #sendMessage(WebSocketMessage)} never blocks
+ * the caller. Messages are appended to a lock-free queue and written to the
+ * underlying session by a single drain task running on the
+ * {@link OutboundMessageWriter} pool, so a slow client only delays itself.
+ *
+ * When the client falls behind the configured buffer size or send time limit,
+ * the pending messages are dropped and the session is closed.
+ *
+ * {@link #send(WebSocketMessage)} queues the same way and tells the caller
+ * when the message has actually been written, or why it never will be.
+ */
+public class OutboundSessionDecorator extends WebSocketSessionDecorator {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(OutboundSessionDecorator.class);
+
+	private final OutboundMessageWriter writer;
+
+	private final Queue<Outbound> queue = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger queueDepth = new AtomicInteger();
+
+	private final AtomicLong bufferedBytes = new AtomicLong();
+
+	private final AtomicBoolean draining = new AtomicBoolean();
+
+	private final AtomicBoolean evicted = new AtomicBoolean();
+
+	private volatile long sendStartTime;
+
+	public OutboundSessionDecorator(WebSocketSession session, OutboundMessageWriter writer) {
+		super(session);
+		this.writer = writer;
+	}
+
+	@Override
+	public void sendMessage(WebSocketMessage<?> message) throws IOException {
+		enqueue(new Outbound(message, null));
+	}
+
+	/**
+	 * Queues a message and returns a future completed once it has been written
+	 * to the socket, or failed if the session is closed or evicted first.
+	 */
+	public CompletableFuture<Void> send(WebSocketMessage<?> message) {
+		CompletableFuture<Void> written = new CompletableFuture<>();
+		enqueue(new Outbound(message, written));
+		return written;
+	}
+
+	private void enqueue(Outbound outbound) {
+		if (evicted.get()) {
+			LOGGER.debug("Session {} has been evicted, dropping outbound message", getId());
+			outbound.failed("session evicted");
+			return;
+		}
+
+		long start = sendStartTime;
+		if (start > 0 && System.currentTimeMillis() - start > writer.getSendTimeLimit()) {
+			evict("send time limit " + writer.getSendTimeLimit() + " ms exceeded");
+			outbound.failed("session evicted");
+			return;
+		}
+
+		int length = outbound.message.getPayloadLength();
+		if (bufferedBytes.addAndGet(length) > writer.getBufferSizeLimit()) {
+			bufferedBytes.addAndGet(-length);
+			evict("buffer size limit " + writer.getBufferSizeLimit() + " bytes exceeded");
+			outbound.failed("session evicted");
+			return;
+		}
+
+		// Counted before it can be polled, so the depth never goes negative
+		queueDepth.incrementAndGet();
+		queue.add(outbound);
+		scheduleDrain();
+	}
+
+	/**
+	 * Number of messages waiting to be written to the client.
+	 */
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/**
+	 * Number of payload bytes waiting to be written to the client.
+	 */
+	public long getBufferedBytes() {
+		return bufferedBytes.get();
+	}
+
+	public boolean isEvicted() {
+		return evicted.get();
+	}
+
+	/**
+	 * Evicts the session if the write in progress has been blocked for longer
+	 * than the send time limit. Called by the writer's watchdog.
+	 */
+	void checkSendTime(long now) {
+		long start = sendStartTime;
+		if (start > 0 && now - start > writer.getSendTimeLimit()) {
+			evict("write blocked for more than " + writer.getSendTimeLimit() + " ms");
+		}
+	}
+
+	private void scheduleDrain() {
+		if (draining.compareAndSet(false, true)) {
+			try {
+				writer.execute(this::drain);
+			} catch (RuntimeException e) {
+				draining.set(false);
+				LOGGER.error("Could not schedule outbound writer for session {}", getId(), e);
+			}
+		}
+	}
+
+	private void drain() {
+		Outbound outbound = null;
+		try {
+			while (!evicted.get() && (outbound = queue.poll()) != null) {
+				queueDepth.decrementAndGet();
+				bufferedBytes.addAndGet(-outbound.message.getPayloadLength());
+				if (!getDelegate().isOpen()) {
+					outbound.failed("session closed");
+					continue;
+				}
+				sendStartTime = System.currentTimeMillis();
+				try {
+					getDelegate().sendMessage(outbound.message);
+				} finally {
+					sendStartTime = 0;
+				}
+				outbound.written();
+			}
+		} catch (Exception e) {
+			if (outbound != null) {
+				outbound.failed("write failed: " + e.getMessage());
+			}
+			evict("write failed: " + e.getMessage());
+		} finally {
+			draining.set(false);
+		}
+
+		// A sender may have queued a message after the last poll but before the flag was cleared
+		if (!evicted.get() && !queue.isEmpty()) {
+			scheduleDrain();
+		}
+	}
+
+	private void evict(String reason) {
+		if (!evicted.compareAndSet(false, true)) {
+			return;
+		}
+		LOGGER.warn("Evicting slow session {} with {} pending messages: {}", getId(), queueDepth.get(), reason);
+
+		// A drain in progress may still be polling; each side only subtracts what it took
+		Outbound outbound;
+		while ((outbound = queue.poll()) != null) {
+			queueDepth.decrementAndGet();
+			bufferedBytes.addAndGet(-outbound.message.getPayloadLength());
+			outbound.failed("session evicted");
+		}
+		writer.sessionEvicted(this);
+
+		// Closing may block on the same stuck socket, so keep it off the sender's thread
+		writer.execute(() -> {
+			try {
+				getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+			} catch (Exception e) {
+				LOGGER.error("Cannot close evicted session {}", getId(), e);
+			}
+		});
+	}
+
+	private static final class Outbound {
+		private final WebSocketMessage<?> message;
+		private final CompletableFuture<Void> written;
+
+		private Outbound(WebSocketMessage<?> message, CompletableFuture<Void> written) {
+			this.message = message;
+			this.written = written;
+		}
+
+		private void written() {
+			if (written != null) {
+				written.complete(null);
+			}
+		}
+
+		private void failed(String reason) {
+			if (written != null) {
+				written.completeExceptionally(new IOException(reason));
+			}
+		}
+	}
+}
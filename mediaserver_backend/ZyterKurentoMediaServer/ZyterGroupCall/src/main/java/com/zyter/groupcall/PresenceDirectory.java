@@ -0,0 +1,181 @@
+package com.zyter.groupcall;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * Connected devices of every user, by domain then user id, used to ring all of
+ * a callee's devices and to remember the room a call was placed in.
+ *
+ * Each entry is also indexed by its WebSocket session id, so it is removed in
+ * constant time when the connection closes. A user's devices are kept in a
+ * concurrent set: connecting or disconnecting one device does not copy the
+ * others. The directory holds at most {@code max-entries} devices; when full,
+ * entries whose session is no longer open are swept before a registration is
+ * refused.
+ */
+public class PresenceDirectory {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PresenceDirectory.class);
+
+	@Value("${groupcall.presence.max-entries:100000}")
+	private int maxEntries;
+
+	private final ConcurrentMap<String, ConcurrentMap<String, Set<UserUtil>>> domains = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, UserUtil> bySessionId = new ConcurrentHashMap<>();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Records a connected device. A session registering again, for instance with
+	 * {@code initialData} after its handshake headers, replaces its own entry.
+	 *
+	 * @return the entry, or null if the directory is full
+	 */
+	public UserUtil register(WebSocketSession session, String userId, String domain, String authToken, String displayName) {
+		if (!bySessionId.containsKey(session.getId()) && bySessionId.size() >= maxEntries && sweep() == 0) {
+			rejected.incrementAndGet();
+			LOGGER.warn("Presence directory is full ({} entries), not storing session {} of user '{}'", maxEntries, session.getId(), userId);
+			return null;
+		}
+
+		UserUtil details = new UserUtil();
+		details.setUserId(userId);
+		details.setSession(session);
+		details.setDomain(domain);
+		details.setAuthToken(authToken);
+		details.setDisplayName(displayName);
+
+		UserUtil previous = bySessionId.put(session.getId(), details);
+		if (previous != null) {
+			removeDevice(previous);
+		}
+		domains.computeIfAbsent(domain, key -> new ConcurrentHashMap<>()).compute(userId, (key, devices) -> {
+			if (devices == null) {
+				devices = ConcurrentHashMap.newKeySet();
+			}
+			devices.add(details);
+			return devices;
+		});
+		return details;
+	}
+
+	/**
+	 * Forgets the device connected through the session, if any.
+	 */
+	public UserUtil unregister(WebSocketSession session) {
+		UserUtil details = bySessionId.remove(session.getId());
+		if (details != null) {
+			removeDevice(details);
+		}
+		return details;
+	}
+
+	/**
+	 * The device connected through the session, or null.
+	 */
+	public UserUtil get(WebSocketSession session) {
+		return bySessionId.get(session.getId());
+	}
+
+	/**
+	 * Connected devices of a user, possibly empty.
+	 */
+	public Set<UserUtil> getDevices(String domain, String userId) {
+		ConcurrentMap<String, Set<UserUtil>> users = domains.get(domain);
+		Set<UserUtil> devices = users == null ? null : users.get(userId);
+		return devices == null ? Collections.emptySet() : Collections.unmodifiableSet(devices);
+	}
+
+	/**
+	 * Sets the room of every device of the user, null once they left it.
+	 */
+	public void setRoomName(String domain, String userId, String roomName) {
+		for (UserUtil device : getDevices(domain, userId)) {
+			LOGGER.info("Setting roomName {} for user id {}", roomName, device.getUserId());
+			device.setRoomName(roomName);
+		}
+	}
+
+	/**
+	 * Room one of the user's devices is in, or null.
+	 */
+	public String getRoomName(String domain, String userId) {
+		for (UserUtil device : getDevices(domain, userId)) {
+			if (device.getRoomName() != null) {
+				return device.getRoomName();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the entries whose session closed without being unregistered.
+	 *
+	 * @return the number of entries removed
+	 */
+	public int sweep() {
+		int removed = 0;
+		for (UserUtil details : bySessionId.values()) {
+			if (!details.getSession().isOpen() && bySessionId.remove(details.getSession().getId(), details)) {
+				removeDevice(details);
+				removed++;
+			}
+		}
+		if (removed > 0) {
+			LOGGER.info("Removed {} stale presence entries", removed);
+		}
+		return removed;
+	}
+
+	public int getEntryCount() {
+		return bySessionId.size();
+	}
+
+	/**
+	 * Entries whose session is open.
+	 */
+	public int getLiveCount() {
+		int live = 0;
+		for (UserUtil details : bySessionId.values()) {
+			if (details.getSession().isOpen()) {
+				live++;
+			}
+		}
+		return live;
+	}
+
+	/**
+	 * Entries whose session is closed but still registered.
+	 */
+	public int getStaleCount() {
+		return Math.max(0, bySessionId.size() - getLiveCount());
+	}
+
+	/**
+	 * Registrations refused because the directory was full.
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	private void removeDevice(UserUtil details) {
+		ConcurrentMap<String, Set<UserUtil>> users = domains.get(details.getDomain());
+		if (users != null) {
+			// Removing the last device drops the user, atomically with a concurrent register
+			users.computeIfPresent(details.getUserId(), (key, devices) -> {
+				devices.remove(details);
+				return devices.isEmpty() ? null : devices;
+			});
+		}
+	}
+}
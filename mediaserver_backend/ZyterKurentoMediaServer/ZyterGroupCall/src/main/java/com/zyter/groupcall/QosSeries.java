@@ -0,0 +1,80 @@
+package com.zyter.groupcall;
+
+/**
+ * The last samples of one endpoint's statistics. Each quantity has its own
+ * primitive array used as a ring, so an endpoint costs a fixed few bytes per
+ * sample and recording allocates nothing.
+ *
+ * Round trip time and jitter are NaN in the samples where the media server
+ * did not report them.
+ */
+public class QosSeries {
+
+	private final long[] times;
+
+	// Milliseconds
+	private final float[] rtt;
+
+	// Percent of the packets
+	private final float[] loss;
+
+	// Milliseconds
+	private final float[] jitter;
+
+	// Kbps
+	private final int[] bitrate;
+
+	private int next;
+
+	private int count;
+
+	public QosSeries(int capacity) {
+		this.times = new long[capacity];
+		this.rtt = new float[capacity];
+		this.loss = new float[capacity];
+		this.jitter = new float[capacity];
+		this.bitrate = new int[capacity];
+	}
+
+	public synchronized void add(long time, float rttMillis, float lossPercent, float jitterMillis, int kbps) {
+		times[next] = time;
+		rtt[next] = rttMillis;
+		loss[next] = lossPercent;
+		jitter[next] = jitterMillis;
+		bitrate[next] = kbps;
+		next = (next + 1) % times.length;
+		if (count < times.length) {
+			count++;
+		}
+	}
+
+	/**
+	 * Time of the latest sample, 0 when there is none.
+	 */
+	public synchronized long getLastTime() {
+		return count == 0 ? 0 : times[last()];
+	}
+
+	/**
+	 * Packet loss of the latest sample, NaN when there is none.
+	 */
+	public synchronized float getLastLoss() {
+		return count == 0 ? Float.NaN : loss[last()];
+	}
+
+	/**
+	 * Summarizes the samples held.
+	 */
+	public synchronized QosSummary summarize() {
+		QosSummary summary = new QosSummary();
+		for (int i = 0; i < count; i++) {
+			int index = (next - count + i + times.length) % times.length;
+			summary.add(times[index], rtt[index], loss[index], jitter[index], bitrate[index]);
+		}
+		return summary;
+	}
+
+	private int last() {
+		return (next - 1 + times.length) % times.length;
+	}
+}
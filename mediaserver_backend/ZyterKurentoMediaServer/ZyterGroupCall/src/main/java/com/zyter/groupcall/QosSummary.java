@@ -0,0 +1,124 @@
+package com.zyter.groupcall;
+
+import java.util.Collection;
+
+/**
+ * Averages and extremes of the statistics of one endpoint, or of several
+ * merged together, as returned by {@code /actuator/stats}. The bitrate of merged
+ * summaries is the total of theirs; the other quantities are averaged over
+ * all samples. A quantity never reported is null.
+ */
+public class QosSummary {
+
+	private int samples;
+
+	private long lastTime;
+
+	private double rttSum;
+	private int rttCount;
+	private double rttMax;
+
+	private double lossSum;
+	private double lossMax;
+
+	private double jitterSum;
+	private int jitterCount;
+	private double jitterMax;
+
+	private double bitrateSum;
+	private int bitrateLast;
+
+	/**
+	 * Merges summaries, e.g. the endpoints of a participant or of a room.
+	 */
+	public static QosSummary merge(Collection<QosSummary> summaries) {
+		QosSummary merged = new QosSummary();
+		double bitrate = 0;
+		int bitrateLast = 0;
+		for (QosSummary summary : summaries) {
+			if (summary.samples == 0) {
+				continue;
+			}
+			merged.samples += summary.samples;
+			merged.lastTime = Math.max(merged.lastTime, summary.lastTime);
+			merged.rttSum += summary.rttSum;
+			merged.rttCount += summary.rttCount;
+			merged.rttMax = Math.max(merged.rttMax, summary.rttMax);
+			merged.lossSum += summary.lossSum;
+			merged.lossMax = Math.max(merged.lossMax, summary.lossMax);
+			merged.jitterSum += summary.jitterSum;
+			merged.jitterCount += summary.jitterCount;
+			merged.jitterMax = Math.max(merged.jitterMax, summary.jitterMax);
+			bitrate += summary.bitrateSum / summary.samples;
+			bitrateLast += summary.bitrateLast;
+		}
+		merged.bitrateSum = bitrate * merged.samples;
+		merged.bitrateLast = bitrateLast;
+		return merged;
+	}
+
+	void add(long time, float rtt, float loss, float jitter, int bitrate) {
+		samples++;
+		lastTime = Math.max(lastTime, time);
+		if (!Float.isNaN(rtt)) {
+			rttSum += rtt;
+			rttCount++;
+			rttMax = Math.max(rttMax, rtt);
+		}
+		lossSum += loss;
+		lossMax = Math.max(lossMax, loss);
+		if (!Float.isNaN(jitter)) {
+			jitterSum += jitter;
+			jitterCount++;
+			jitterMax = Math.max(jitterMax, jitter);
+		}
+		bitrateSum += bitrate;
+		bitrateLast = bitrate;
+	}
+
+	public int getSamples() {
+		return samples;
+	}
+
+	public long getLastTime() {
+		return lastTime;
+	}
+
+	public Double getRttAvg() {
+		return rttCount == 0 ? null : rttSum / rttCount;
+	}
+
+	public Double getRttMax() {
+		return rttCount == 0 ? null : rttMax;
+	}
+
+	public Double getLossAvg() {
+		return samples == 0 ? null : lossSum / samples;
+	}
+
+	public Double getLossMax() {
+		return samples == 0 ? null : lossMax;
+	}
+
+	public Double getJitterAvg() {
+		return jitterCount == 0 ? null : jitterSum / jitterCount;
+	}
+
+	public Double getJitterMax() {
+		return jitterCount == 0 ? null : jitterMax;
+	}
+
+	/**
+	 * Kbps over the samples held.
+	 */
+	public Double getBitrateAvg() {
+		return samples == 0 ? null : bitrateSum / samples;
+	}
+
+	/**
+	 * Kbps in the latest sample.
+	 */
+	public Integer getBitrateLast() {
+		return samples == 0 ? null : bitrateLast;
+	}
+}
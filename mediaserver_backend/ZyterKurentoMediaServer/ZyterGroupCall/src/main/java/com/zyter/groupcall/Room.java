@@ -4,24 +4,46 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
 import javax.annotation.PreDestroy;
 
+import org.kurento.client.Composite;
 import org.kurento.client.Continuation;
 import org.kurento.client.MediaPipeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.socket.WebSocketSession;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonPrimitive;
+import com.zyter.groupcall.signaling.ActiveSpeakersMessage;
+import com.zyter.groupcall.signaling.ExistingParticipantsMessage;
+import com.zyter.groupcall.signaling.NewParticipantArrivedMessage;
+import com.zyter.groupcall.signaling.ParticipantLeftMessage;
+import com.zyter.groupcall.signaling.RoomModeMessage;
+import com.zyter.groupcall.signaling.SharedFrame;
+import com.zyter.groupcall.signaling.SignalingMessage;
 
 /**
+ * A call and its participants. Joins, leaves and closing are commands run by
+ * the room's mailbox, one at a time and in submission order, on a scheduler
+ * shared by all rooms: they need no lock, and the last participant out closes
+ * the room within the same command, so a join can no longer land on a
+ * released pipeline. Notifications and reads use the participant map directly.
+ *
+ * With last-N enabled, a room reaching the configured size only forwards the
+ * video of its most recent speakers; audio stays connected between everyone.
+ * Past the MCU threshold the room mixes everyone through a {@code Composite}
+ * instead, see {@link RoomMode}.
+ *
  * @author Senthil Kumar K
  */
 public class Room implements Closeable {
@@ -29,17 +51,46 @@ public class Room implements Closeable {
 
 	private final ConcurrentMap<String, UserSession> participants = new ConcurrentHashMap<>();
 	private final MediaPipeline pipeline;
+	private final KurentoServer server;
+	private final GroupCallSettings settings;
+	private final BandwidthPolicy bandwidthPolicy;
+	private final StatsCollector statsCollector;
 	private final String name;
-	
-	private String callInitiator;
+
+	private final SerialExecutor mailbox;
+
+	private volatile Thread mailboxThread;
+
+	private volatile boolean closed;
+
+	private volatile String callInitiator;
+
+	private volatile EventProfile eventProfile;
+
+	private final ActiveSpeakers speakers;
+
+	private volatile RoomMode mode = RoomMode.SFU;
+
+	// Mailbox only
+	private Composite composite;
+
+	// Senders whose video is forwarded, null while every sender's is
+	private volatile Set<String> videoSenders;
 
 	public String getName() {
 		return name;
 	}
 
-	public Room(String roomName, MediaPipeline pipeline) {
+	public Room(String roomName, MediaPipeline pipeline, KurentoServer server, GroupCallSettings settings, BandwidthPolicy bandwidthPolicy, StatsCollector statsCollector,
+			Executor scheduler) {
 		this.name = roomName;
 		this.pipeline = pipeline;
+		this.server = server;
+		this.settings = settings;
+		this.bandwidthPolicy = bandwidthPolicy;
+		this.statsCollector = statsCollector;
+		this.mailbox = new SerialExecutor(scheduler);
+		this.speakers = settings.getLastN() > 0 ? new ActiveSpeakers(settings.getLastN(), settings.getSpeakerHoldTime()) : null;
 		LOGGER.info("ROOM {} has been created", roomName);
 	}
 
@@ -48,85 +99,402 @@ public class Room implements Closeable {
 		this.close();
 	}
 
+	/**
+	 * The event profile of the room's endpoints, unless a participant asks for
+	 * more.
+	 */
+	public EventProfile getEventProfile() {
+		return EventProfile.max(settings.getEventProfile(), eventProfile);
+	}
+
+	/**
+	 * Overrides the event profile of the room, null to go back to the default,
+	 * and applies it to the endpoints already created.
+	 */
+	public void setEventProfile(EventProfile eventProfile) {
+		LOGGER.info("ROOM {}: event profile set to {}", this.name, eventProfile);
+		this.eventProfile = eventProfile;
+		for (UserSession participant : participants.values()) {
+			participant.applyEventProfile();
+		}
+	}
+
 	public UserSession join(String userName, WebSocketSession session) throws IOException {
-		LOGGER.info("ROOM {}: adding participant {}", this.name, userName);
-		final UserSession participant = new UserSession(userName, this.name, session, this.pipeline);
-		participants.put(participant.getName(), participant);
-		if(callInitiator == null) {
-			sendNewParticipantName(participant);
-			sendParticipantNames(participant);
+		return join(userName, session, null);
+	}
+
+	/**
+	 * Adds a participant, recording who started the call when given.
+	 *
+	 * @throws RoomClosedException if the room was closed meanwhile
+	 */
+	public UserSession join(String userName, WebSocketSession session, String initiator) throws IOException {
+		return call(() -> {
+			if (closed) {
+				throw new RoomClosedException(this.name);
+			}
+			if (initiator != null) {
+				this.callInitiator = initiator;
+			}
+			LOGGER.info("ROOM {}: adding participant {}", this.name, userName);
+			final UserSession participant = new UserSession(userName, this, session);
+			participants.put(participant.getName(), participant);
+			if (mode == RoomMode.MCU) {
+				// The client only negotiates the mix, so it is not told about the other participants
+				participant.sendMessage(new RoomModeMessage(mode.name()));
+				participant.joinMix(composite).whenComplete((ignored, error) -> {
+					if (error != null) {
+						LOGGER.error("ROOM {}: could not wire {} to the mix: {}", this.name, userName, KurentoAsync.unwrap(error).getMessage());
+					}
+				});
+			} else {
+				// Decided first, so that a join reaching the threshold is not told about peers it may not negotiate
+				updateMode();
+				if (mode == RoomMode.SFU && callInitiator == null) {
+					sendNewParticipantName(participant);
+					sendParticipantNames(participant);
+				}
+			}
+			if (speakers != null) {
+				speakers.add(participant.getName());
+				if (!updateVideoSenders("membership") && videoSenders != null) {
+					participant.sendMessage(new ActiveSpeakersMessage(videoSenders));
+				}
+			}
+			return participant;
+		});
+	}
+
+	/**
+	 * Removes a participant. The last one out closes the room.
+	 *
+	 * @return true if the room was closed
+	 */
+	public boolean leave(UserSession user) throws IOException {
+		return leave(Collections.singletonList(user));
+	}
+
+	/**
+	 * Removes several participants in a single command, as the heartbeat reaper
+	 * does for the dead sessions of a room. Participants no longer in the room
+	 * are ignored. The last one out closes the room.
+	 *
+	 * @return true if the room was closed
+	 */
+	public boolean leave(Collection<UserSession> users) throws IOException {
+		return call(() -> {
+			final List<UserSession> leaving = new ArrayList<>(users.size());
+			for (final UserSession user : users) {
+				if (participants.remove(user.getName(), user)) {
+					LOGGER.info("PARTICIPANT {}: Leaving room {}", user.getName(), this.name);
+					leaving.add(user);
+				}
+			}
+			this.removeParticipants(leaving);
+			for (final UserSession user : leaving) {
+				user.close();
+			}
+			if (speakers != null && !leaving.isEmpty()) {
+				for (final UserSession user : leaving) {
+					speakers.remove(user.getName());
+				}
+				updateVideoSenders("membership");
+			}
+			if (!participants.isEmpty()) {
+				updateMode();
+			}
+			if (participants.isEmpty() && !closed) {
+				closeNow();
+				return true;
+			}
+			return false;
+		});
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	public RoomMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Media elements the room holds on the media server: those of its
+	 * participants and the mix.
+	 */
+	public int getEndpointCount() {
+		int endpoints = composite != null ? 1 : 0;
+		for (final UserSession participant : participants.values()) {
+			endpoints += participant.getEndpointCount();
 		}
-		return participant;
+		return endpoints;
 	}
 
-	public void leave(UserSession user) throws IOException {
-		LOGGER.info("PARTICIPANT {}: Leaving room {}", user.getName(), this.name);
-		this.removeParticipant(user.getName());
-		user.close();
+	/**
+	 * Switches to a mix when the room reaches the MCU threshold and back when it
+	 * shrinks under the lower bound, so a room hovering around the threshold
+	 * does not switch at every join. Runs in the mailbox.
+	 */
+	private void updateMode() {
+		if (settings.getMcuThreshold() <= 0) {
+			return;
+		}
+		if (mode == RoomMode.SFU && participants.size() >= settings.getMcuThreshold()) {
+			startMixing();
+		} else if (mode == RoomMode.MCU && participants.size() < settings.getMcuLeaveBelow()) {
+			stopMixing();
+		}
 	}
 
-	public Collection<String> sendNewParticipantName(UserSession newParticipant) throws IOException {
-		final JsonObject newParticipantMsg = new JsonObject();
-		newParticipantMsg.addProperty("id", "newParticipantArrived");
-		newParticipantMsg.addProperty("name", newParticipant.getName());
+	private void startMixing() {
+		final int endpoints = getEndpointCount();
+		try {
+			composite = KurentoAsync.<Composite>call("createComposite", c -> new Composite.Builder(pipeline).buildAsync(c)).join();
+		} catch (CompletionException e) {
+			LOGGER.error("ROOM {}: could not create the mix, staying in SFU mode: {}", this.name, KurentoAsync.unwrap(e).getMessage());
+			return;
+		}
+		server.endpointCreated();
+		// Set and announced first, so that offers for other participants are refused and no longer sent
+		mode = RoomMode.MCU;
+		broadcast(new RoomModeMessage(mode.name()), null);
 
-		final List<String> participantsList = new ArrayList<>(participants.values().size());
-		LOGGER.info("ROOM {}: notifying other participants of new participant {}", name, newParticipant.getName());
+		final List<CompletableFuture<Void>> wired = new ArrayList<>();
+		for (final UserSession participant : participants.values()) {
+			wired.add(participant.joinMix(composite));
+		}
+		await(wired, "wire participants to the mix");
+		LOGGER.info("ROOM {}: switched to MCU with {} participants, {} endpoints down to {}", this.name, participants.size(), endpoints, getEndpointCount());
+		GroupCallMetrics.recordRoomMode(mode);
+	}
+
+	private void stopMixing() {
+		mode = RoomMode.SFU;
 
+		final List<CompletableFuture<Void>> unwired = new ArrayList<>();
+		for (final UserSession participant : participants.values()) {
+			unwired.add(participant.leaveMix());
+		}
+		await(unwired, "take participants out of the mix");
+		releaseComposite();
+		LOGGER.info("ROOM {}: switched back to SFU with {} participants", this.name, participants.size());
+
+		broadcast(new RoomModeMessage(mode.name()), null);
 		for (final UserSession participant : participants.values()) {
 			try {
-				if (!participant.getName().equals(newParticipant.getName())) {
-					participant.sendMessage(newParticipantMsg);
+				sendParticipantNames(participant);
+			} catch (IOException e) {
+				LOGGER.error("ROOM {}: could not send the participants to {}", this.name, participant.getName(), e);
+			}
+		}
+		GroupCallMetrics.recordRoomMode(mode);
+	}
+
+	private void await(List<CompletableFuture<Void>> operations, String description) {
+		try {
+			CompletableFuture.allOf(operations.toArray(new CompletableFuture<?>[0])).join();
+		} catch (CompletionException e) {
+			LOGGER.error("ROOM {}: could not {}: {}", this.name, description, KurentoAsync.unwrap(e).getMessage());
+		}
+	}
+
+	private void releaseComposite() {
+		final Composite mix = composite;
+		composite = null;
+		if (mix != null) {
+			server.endpointReleased();
+			mix.release(KurentoAsync.timed("releaseComposite", new Continuation<Void>() {
+				@Override
+				public void onSuccess(Void result) throws Exception {
 				}
-			} catch (Exception e) {
-				LOGGER.error("ROOM {}: participant {} could not be notified", name, participant.getName(), e);
+
+				@Override
+				public void onError(Throwable cause) throws Exception {
+					LOGGER.error("ROOM {}: Could not release the mix", Room.this.name);
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Whether the other participants currently receive the sender's video.
+	 */
+	public boolean isVideoForwarded(String sender) {
+		final Set<String> senders = videoSenders;
+		return senders == null || senders.contains(sender);
+	}
+
+	/**
+	 * Participants whose video is currently forwarded to the others.
+	 */
+	public int getVideoSenderCount() {
+		final Set<String> senders = videoSenders;
+		return senders == null ? participants.size() : senders.size();
+	}
+
+	/**
+	 * Takes an audio level reported by a participant's client into account for
+	 * the choice of active speakers.
+	 */
+	public void audioLevel(String name, double level) {
+		if (speakers != null && level >= settings.getSpeechThreshold()) {
+			post("record the speech of " + name, () -> {
+				if (speakers.speaking(name, System.currentTimeMillis())) {
+					updateVideoSenders("audioLevel");
+				}
+			});
+		}
+	}
+
+	/**
+	 * Reconnects a participant's media after it changed what it sends, see
+	 * {@link UserSession#changeMediaType}. Ignored once it left the room.
+	 */
+	public void changeMediaType(UserSession user, String name, String type) {
+		post("change the media type of " + user.getName(), () -> {
+			if (participants.get(user.getName()) == user) {
+				user.changeMediaType(participants.values(), name, type);
 			}
-			participantsList.add(participant.getName());
+		});
+	}
+
+	/**
+	 * Follows the audio flow of a participant's outgoing endpoint: starting to
+	 * send counts as speaking, stopping frees its place among the speakers.
+	 */
+	public void audioFlowing(String name, boolean flowing) {
+		if (speakers == null) {
+			return;
+		}
+		post("record the audio flow of " + name, () -> {
+			boolean changed = flowing ? speakers.speaking(name, System.currentTimeMillis()) : speakers.silent(name);
+			if (changed) {
+				updateVideoSenders("mediaFlow");
+			}
+		});
+	}
+
+	/**
+	 * Recomputes whose video is forwarded and has every participant connect or
+	 * disconnect the video of the senders that changed. Runs in the mailbox.
+	 *
+	 * @return true if the forwarded senders changed and were broadcast
+	 */
+	private boolean updateVideoSenders(String cause) {
+		final Set<String> senders = participants.size() >= settings.getLastNMinParticipants() ? speakers.getActive() : null;
+		if (Objects.equals(senders, videoSenders)) {
+			return false;
+		}
+		videoSenders = senders;
+		LOGGER.info("ROOM {}: forwarding video from {}", this.name, senders == null ? "every participant" : senders);
+
+		for (final UserSession participant : participants.values()) {
+			participant.updateVideoForwarding();
 		}
+		final Collection<String> names = senders != null ? senders : new ArrayList<>(participants.keySet());
+		broadcast(new ActiveSpeakersMessage(names), null);
+		GroupCallMetrics.recordSpeakerChange(cause);
+		return true;
+	}
 
+	public Collection<String> sendNewParticipantName(UserSession newParticipant) throws IOException {
+		LOGGER.info("ROOM {}: notifying other participants of new participant {}", name, newParticipant.getName());
+		broadcast(new NewParticipantArrivedMessage(newParticipant.getName()), newParticipant.getName());
+
+		final List<String> participantsList = new ArrayList<>(participants.size());
+		for (final UserSession participant : participants.values()) {
+			participantsList.add(participant.getName());
+		}
 		return participantsList;
 	}
 
-	private void removeParticipant(String name) throws IOException {
-		participants.remove(name);
+	/**
+	 * Tells the remaining participants about participants already taken out of
+	 * the map, so none of them is notified about another leaver.
+	 */
+	private void removeParticipants(List<UserSession> leaving) {
+		for (final UserSession participant : participants.values()) {
+			for (final UserSession user : leaving) {
+				try {
+					participant.cancelVideoFrom(user.getName());
+				} catch (Exception e) {
+					LOGGER.error("ROOM {}: could not cancel video of {} for {}", this.name, user.getName(), participant.getName(), e);
+				}
+			}
+		}
 
-		LOGGER.info("ROOM {}: notifying all users that {} is leaving the room", this.name, name);
+		for (final UserSession user : leaving) {
+			LOGGER.info("ROOM {}: notifying all users that {} is leaving the room", this.name, user.getName());
+			broadcast(new ParticipantLeftMessage(user.getName()), null);
+		}
+	}
 
-		final List<String> unnotifiedParticipants = new ArrayList<>();
-		final JsonObject participantLeftJson = new JsonObject();
-		participantLeftJson.addProperty("id", "participantLeft");
-		participantLeftJson.addProperty("name", name);
+	/**
+	 * Sends the same notification to every participant but {@code except}. The
+	 * message is encoded once per encoding and queued on each recipient's
+	 * outbound session, whose writers deliver to the sockets in parallel. A
+	 * recipient that cannot take it is reported without holding up the others.
+	 */
+	public BroadcastReport broadcast(SignalingMessage message, String except) {
+		final SharedFrame frame = new SharedFrame(message);
+		final BroadcastReport report = new BroadcastReport(message.getId());
 		for (final UserSession participant : participants.values()) {
+			if (participant.getName().equals(except)) {
+				continue;
+			}
 			try {
-				participant.cancelVideoFrom(name);
-				participant.sendMessage(participantLeftJson);
+				participant.sendFrame(frame);
+				report.delivered();
 			} catch (Exception e) {
-				LOGGER.error("cancelVideoFrom {}", name);
-				unnotifiedParticipants.add(participant.getName());
+				report.failed(participant.getName(), e.getMessage());
 			}
 		}
 
-		if (!unnotifiedParticipants.isEmpty()) {
-			LOGGER.error("ROOM {}: The users {} could not be notified that {} left the room", this.name, unnotifiedParticipants, name);
+		if (report.hasFailures()) {
+			LOGGER.error("ROOM {}: {} could not be sent to {}", this.name, message.getId(), report.getFailures());
 		}
+		GroupCallMetrics.recordBroadcast(message.getId(), report.getDelivered(), report.getFailures().size());
+		return report;
 	}
 
 	public void sendParticipantNames(UserSession user) throws IOException {
-		final JsonArray participantsArray = new JsonArray();
+		final List<String> participantsArray = new ArrayList<>();
 		for (final UserSession participant : this.getParticipants()) {
 			if (!participant.getName().equals(user.getName())) {
-				final JsonElement participantName = new JsonPrimitive(participant.getName());
-				participantsArray.add(participantName);
+				participantsArray.add(participant.getName());
 			}
 		}
 
-		final JsonObject existingParticipantsMsg = new JsonObject();
-		existingParticipantsMsg.addProperty("id", "existingParticipants");
-		existingParticipantsMsg.add("data", participantsArray);
+		final ExistingParticipantsMessage existingParticipantsMsg = new ExistingParticipantsMessage(participantsArray);
 		LOGGER.info("PARTICIPANT {}: sending a list of {} participants", user.getName(), participantsArray.size());
 		user.sendMessage(existingParticipantsMsg);
 	}
 
+	public MediaPipeline getPipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * The media server hosting this room's pipeline, and therefore every
+	 * endpoint of its participants.
+	 */
+	public KurentoServer getServer() {
+		return server;
+	}
+
+	public GroupCallSettings getSettings() {
+		return settings;
+	}
+
+	public BandwidthPolicy getBandwidthPolicy() {
+		return bandwidthPolicy;
+	}
+
+	public StatsCollector getStatsCollector() {
+		return statsCollector;
+	}
+
 	public Collection<UserSession> getParticipants() {
 		return participants.values();
 	}
@@ -137,6 +505,20 @@ public class Room implements Closeable {
 
 	@Override
 	public void close() {
+		try {
+			call(() -> {
+				if (!closed) {
+					closeNow();
+				}
+				return null;
+			});
+		} catch (IOException e) {
+			LOGGER.error("ROOM {}: could not be closed", this.name, e);
+		}
+	}
+
+	private void closeNow() {
+		closed = true;
 		for (final UserSession user : participants.values()) {
 			try {
 				user.close();
@@ -146,8 +528,14 @@ public class Room implements Closeable {
 		}
 
 		participants.clear();
+		// Released together with the pipeline
+		if (composite != null) {
+			server.endpointReleased();
+			composite = null;
+		}
 
-		pipeline.release(new Continuation<Void>() {
+		server.pipelineReleased();
+		pipeline.release(KurentoAsync.timed("releasePipeline", new Continuation<Void>() {
 
 			@Override
 			public void onSuccess(Void result) throws Exception {
@@ -158,7 +546,7 @@ public class Room implements Closeable {
 			public void onError(Throwable cause) throws Exception {
 				LOGGER.info("PARTICIPANT {}: Could not release Pipeline", Room.this.name);
 			}
-		});
+		}));
 
 		LOGGER.info("Room {} closed", this.name);
 	}
@@ -167,7 +555,67 @@ public class Room implements Closeable {
 		return callInitiator;
 	}
 
-	public void setCallInitiator(String callInitiator) {
-		this.callInitiator = callInitiator;
+	/**
+	 * Runs a command in the mailbox after those already queued and waits for
+	 * its outcome. A command issuing another one runs it in place.
+	 */
+	private <T> T call(Callable<T> command) throws IOException {
+		if (Thread.currentThread() == mailboxThread) {
+			try {
+				return command.call();
+			} catch (Exception e) {
+				throw propagate(e);
+			}
+		}
+
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		mailbox.execute(() -> {
+			mailboxThread = Thread.currentThread();
+			try {
+				result.complete(command.call());
+			} catch (Throwable t) {
+				result.completeExceptionally(t);
+			} finally {
+				mailboxThread = null;
+			}
+		});
+		try {
+			return result.join();
+		} catch (CompletionException e) {
+			throw propagate(e.getCause());
+		}
+	}
+
+	/**
+	 * Queues a command without waiting for it, for updates reported by clients
+	 * and media events. Dropped once the room is closed.
+	 */
+	private void post(String description, Runnable command) {
+		mailbox.execute(() -> {
+			mailboxThread = Thread.currentThread();
+			try {
+				if (!closed) {
+					command.run();
+				}
+			} catch (RuntimeException e) {
+				LOGGER.error("ROOM {}: could not {}", this.name, description, e);
+			} finally {
+				mailboxThread = null;
+			}
+		});
+	}
+
+	/**
+	 * Rethrows unchecked failures as they are and returns checked ones as an
+	 * {@link IOException} for the caller to throw.
+	 */
+	private static IOException propagate(Throwable cause) {
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return cause instanceof IOException ? (IOException) cause : new IOException(cause);
 	}
 }
@@ -0,0 +1,15 @@
+package com.zyter.groupcall;
+
+/**
+ * Thrown by a command that reached the mailbox of a {@link Room} after its
+ * last participant left and closed it. {@link RoomManager} then creates the
+ * room again.
+ */
+public class RoomClosedException extends IllegalStateException {
+
+	private static final long serialVersionUID = 1L;
+
+	public RoomClosedException(String roomName) {
+		super("Room " + roomName + " is closed");
+	}
+}
@@ -1,12 +1,19 @@
 package com.zyter.groupcall;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PreDestroy;
 
-import org.kurento.client.KurentoClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.socket.WebSocketSession;
 
 /**
  * @author Senthil Kumar K
@@ -16,38 +23,148 @@ public class RoomManager {
 	private final Logger LOGGER = LoggerFactory.getLogger(RoomManager.class);
 
 	@Autowired
-	private KurentoClient kurento;
+	private KurentoServerPool kurentoServers;
+
+	@Autowired
+	private GroupCallSettings settings;
+
+	@Autowired
+	private BandwidthPolicy bandwidthPolicy;
+
+	@Autowired
+	private StatsCollector statsCollector;
 
 	private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
 
+	/**
+	 * Runs the mailboxes of every room, each drain on its own virtual thread.
+	 */
+	private ExecutorService scheduler = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("room-", 1).factory());
+
 	/**
 	 * Looks for a room in the active room list.
 	 *
 	 * @param roomName the name of the room
 	 * @return the room if it was already created, or a new one if it is the first
-	 *         time this room is accessed
+	 *         time this room is accessed. Concurrent callers for a new room all get
+	 *         the same instance, backed by a single pipeline on the least loaded
+	 *         media server.
 	 */
 	public Room getRoom(String roomName) {
 		LOGGER.info("Searching for room {}", roomName);
 		Room room = rooms.get(roomName);
-
 		if (room == null) {
-			LOGGER.info("Room {} not existent. Will create now!", roomName);
-			room = new Room(roomName, kurento.createMediaPipeline());
-			rooms.put(roomName, room);
+			// Acquiring may wait for the media server, so it is done outside the map
+			Room created = createRoom(roomName);
+			room = rooms.putIfAbsent(roomName, created);
+			if (room == null) {
+				room = created;
+			} else {
+				LOGGER.info("Room {} created concurrently, releasing the duplicate", roomName);
+				created.close();
+			}
 		}
 		LOGGER.info("Room {} found!", roomName);
 		return room;
 	}
 
+	private Room createRoom(String roomName) {
+		KurentoServer server = kurentoServers.leastLoaded();
+		LOGGER.info("Room {} not existent. Will create now on {}!", roomName, server);
+		long start = GroupCallMetrics.start();
+		boolean success = false;
+		try {
+			Room created = new Room(roomName, server.acquirePipeline(), server, settings, bandwidthPolicy, statsCollector, scheduler);
+			success = true;
+			return created;
+		} finally {
+			GroupCallMetrics.recordRoomCreation(success, start);
+		}
+	}
+
+	/**
+	 * Adds a participant to a room, creating it again if its last participant
+	 * closed it meanwhile.
+	 */
+	public UserSession joinRoom(String roomName, String userName, WebSocketSession session, String callInitiator) throws IOException {
+		while (true) {
+			Room room = getRoom(roomName);
+			try {
+				return room.join(userName, session, callInitiator);
+			} catch (RoomClosedException e) {
+				LOGGER.info("Room {} closed while {} was joining, creating it again", roomName, userName);
+				rooms.remove(roomName, room);
+			}
+		}
+	}
+
+	/**
+	 * Removes a participant from its room, and the room from the active list if
+	 * it was the last one.
+	 */
+	public void leaveRoom(Room room, UserSession user) throws IOException {
+		leaveRoom(room, Collections.singletonList(user));
+	}
+
+	/**
+	 * Removes several participants of the same room at once.
+	 */
+	public void leaveRoom(Room room, Collection<UserSession> users) throws IOException {
+		if (room.leave(users)) {
+			rooms.remove(room.getName(), room);
+			LOGGER.info("Room {} removed and closed", room.getName());
+		}
+	}
+
+	public int getRoomCount() {
+		return rooms.size();
+	}
+
+	public int getRoomCount(RoomMode mode) {
+		int count = 0;
+		for (Room room : rooms.values()) {
+			if (room.getMode() == mode) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Endpoints held by the participants of the rooms in the given mode.
+	 */
+	public int getEndpointCount(RoomMode mode) {
+		int endpoints = 0;
+		for (Room room : rooms.values()) {
+			if (room.getMode() == mode) {
+				endpoints += room.getEndpointCount();
+			}
+		}
+		return endpoints;
+	}
+
+	/**
+	 * Looks for a room without creating it.
+	 *
+	 * @return the room, or null if it is not active
+	 */
+	public Room findRoom(String roomName) {
+		return rooms.get(roomName);
+	}
+
 	/**
 	 * Removes a room from the list of available rooms.
 	 *
 	 * @param room the room to be removed
 	 */
 	public void removeRoom(Room room) {
-		this.rooms.remove(room.getName());
+		this.rooms.remove(room.getName(), room);
 		room.close();
 		LOGGER.info("Room {} removed and closed", room.getName());
 	}
-}
\ No newline at end of file
+
+	@PreDestroy
+	private void shutdown() {
+		scheduler.shutdownNow();
+	}
+}
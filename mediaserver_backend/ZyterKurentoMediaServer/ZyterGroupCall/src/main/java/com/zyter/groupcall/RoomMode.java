@@ -0,0 +1,19 @@
+package com.zyter.groupcall;
+
+/**
+ * How a room carries its participants' media.
+ */
+public enum RoomMode {
+
+	/**
+	 * Every participant receives each other participant on its own endpoint,
+	 * N·(N−1) endpoints for the room.
+	 */
+	SFU,
+
+	/**
+	 * Participants send to a {@code Composite} through a {@code HubPort} and
+	 * receive the mix back on the endpoint they send on: one endpoint each.
+	 */
+	MCU
+}
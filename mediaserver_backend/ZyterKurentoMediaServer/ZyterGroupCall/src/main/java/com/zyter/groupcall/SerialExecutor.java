@@ -0,0 +1,107 @@
+package com.zyter.groupcall;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs its tasks one at a time, in submission order, on a shared executor.
+ * Like {@link OutboundSessionDecorator}, tasks go to a lock-free queue drained
+ * by a single task, so no thread is held while the queue is empty.
+ *
+ * The queue may be bounded, in which case {@link #execute(Runnable)} rejects
+ * tasks beyond the limit; {@link #executeAlways(Runnable)} is for cleanup that
+ * must run regardless.
+ */
+public class SerialExecutor implements Executor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SerialExecutor.class);
+
+	private final Executor executor;
+
+	private final int maxPending;
+
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private final AtomicBoolean draining = new AtomicBoolean();
+
+	public SerialExecutor(Executor executor) {
+		this(executor, Integer.MAX_VALUE);
+	}
+
+	public SerialExecutor(Executor executor, int maxPending) {
+		this.executor = executor;
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Queues a task.
+	 *
+	 * @throws RejectedExecutionException if the limit of pending tasks is reached
+	 */
+	@Override
+	public void execute(Runnable task) {
+		if (pending.incrementAndGet() > maxPending) {
+			pending.decrementAndGet();
+			throw new RejectedExecutionException(maxPending + " tasks already pending");
+		}
+		tasks.add(task);
+		scheduleDrain();
+	}
+
+	/**
+	 * Queues a task even beyond the limit of pending tasks.
+	 */
+	public void executeAlways(Runnable task) {
+		pending.incrementAndGet();
+		tasks.add(task);
+		scheduleDrain();
+	}
+
+	/**
+	 * Tasks submitted and not started yet.
+	 */
+	public int getPendingTasks() {
+		return pending.get();
+	}
+
+	private void scheduleDrain() {
+		if (draining.compareAndSet(false, true)) {
+			try {
+				executor.execute(this::drain);
+			} catch (RejectedExecutionException e) {
+				draining.set(false);
+				LOGGER.error("Could not schedule {} pending tasks", pending.get(), e);
+			}
+		}
+	}
+
+	private void drain() {
+		try {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				pending.decrementAndGet();
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					LOGGER.error("Serial task failed", e);
+				}
+			}
+		} finally {
+			draining.set(false);
+		}
+
+		// A task may have been queued after the last poll but before the flag was cleared
+		if (!tasks.isEmpty()) {
+			scheduleDrain();
+		}
+	}
+}
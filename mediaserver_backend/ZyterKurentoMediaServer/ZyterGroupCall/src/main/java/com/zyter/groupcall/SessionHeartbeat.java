@@ -0,0 +1,178 @@
+package com.zyter.groupcall;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * Sends WebSocket ping frames to every client and hands the sessions that
+ * stopped answering to a reaper, so a client that vanished without
+ * {@code leaveRoom} does not keep its endpoints on the media server.
+ *
+ * Sessions are spread over the slots of a timer wheel that makes one turn per
+ * heartbeat interval. Each tick visits a single slot: its sessions are pinged,
+ * or collected if nothing was received from them for the configured number of
+ * intervals. A tick therefore costs the size of one slot, whatever the number
+ * of connected clients, and the pings of a large fleet are spread evenly over
+ * the interval.
+ */
+public class SessionHeartbeat {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SessionHeartbeat.class);
+
+	@Value("${groupcall.heartbeat.interval:10000}")
+	private long interval;
+
+	@Value("${groupcall.heartbeat.missed-intervals:3}")
+	private int missedIntervals;
+
+	@Value("${groupcall.heartbeat.wheel-slots:32}")
+	private int wheelSlots;
+
+	private final ConcurrentMap<String, Tracked> sessions = new ConcurrentHashMap<>();
+
+	private List<Set<Tracked>> wheel;
+
+	private volatile int cursor;
+
+	private volatile Consumer<List<WebSocketSession>> reaper;
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Sets the cleanup run for each batch of dead sessions, on its own thread.
+	 */
+	public void setReaper(Consumer<List<WebSocketSession>> reaper) {
+		this.reaper = reaper;
+	}
+
+	/**
+	 * Starts watching a session. It is first pinged about one interval later.
+	 */
+	public void register(WebSocketSession session) {
+		Tracked tracked = new Tracked(session, (cursor + wheelSlots - 1) % wheelSlots);
+		Tracked previous = sessions.put(session.getId(), tracked);
+		if (previous != null) {
+			wheel.get(previous.slot).remove(previous);
+		}
+		wheel.get(tracked.slot).add(tracked);
+	}
+
+	/**
+	 * Records that the client is alive: a pong or any other message arrived.
+	 */
+	public void touch(WebSocketSession session) {
+		Tracked tracked = sessions.get(session.getId());
+		if (tracked != null) {
+			tracked.lastSeen = System.currentTimeMillis();
+		}
+	}
+
+	public void unregister(WebSocketSession session) {
+		Tracked tracked = sessions.remove(session.getId());
+		if (tracked != null) {
+			wheel.get(tracked.slot).remove(tracked);
+		}
+	}
+
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	private void tick() {
+		int slot = cursor;
+		cursor = (slot + 1) % wheelSlots;
+
+		long deadline = System.currentTimeMillis() - interval * missedIntervals;
+		List<WebSocketSession> dead = new ArrayList<>();
+		for (Tracked tracked : wheel.get(slot)) {
+			if (tracked.lastSeen < deadline || !tracked.session.isOpen()) {
+				if (sessions.remove(tracked.session.getId(), tracked)) {
+					dead.add(tracked.session);
+				}
+				wheel.get(slot).remove(tracked);
+				continue;
+			}
+			try {
+				tracked.session.sendMessage(new PingMessage(ByteBuffer.allocate(0)));
+			} catch (Exception e) {
+				LOGGER.debug("Could not ping session {}: {}", tracked.session.getId(), e.getMessage());
+			}
+		}
+
+		if (!dead.isEmpty()) {
+			LOGGER.warn("Reaping {} sessions silent for more than {} heartbeat intervals", dead.size(), missedIntervals);
+			Thread.ofVirtual().name("heartbeat-reaper").start(() -> reap(dead));
+		}
+	}
+
+	private void reap(List<WebSocketSession> dead) {
+		Consumer<List<WebSocketSession>> current = reaper;
+		if (current != null) {
+			try {
+				current.accept(dead);
+			} catch (RuntimeException e) {
+				LOGGER.error("Could not release {} dead sessions", dead.size(), e);
+			}
+		}
+		for (WebSocketSession session : dead) {
+			try {
+				session.close(CloseStatus.SESSION_NOT_RELIABLE);
+			} catch (Exception e) {
+				LOGGER.debug("Could not close dead session {}: {}", session.getId(), e.getMessage());
+			}
+		}
+	}
+
+	@PostConstruct
+	private void start() {
+		wheel = new ArrayList<>(wheelSlots);
+		for (int i = 0; i < wheelSlots; i++) {
+			wheel.add(ConcurrentHashMap.newKeySet());
+		}
+
+		long tick = Math.max(1, interval / wheelSlots);
+		scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("heartbeat").daemon(true).factory());
+		scheduler.scheduleAtFixedRate(() -> {
+			try {
+				tick();
+			} catch (RuntimeException e) {
+				LOGGER.error("Heartbeat tick failed", e);
+			}
+		}, tick, tick, TimeUnit.MILLISECONDS);
+		LOGGER.info("Heartbeat started: every {} ms over {} slots, reaping after {} missed intervals", interval, wheelSlots, missedIntervals);
+	}
+
+	@PreDestroy
+	private void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	private static final class Tracked {
+		private final WebSocketSession session;
+		private final int slot;
+		private volatile long lastSeen = System.currentTimeMillis();
+
+		private Tracked(WebSocketSession session, int slot) {
+			this.session = session;
+			this.slot = slot;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.zyter.groupcall;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * Takes the handling of incoming signaling messages off the container's
+ * WebSocket threads. Every session gets its own {@link SerialExecutor}, so a
+ * client's messages are handled one at a time and in arrival order while
+ * different clients proceed in parallel.
+ *
+ * Handlers run on virtual threads by default: one blocked on a Kurento round
+ * trip parks and gives its carrier back, so the number of negotiations in
+ * flight is no longer bounded by a thread pool. The carrier pool is sized with
+ * {@code -Djdk.virtualThreadScheduler.parallelism}.
+ *
+ * Reading from the socket no longer waits for the handling, so the container
+ * gives no back-pressure: a session with too many messages waiting is closed.
+ */
+public class SignalingDispatcher {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SignalingDispatcher.class);
+
+	@Value("${groupcall.signaling.virtual-threads:true}")
+	private boolean virtualThreads;
+
+	@Value("${groupcall.signaling.threads:64}")
+	private int platformThreads;
+
+	@Value("${groupcall.signaling.max-pending:256}")
+	private int maxPending;
+
+	private final ConcurrentMap<String, SerialExecutor> sessions = new ConcurrentHashMap<>();
+
+	private ExecutorService executor;
+
+	/**
+	 * Queues a task after those already submitted for the session. The session
+	 * is closed if it already has the maximum number of tasks waiting.
+	 */
+	public void dispatch(WebSocketSession session, Runnable task) {
+		try {
+			serial(session).execute(task);
+		} catch (RejectedExecutionException e) {
+			LOGGER.warn("Closing session {}: more than {} messages waiting to be handled", session.getId(), maxPending);
+			try {
+				session.close(CloseStatus.POLICY_VIOLATION.withReason("too many pending messages"));
+			} catch (IOException ex) {
+				LOGGER.error("Cannot close flooding session {}", session.getId(), ex);
+			}
+		}
+	}
+
+	/**
+	 * Queues a cleanup task after those already submitted for the session,
+	 * whatever the number waiting.
+	 */
+	public void dispatchAlways(WebSocketSession session, Runnable task) {
+		serial(session).executeAlways(task);
+	}
+
+	private SerialExecutor serial(WebSocketSession session) {
+		SerialExecutor serial = sessions.get(session.getId());
+		if (serial == null) {
+			serial = sessions.computeIfAbsent(session.getId(), id -> new SerialExecutor(executor, maxPending));
+		}
+		return serial;
+	}
+
+	/**
+	 * Forgets a closed session. Tasks already queued for it still run.
+	 */
+	public void release(WebSocketSession session) {
+		sessions.remove(session.getId());
+	}
+
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * Messages received and not being handled yet, across all sessions.
+	 */
+	public int getPendingTasks() {
+		int pending = 0;
+		for (SerialExecutor serial : sessions.values()) {
+			pending += serial.getPendingTasks();
+		}
+		return pending;
+	}
+
+	@PostConstruct
+	private void start() {
+		if (virtualThreads) {
+			executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("signaling-", 1).factory());
+			LOGGER.info("Signaling dispatcher started on virtual threads, at most {} pending messages per session", maxPending);
+		} else {
+			executor = Executors.newFixedThreadPool(platformThreads, Thread.ofPlatform().name("signaling-", 1).daemon(true).factory());
+			LOGGER.info("Signaling dispatcher started with {} threads, at most {} pending messages per session", platformThreads, maxPending);
+		}
+	}
+
+	@PreDestroy
+	private void shutdown() {
+		executor.shutdownNow();
+	}
+}
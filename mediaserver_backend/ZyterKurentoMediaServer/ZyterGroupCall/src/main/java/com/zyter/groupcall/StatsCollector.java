@@ -0,0 +1,371 @@
+package com.zyter.groupcall;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.kurento.client.MediaType;
+import org.kurento.client.RTCInboundRTPStreamStats;
+import org.kurento.client.RTCOutboundRTPStreamStats;
+import org.kurento.client.Stats;
+import org.kurento.client.WebRtcEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Reads the video statistics of every WebRtcEndpoint and keeps their recent
+ * history: round trip time, packet loss, jitter and bitrate.
+ *
+ * Each endpoint is read once per interval, at an offset picked when it is
+ * tracked, so the reads of a room created at once are spread over the
+ * interval. All endpoints share a budget of {@code getStats} requests per
+ * second and in flight; when it is exhausted the reads are delayed rather
+ * than sent in a burst, which stretches the interval of a loaded server.
+ *
+ * The outgoing endpoint of a participant measures what it sends (inbound
+ * RTP on the media server), an incoming endpoint what it is sent (outbound
+ * RTP). The outbound RTP of the outgoing endpoint is kept apart: it carries
+ * the loopback, or in MCU mode the mix, which is then all the participant is
+ * sent. Hub ports have no RTP statistics of their own.
+ */
+public class StatsCollector {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(StatsCollector.class);
+
+	private static final int TICKS_PER_SECOND = 10;
+
+	// Failed reads in a row after which an endpoint is considered gone
+	private static final int MAX_FAILURES = 3;
+
+	@Value("${groupcall.stats.enabled:true}")
+	private boolean enabled;
+
+	@Value("${groupcall.stats.interval:10000}")
+	private long interval;
+
+	@Value("${groupcall.stats.max-requests-per-second:50}")
+	private int maxRequestsPerSecond;
+
+	@Value("${groupcall.stats.max-in-flight:16}")
+	private int maxInFlight;
+
+	@Value("${groupcall.stats.history:60}")
+	private int history;
+
+	// By session id: UserSession equality is by name and room, shared by a rejoining participant
+	private final ConcurrentMap<String, Owner> endpoints = new ConcurrentHashMap<>();
+
+	private final DelayQueue<Tracked> schedule = new DelayQueue<>();
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	// Requests the tick may still send, only touched by the tick
+	private double credit;
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Starts reading the statistics of a participant's endpoint, named after
+	 * the participant whose media it carries.
+	 */
+	public void track(UserSession user, String name, WebRtcEndpoint endpoint) {
+		if (!enabled) {
+			return;
+		}
+		Tracked tracked = new Tracked(user, name, endpoint, new QosSeries(history), name.equals(user.getName()) ? new QosSeries(history) : null);
+		tracked.due = System.currentTimeMillis() + ThreadLocalRandom.current().nextLong(interval);
+		Owner owner = endpoints.compute(user.getSession().getId(), (id, current) -> {
+			if (current != null && current.user == user) {
+				return current;
+			}
+			if (current != null) {
+				current.release();
+			}
+			return new Owner(user);
+		});
+		Tracked previous = owner.tracked.put(name, tracked);
+		if (previous != null) {
+			previous.released = true;
+		}
+		schedule.add(tracked);
+	}
+
+	public void untrack(UserSession user, String name) {
+		Owner owner = ownerOf(user);
+		Tracked removed = owner == null ? null : owner.tracked.remove(name);
+		if (removed != null) {
+			removed.released = true;
+		}
+	}
+
+	public void untrack(UserSession user) {
+		Owner owner = ownerOf(user);
+		if (owner != null && endpoints.remove(user.getSession().getId(), owner)) {
+			owner.release();
+		}
+	}
+
+	/**
+	 * History of one of the participant's endpoints, or null when it is not
+	 * tracked.
+	 */
+	public QosSeries getSeries(UserSession user, String name) {
+		Owner owner = ownerOf(user);
+		Tracked entry = owner == null ? null : owner.tracked.get(name);
+		return entry == null ? null : entry.series;
+	}
+
+	/**
+	 * Summaries of the participant's endpoints, by the participant whose media
+	 * they carry.
+	 */
+	public Map<String, QosSummary> summarize(UserSession user) {
+		Owner owner = ownerOf(user);
+		if (owner == null) {
+			return Collections.emptyMap();
+		}
+		Map<String, QosSummary> summaries = new LinkedHashMap<>();
+		for (Map.Entry<String, Tracked> entry : owner.tracked.entrySet()) {
+			summaries.put(entry.getKey(), entry.getValue().series.summarize());
+		}
+		return summaries;
+	}
+
+	/**
+	 * Summary of what the participant's outgoing endpoint sends back to it:
+	 * the loopback, or the mix in MCU mode. Null when it is not tracked.
+	 */
+	public QosSummary summarizeReturned(UserSession user) {
+		Owner owner = ownerOf(user);
+		Tracked outgoing = owner == null ? null : owner.tracked.get(user.getName());
+		return outgoing == null ? null : outgoing.returned.summarize();
+	}
+
+	public int getEndpointCount() {
+		int count = 0;
+		for (Owner owner : endpoints.values()) {
+			count += owner.tracked.size();
+		}
+		return count;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	private void tick() {
+		double perTick = (double) maxRequestsPerSecond / TICKS_PER_SECOND;
+		credit = Math.min(credit + perTick, Math.max(1, perTick));
+		while (credit >= 1 && inFlight.get() < maxInFlight) {
+			Tracked tracked = schedule.poll();
+			if (tracked == null) {
+				return;
+			}
+			if (tracked.released) {
+				continue;
+			}
+			credit--;
+			read(tracked);
+		}
+	}
+
+	private void read(Tracked tracked) {
+		inFlight.incrementAndGet();
+		KurentoAsync.<Map<String, Stats>>call("getStats", c -> tracked.endpoint.getStats(MediaType.VIDEO, c))
+				.whenComplete((stats, error) -> {
+					inFlight.decrementAndGet();
+					long now = System.currentTimeMillis();
+					if (error != null) {
+						LOGGER.debug("PARTICIPANT {}: could not read the statistics of the endpoint for {}: {}", tracked.user.getName(), tracked.name,
+								KurentoAsync.unwrap(error).getMessage());
+						if (++tracked.failures >= MAX_FAILURES) {
+							// Released without being untracked, e.g. created while its participant left
+							Owner owner = ownerOf(tracked.user);
+							if (owner != null) {
+								owner.tracked.remove(tracked.name, tracked);
+							}
+							tracked.released = true;
+						}
+					} else {
+						tracked.failures = 0;
+						if (stats != null) {
+							record(tracked, stats, now);
+						}
+					}
+					if (!tracked.released) {
+						tracked.due = now + interval;
+						schedule.add(tracked);
+					}
+				});
+	}
+
+	/**
+	 * Adds a sample computed from the counters' progress since the previous
+	 * read. The first read only sets the counters.
+	 */
+	private void record(Tracked tracked, Map<String, Stats> stats, long now) {
+		Counters in = new Counters();
+		Counters out = new Counters();
+		float rtt = Float.NaN;
+		float jitter = Float.NaN;
+		for (Stats stat : stats.values()) {
+			if (tracked.outgoing && stat instanceof RTCInboundRTPStreamStats) {
+				RTCInboundRTPStreamStats inbound = (RTCInboundRTPStreamStats) stat;
+				in.bytes += inbound.getBytesReceived();
+				in.packets += inbound.getPacketsReceived();
+				in.lost += inbound.getPacketsLost();
+				jitter = max(jitter, (float) (inbound.getJitter() * 1000));
+			} else if (stat instanceof RTCOutboundRTPStreamStats) {
+				RTCOutboundRTPStreamStats outbound = (RTCOutboundRTPStreamStats) stat;
+				out.bytes += outbound.getBytesSent();
+				out.packets += outbound.getPacketsSent();
+				out.lost += outbound.getPacketsLost();
+				if (outbound.getRoundTripTime() > 0) {
+					rtt = max(rtt, (float) (outbound.getRoundTripTime() * 1000));
+				}
+			}
+		}
+
+		synchronized (tracked) {
+			long elapsed = now - tracked.time;
+			if (tracked.time > 0 && elapsed > 0) {
+				if (tracked.outgoing) {
+					sample(tracked.series, in, tracked.in, true, now, elapsed, rtt, jitter);
+					sample(tracked.returned, out, tracked.out, false, now, elapsed, rtt, Float.NaN);
+				} else {
+					sample(tracked.series, out, tracked.out, false, now, elapsed, rtt, jitter);
+				}
+			}
+			tracked.time = now;
+			tracked.in = in;
+			tracked.out = out;
+		}
+	}
+
+	/**
+	 * Adds the sample of one direction, unless its counters went back, e.g.
+	 * after a renegotiation.
+	 */
+	private static void sample(QosSeries series, Counters current, Counters previous, boolean received, long now, long elapsed, float rtt,
+			float jitter) {
+		long bytesDelta = current.bytes - previous.bytes;
+		long packetsDelta = current.packets - previous.packets;
+		long lostDelta = current.lost - previous.lost;
+		if (bytesDelta < 0 || packetsDelta < 0 || lostDelta < 0) {
+			return;
+		}
+		// Received packets exclude the lost ones, sent packets include them
+		long expected = received ? packetsDelta + lostDelta : packetsDelta;
+		float loss = expected > 0 ? 100f * lostDelta / expected : 0;
+		int kbps = (int) (bytesDelta * 8 / elapsed);
+		series.add(now, rtt, Math.min(100f, loss), jitter, kbps);
+	}
+
+	private static float max(float current, float value) {
+		return Float.isNaN(current) ? value : Math.max(current, value);
+	}
+
+	@PostConstruct
+	private void start() {
+		if (!enabled) {
+			return;
+		}
+		long tick = 1000 / TICKS_PER_SECOND;
+		scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("stats-collector").daemon(true).factory());
+		scheduler.scheduleAtFixedRate(() -> {
+			try {
+				tick();
+			} catch (RuntimeException e) {
+				LOGGER.error("Stats collection tick failed", e);
+			}
+		}, tick, tick, TimeUnit.MILLISECONDS);
+		LOGGER.info("Stats collection started: every endpoint each {} ms, at most {} requests per second and {} in flight", interval,
+				maxRequestsPerSecond, maxInFlight);
+	}
+
+	@PreDestroy
+	private void shutdown() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	private Owner ownerOf(UserSession user) {
+		Owner owner = endpoints.get(user.getSession().getId());
+		return owner != null && owner.user == user ? owner : null;
+	}
+
+	/**
+	 * The endpoints tracked for one participant.
+	 */
+	private static final class Owner {
+		private final UserSession user;
+		private final ConcurrentMap<String, Tracked> tracked = new ConcurrentHashMap<>();
+
+		private Owner(UserSession user) {
+			this.user = user;
+		}
+
+		private void release() {
+			for (Tracked removed : tracked.values()) {
+				removed.released = true;
+			}
+		}
+	}
+
+	private static final class Counters {
+		private long bytes;
+		private long packets;
+		private long lost;
+	}
+
+	private static final class Tracked implements Delayed {
+		private final UserSession user;
+		private final String name;
+		private final boolean outgoing;
+		private final WebRtcEndpoint endpoint;
+		private final QosSeries series;
+		// What the outgoing endpoint sends back, null for an incoming endpoint
+		private final QosSeries returned;
+		private volatile long due;
+		private volatile boolean released;
+		private volatile int failures;
+
+		// Counters at the previous read
+		private long time;
+		private Counters in = new Counters();
+		private Counters out = new Counters();
+
+		private Tracked(UserSession user, String name, WebRtcEndpoint endpoint, QosSeries series, QosSeries returned) {
+			this.user = user;
+			this.name = name;
+			this.outgoing = returned != null;
+			this.endpoint = endpoint;
+			this.series = series;
+			this.returned = returned;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			return Long.compare(due, ((Tracked) other).due);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package com.zyter.groupcall;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+
+/**
+ * Quality of the media of a live room or user, from the statistics kept by
+ * the {@link StatsCollector}, e.g. {@code GET /actuator/stats/rooms/{room}}
+ * on the management port. {@code up} covers what participants send,
+ * {@code down} what they are sent: the streams of the other participants, or
+ * the mix in MCU mode. The bitrate of a group of endpoints is their total.
+ */
+@WebEndpoint(id = "stats")
+public class StatsEndpoint {
+
+	@Autowired
+	private RoomManager roomManager;
+
+	@Autowired
+	private UserRegistry userRegistry;
+
+	@Autowired
+	private StatsCollector statsCollector;
+
+	/**
+	 * @param scope {@code rooms} or {@code users}
+	 */
+	@ReadOperation
+	public WebEndpointResponse<Map<String, Object>> getStats(@Selector String scope, @Selector String name) {
+		if ("rooms".equals(scope)) {
+			return getRoomStats(name);
+		}
+		if ("users".equals(scope)) {
+			return getUserStats(name);
+		}
+		throw new InvalidEndpointRequestException("Unknown scope " + scope + ", expected rooms or users", "Unknown scope");
+	}
+
+	private WebEndpointResponse<Map<String, Object>> getRoomStats(String roomName) {
+		Room room = roomManager.findRoom(roomName);
+		if (room == null) {
+			return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+		}
+		List<QosSummary> up = new ArrayList<>();
+		List<QosSummary> down = new ArrayList<>();
+		Map<String, Object> users = new LinkedHashMap<>();
+		for (UserSession user : room.getParticipants()) {
+			Map<String, QosSummary> endpoints = statsCollector.summarize(user);
+			QosSummary sent = endpoints.get(user.getName());
+			QosSummary received = received(room, user, endpoints);
+			if (sent != null) {
+				up.add(sent);
+			}
+			if (received != null) {
+				down.add(received);
+			}
+
+			Map<String, Object> summary = new LinkedHashMap<>();
+			summary.put("up", sent);
+			summary.put("down", received);
+			users.put(user.getName(), summary);
+		}
+
+		Map<String, Object> body = new LinkedHashMap<>();
+		body.put("room", room.getName());
+		body.put("mode", room.getMode().name());
+		body.put("server", room.getServer().getUri());
+		body.put("participants", users.size());
+		body.put("up", QosSummary.merge(up));
+		body.put("down", QosSummary.merge(down));
+		body.put("users", users);
+		return new WebEndpointResponse<>(body);
+	}
+
+	private WebEndpointResponse<Map<String, Object>> getUserStats(String userName) {
+		UserSession user = userRegistry.getByName(userName);
+		if (user == null) {
+			return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+		}
+		Map<String, QosSummary> endpoints = statsCollector.summarize(user);
+		Map<String, QosSummary> senders = new LinkedHashMap<>(endpoints);
+		senders.remove(user.getName());
+
+		Map<String, Object> body = new LinkedHashMap<>();
+		body.put("user", user.getName());
+		body.put("room", user.getRoomName());
+		body.put("up", endpoints.get(user.getName()));
+		body.put("down", received(user.getRoom(), user, endpoints));
+		body.put("senders", senders);
+		return new WebEndpointResponse<>(body);
+	}
+
+	/**
+	 * What the participant is sent: the mix coming back on its outgoing
+	 * endpoint in MCU mode, its incoming endpoints otherwise.
+	 */
+	private QosSummary received(Room room, UserSession user, Map<String, QosSummary> endpoints) {
+		if (room.getMode() == RoomMode.MCU) {
+			return statsCollector.summarizeReturned(user);
+		}
+		List<QosSummary> received = new ArrayList<>();
+		for (Map.Entry<String, QosSummary> entry : endpoints.entrySet()) {
+			if (!entry.getKey().equals(user.getName())) {
+				received.add(entry.getValue());
+			}
+		}
+		return QosSummary.merge(received);
+	}
+}
@@ -28,6 +28,10 @@ public class UserRegistry {
 		return usersBySessionId.get(session.getId());
 	}
 
+	public int getUserCount() {
+		return usersByName.size();
+	}
+
 	public boolean exists(String name) {
 		return usersByName.keySet().contains(name);
 	}
@@ -2,37 +2,38 @@ package com.zyter.groupcall;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
-import org.kurento.client.ConnectionStateChangedEvent;
+import org.kurento.client.Composite;
 import org.kurento.client.Continuation;
-import org.kurento.client.ElementConnectedEvent;
-import org.kurento.client.ElementDisconnectedEvent;
-import org.kurento.client.ErrorEvent;
-import org.kurento.client.EventListener;
+import org.kurento.client.HubPort;
 import org.kurento.client.IceCandidate;
-import org.kurento.client.IceCandidateFoundEvent;
-import org.kurento.client.IceComponentStateChangeEvent;
-import org.kurento.client.IceGatheringDoneEvent;
-import org.kurento.client.MediaFlowInStateChangeEvent;
-import org.kurento.client.MediaFlowOutStateChangeEvent;
+import org.kurento.client.MediaFlowState;
 import org.kurento.client.MediaPipeline;
-import org.kurento.client.MediaSessionStartedEvent;
-import org.kurento.client.MediaSessionTerminatedEvent;
-import org.kurento.client.MediaStateChangedEvent;
-import org.kurento.client.MediaTranscodingStateChangeEvent;
 import org.kurento.client.MediaType;
-import org.kurento.client.NewCandidatePairSelectedEvent;
 import org.kurento.client.WebRtcEndpoint;
-import org.kurento.jsonrpc.JsonUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
-import com.google.gson.JsonObject;
+import com.zyter.groupcall.logging.LogFormat;
+import com.zyter.groupcall.logging.LogMarkers;
+import com.zyter.groupcall.signaling.IceCandidateMessage;
+import com.zyter.groupcall.signaling.ReceiveVideoAnswerMessage;
+import com.zyter.groupcall.signaling.ResponseMessage;
+import com.zyter.groupcall.signaling.SharedFrame;
+import com.zyter.groupcall.signaling.SignalingCodec;
+import com.zyter.groupcall.signaling.SignalingMessage;
 
 /**
  * @author Senthil Kumar K
@@ -49,21 +50,55 @@ public class UserSession implements Closeable {
 
 	private final MediaPipeline pipeline;
 
+	private final KurentoServer server;
+
 	private final String roomName;
 	
 	private final WebRtcEndpoint outgoingMedia;
+
+	private final IceCandidateBatcher iceCandidateBatcher;
+
+	private final IceCandidateBuffer earlyCandidates;
 	
-	private final ConcurrentMap<String, WebRtcEndpoint> incomingMedia = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, CompletableFuture<WebRtcEndpoint>> incomingMedia = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, EndpointEvents> endpointEvents = new ConcurrentHashMap<>();
+
+	private final Room room;
+
+	// Whether the video of each sender is connected to its incoming endpoint
+	private final ConcurrentMap<String, Boolean> videoForwarded = new ConcurrentHashMap<>();
+
+	// Last change queued on the connection from each sender, see queueConnection
+	private final ConcurrentMap<String, CompletableFuture<Void>> connectionChanges = new ConcurrentHashMap<>();
 
-	public UserSession(final String name, String roomName, final WebSocketSession session, MediaPipeline pipeline) {
+	private volatile EventProfile eventProfile;
 
-		this.pipeline = pipeline;
+	// Port on the room's mix while the room is in MCU mode
+	private volatile CompletableFuture<HubPort> hubPort;
+
+	// Media the participant sends, as last set with changeMediaType
+	private volatile String mediaType;
+
+	public UserSession(final String name, Room room, final WebSocketSession session) {
+
+		this.room = room;
+		this.pipeline = room.getPipeline();
+		this.server = room.getServer();
 		this.name = name;
 		this.session = session;
-		this.roomName = roomName;
+		this.roomName = room.getName();
+		this.iceCandidateBatcher = new IceCandidateBatcher(session, room.getSettings().getIceBatchWindow(), room.getSettings().getIceBatchMaxSize());
+		this.earlyCandidates = new IceCandidateBuffer(name, room.getSettings().getIceBufferSize(), room.getSettings().getIceBufferMaxEndpoints(), room.getSettings().getIceBufferTtl());
 		this.outgoingMedia = new WebRtcEndpoint.Builder(pipeline).build();
+		this.server.endpointCreated();
 		
-		addEventListeners(this.outgoingMedia, name);
+		subscribeEvents(this.outgoingMedia, name);
+		if (room.getSettings().getLastN() > 0) {
+			subscribeAudioFlow();
+		}
+		room.getStatsCollector().track(this, name, outgoingMedia);
+		room.getBandwidthPolicy().register(this);
 	}
 
 	public WebRtcEndpoint getOutgoingWebRtcPeer() {
@@ -87,178 +122,361 @@ public class UserSession implements Closeable {
 		return this.roomName;
 	}
 
-	public void receiveVideoFrom(UserSession sender, String sdpOffer) throws IOException {
+	/**
+	 * Media elements this participant holds on the media server: its outgoing
+	 * endpoint, one endpoint per participant it receives from and its port on
+	 * the room's mix.
+	 */
+	public int getEndpointCount() {
+		final CompletableFuture<HubPort> port = hubPort;
+		final boolean mixed = port != null && port.isDone() && !port.isCompletedExceptionally();
+		return incomingMedia.size() + 1 + (mixed ? 1 : 0);
+	}
+
+	public Room getRoom() {
+		return this.room;
+	}
+
+	/**
+	 * Whether the participant switched to sending audio only.
+	 */
+	public boolean isAudioOnly() {
+		return "AUDIO".equals(mediaType);
+	}
+
+	/**
+	 * Negotiates the reception of the sender's media without blocking the
+	 * caller. The endpoint is built, connected and given the offer through
+	 * asynchronous Kurento calls; the answer is sent to the client as soon as
+	 * KMS produces it and candidate gathering starts afterwards.
+	 */
+	public void receiveVideoFrom(UserSession sender, String sdpOffer) {
+		if (sender != null && sender != this && room.getMode() == RoomMode.MCU) {
+			sendErrorResponse("receiveVideoFromResponse", new IllegalStateException("room " + roomName + " is mixed, only the own stream can be negotiated"));
+			return;
+		}
 		if (sender != null) {
 			LOGGER.info("USER {}: connecting with {} in room {}", this.name, sender.getName(), this.roomName);
 
-			LOGGER.info("USER {}: SdpOffer for {} is {}", this.name, sender.getName(), sdpOffer);
+			LOGGER.info(LogMarkers.SDP, "USER {}: SdpOffer for {} is {}", this.name, sender.getName(), LogFormat.sdp(sdpOffer));
 
-			final String ipSdpAnswer = this.getEndpointForUser(sender).processOffer(sdpOffer);
-			final JsonObject scParams = new JsonObject();
-			scParams.addProperty("id", "receiveVideoAnswer");
-			scParams.addProperty("name", sender.getName());
-			scParams.addProperty("sdpAnswer", ipSdpAnswer);
+			final long start = GroupCallMetrics.start();
+			final AtomicBoolean answerSent = new AtomicBoolean();
+			this.getEndpointForUser(sender).thenCompose(endpoint -> {
+				final CompletableFuture<HubPort> port = hubPort;
+				CompletableFuture<Void> connected;
+				if (sender == this && port != null) {
+					// The mix comes back on the endpoint the client sends on
+					connected = port.thenCompose(mix -> KurentoAsync.<Void>call("connect", c -> mix.connect(endpoint, c)));
+				} else {
+					connected = connectFrom(sender, endpoint);
+				}
+				CompletableFuture<String> answered = KurentoAsync.call("processOffer", c -> endpoint.processOffer(sdpOffer, c));
+
+				return connected.thenCombine(answered, (ignored, ipSdpAnswer) -> {
+					LOGGER.info(LogMarkers.SDP, "USER {}: SdpAnswer for {} is {}", this.name, sender.getName(), LogFormat.sdp(ipSdpAnswer));
+					try {
+						boolean compressed = Boolean.TRUE.equals(session.getAttributes().get(Constants.SDP_COMPRESSION));
+						this.sendMessage(new ReceiveVideoAnswerMessage(sender.getName(), ipSdpAnswer, compressed));
+						answerSent.set(true);
+						GroupCallMetrics.recordReceiveVideo(true, start);
+					} catch (IOException e) {
+						throw new CompletionException(e);
+					}
+					return endpoint;
+				});
+			}).thenCompose(endpoint -> {
+				// Gathering before IceCandidateFound is subscribed would lose candidates
+				return eventsReady(sender.getName()).thenCompose(ready -> {
+					LOGGER.debug("gather candidates");
+					return KurentoAsync.<Void>call("gatherCandidates", c -> endpoint.gatherCandidates(c));
+				});
+			}).whenComplete((ignored, error) -> {
+				if (error != null) {
+					if (!answerSent.get()) {
+						GroupCallMetrics.recordReceiveVideo(false, start);
+					}
+					Throwable cause = KurentoAsync.unwrap(error);
+					LOGGER.error("USER {}: could not receive video from {}", this.name, sender.getName(), cause);
+					sendErrorResponse("receiveVideoFromResponse", cause);
+				}
+			});
+		}
+	}
 
-			LOGGER.info("USER {}: SdpAnswer for {} is {}", this.name, sender.getName(), ipSdpAnswer);
-			this.sendMessage(scParams);
-			LOGGER.info("gather candidates");
-			this.getEndpointForUser(sender).gatherCandidates();
+	/**
+	 * Connects the sender's media to the endpoint receiving it. In last-N mode,
+	 * senders that are not active speakers are only heard, and so are senders
+	 * that switched to audio.
+	 */
+	private CompletableFuture<Void> connectFrom(UserSession sender, WebRtcEndpoint endpoint) {
+		if (sender == this) {
+			return KurentoAsync.call("connect", c -> outgoingMedia.connect(endpoint, c));
+		}
+		synchronized (videoForwarded) {
+			boolean video = videoForwarded.computeIfAbsent(sender.getName(), key -> wantsVideo(sender));
+			return queueConnection(sender.getName(), CompletableFuture.completedFuture(endpoint), incoming -> video
+					? KurentoAsync.<Void>call("connect", c -> sender.getOutgoingWebRtcPeer().connect(incoming, c))
+					: KurentoAsync.<Void>call("connect", c -> sender.getOutgoingWebRtcPeer().connect(incoming, MediaType.AUDIO, c)));
 		}
 	}
 
-	public WebRtcEndpoint getEndpointForUser(final UserSession sender) {
+	/**
+	 * Whether the sender's video should reach this participant.
+	 */
+	private boolean wantsVideo(UserSession sender) {
+		return !sender.isAudioOnly() && room.isVideoForwarded(sender.getName());
+	}
+
+	/**
+	 * Queues a change of the connection from a sender after the changes
+	 * already queued for it, so they reach the media server in the order they
+	 * were decided whether or not its endpoint exists yet. Callers decide
+	 * under the {@code videoForwarded} lock, which is only held to queue.
+	 */
+	private CompletableFuture<Void> queueConnection(String senderName, CompletableFuture<WebRtcEndpoint> incoming,
+			Function<WebRtcEndpoint, CompletableFuture<Void>> change) {
+		final CompletableFuture<Void> previous = connectionChanges.get(senderName);
+		final CompletableFuture<Void> after = previous == null ? CompletableFuture.completedFuture(null) : previous.exceptionally(error -> null);
+		final CompletableFuture<Void> next = after.thenCombine(incoming, (ignored, endpoint) -> endpoint).thenCompose(change);
+		connectionChanges.put(senderName, next);
+		next.whenComplete((ignored, error) -> connectionChanges.remove(senderName, next));
+		return next;
+	}
+
+	/**
+	 * Returns the endpoint receiving the sender's media, creating it on first
+	 * use. Concurrent requests for the same sender share a single creation.
+	 */
+	public CompletableFuture<WebRtcEndpoint> getEndpointForUser(final UserSession sender) {
 		if (sender.getName().equals(name)) {
 			LOGGER.info("PARTICIPANT {}: configuring loopback", this.name);
-			return outgoingMedia;
+			return CompletableFuture.completedFuture(outgoingMedia);
 		}
 
 		LOGGER.info("PARTICIPANT {}: receiving video from {}", this.name, sender.getName());
 
-		WebRtcEndpoint incoming = incomingMedia.get(sender.getName());
-		if (incoming == null) {
-			LOGGER.info("PARTICIPANT {}: creating new endpoint for {}", this.name, sender.getName());
-			incoming = new WebRtcEndpoint.Builder(pipeline).build();
+		final String senderName = sender.getName();
+		final CompletableFuture<WebRtcEndpoint> incoming = incomingMedia.computeIfAbsent(senderName, key -> {
+			LOGGER.info("PARTICIPANT {}: creating new endpoint for {}", this.name, senderName);
+			return KurentoAsync.<WebRtcEndpoint>call("createEndpoint", c -> new WebRtcEndpoint.Builder(pipeline).buildAsync(c))
+					.thenApply(endpoint -> {
+						server.endpointCreated();
+						subscribeEvents(endpoint, senderName);
+						room.getStatsCollector().track(this, senderName, endpoint);
+						room.getBandwidthPolicy().endpointCreated(this, senderName, endpoint);
+						LOGGER.info("PARTICIPANT {}: obtained endpoint for {}", this.name, senderName);
+						return endpoint;
+					});
+		});
 
-			addEventListeners(incoming, sender.getName());
-			
-			incomingMedia.put(sender.getName(), incoming);
+		// A failed creation must not be cached, otherwise the next offer would fail too.
+		// Once the endpoint is visible, candidates that arrived before it are applied.
+		incoming.whenComplete((endpoint, error) -> {
+			if (error != null) {
+				incomingMedia.remove(senderName, incoming);
+			} else {
+				earlyCandidates.flush(senderName, endpoint);
+			}
+		});
+		return incoming;
+	}
+
+	/**
+	 * Moves the participant to the room's mix: the endpoints receiving the other
+	 * participants are released, and the outgoing endpoint sends to a new port
+	 * of the composite and receives the mix from it instead of its loopback.
+	 *
+	 * @return completes once the outgoing endpoint is wired to the mix
+	 */
+	public CompletableFuture<Void> joinMix(Composite composite) {
+		for (final String senderName : incomingMedia.keySet()) {
+			cancelVideoFrom(senderName);
 		}
+		final CompletableFuture<HubPort> port = KurentoAsync.<HubPort>call("createHubPort", c -> new HubPort.Builder(composite).buildAsync(c))
+				.thenApply(mix -> {
+					server.endpointCreated();
+					return mix;
+				});
+		hubPort = port;
+		return port.thenCompose(mix -> KurentoAsync.<Void>call("connect", c -> outgoingMedia.connect(mix, c))
+				.thenCompose(ignored -> KurentoAsync.<Void>call("connect", c -> mix.connect(outgoingMedia, c))));
+	}
 
-		LOGGER.info("PARTICIPANT {}: obtained endpoint for {}", this.name, sender.getName());
-		sender.getOutgoingWebRtcPeer().connect(incoming);
+	/**
+	 * Takes the participant out of the room's mix, restoring its loopback. The
+	 * client then negotiates the other participants again.
+	 */
+	public CompletableFuture<Void> leaveMix() {
+		final CompletableFuture<HubPort> port = hubPort;
+		hubPort = null;
+		if (port == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return port.thenCompose(mix -> KurentoAsync.<Void>call("connect", c -> outgoingMedia.connect(outgoingMedia, c))
+				.thenCompose(ignored -> {
+					server.endpointReleased();
+					return KurentoAsync.<Void>call("releaseHubPort", c -> mix.release(c));
+				}));
+	}
 
-		return incoming;
+	/**
+	 * Connects or disconnects the video of the senders whose forwarding changed
+	 * in the room, see {@link Room#isVideoForwarded(String)}. Audio is left
+	 * untouched, and so is the SDP: no renegotiation is needed.
+	 */
+	public void updateVideoForwarding() {
+		synchronized (videoForwarded) {
+			for (final String senderName : videoForwarded.keySet()) {
+				final UserSession sender = room.getParticipant(senderName);
+				final CompletableFuture<WebRtcEndpoint> incoming = incomingMedia.get(senderName);
+				if (sender == null || incoming == null) {
+					continue;
+				}
+				final boolean wanted = wantsVideo(sender);
+				if (!videoForwarded.replace(senderName, !wanted, wanted)) {
+					continue;
+				}
+				queueVideo(sender, incoming, wanted);
+			}
+		}
 	}
-	
+
+	private void queueVideo(UserSession sender, CompletableFuture<WebRtcEndpoint> incoming, boolean connect) {
+		queueConnection(sender.getName(), incoming, endpoint -> connect
+				? KurentoAsync.<Void>call("connect", c -> sender.getOutgoingWebRtcPeer().connect(endpoint, MediaType.VIDEO, c))
+				: KurentoAsync.<Void>call("disconnect", c -> sender.getOutgoingWebRtcPeer().disconnect(endpoint, MediaType.VIDEO, c)))
+				.whenComplete((ignored, error) -> {
+					if (error != null) {
+						LOGGER.error("PARTICIPANT {}: could not {} video from {}: {}", this.name, connect ? "connect" : "disconnect", sender.getName(),
+								KurentoAsync.unwrap(error).getMessage());
+					}
+				});
+	}
+
 	public void changeMediaType(Collection<UserSession> users, String name, String type) {
-		WebRtcEndpoint incoming;
+		if (this.name.equals(name)) {
+			this.mediaType = type;
+			room.getBandwidthPolicy().mediaTypeChanged(this);
+		}
 		for (UserSession participant : users) {
 			if(!this.name.equals(participant.getName())) {
-				incoming = incomingMedia.get(participant.getName());
-				if ("VIDEO".equals(type)) {
-					this.getOutgoingWebRtcPeer().connect(incoming, MediaType.VIDEO);
-				} else if ("AUDIO".equals(type)) {
-					this.getOutgoingWebRtcPeer().connect(incoming, MediaType.AUDIO);
-				} else {
-					this.getOutgoingWebRtcPeer().connect(incoming);
-				}
+				participant.receiveMediaType(this, type);
 				if(!this.name.equals(name) && name.equals(participant.getName())) {
 					break;
 				}
 			}
 		}
 	}
-	
-	private void addEventListeners(WebRtcEndpoint webRtcEndpoint, String name) {
-		webRtcEndpoint.addIceCandidateFoundListener(new EventListener<IceCandidateFoundEvent>() {
-			@Override
-			public void onEvent(IceCandidateFoundEvent event) {
-				LOGGER.info("IceCandidateFoundEvent : {}", event.getType());
-				sendIceCandidateMessage(name, JsonUtils.toJsonObject(event.getCandidate()));
-			}
-		});
 
-		webRtcEndpoint.addIceComponentStateChangeListener(new EventListener<IceComponentStateChangeEvent>() {
-			@Override
-			public void onEvent(IceComponentStateChangeEvent event) {
-				LOGGER.info("IceComponentStateChangeEvent : {}", event.getState().name());
+	/**
+	 * Reconnects the media of a sender that changed what it sends. Its video
+	 * stays off while the last-N policy does not forward it, and the decision
+	 * is recorded for {@link #updateVideoForwarding()}.
+	 */
+	private void receiveMediaType(UserSession sender, String type) {
+		final String senderName = sender.getName();
+		final CompletableFuture<WebRtcEndpoint> incoming = incomingMedia.get(senderName);
+		if (incoming == null) {
+			return;
+		}
+		synchronized (videoForwarded) {
+			final boolean video = !"AUDIO".equals(type) && room.isVideoForwarded(senderName);
+			final Boolean connected = videoForwarded.put(senderName, video);
+			if (!"VIDEO".equals(type)) {
+				queueConnection(senderName, incoming, endpoint -> KurentoAsync.<Void>call("connect",
+						c -> sender.getOutgoingWebRtcPeer().connect(endpoint, MediaType.AUDIO, c)))
+						.whenComplete((ignored, error) -> {
+							if (error != null) {
+								LOGGER.error("PARTICIPANT {}: could not connect audio from {}: {}", this.name, senderName,
+										KurentoAsync.unwrap(error).getMessage());
+							}
+						});
 			}
-		});
-
-		webRtcEndpoint.addIceGatheringDoneListener(new EventListener<IceGatheringDoneEvent>() {
-			@Override
-			public void onEvent(IceGatheringDoneEvent event) {
-				LOGGER.info("IceGatheringDoneEvent : {}", event.getType());
+			// Video that was never connected has nothing to disconnect
+			if (video || Boolean.TRUE.equals(connected)) {
+				queueVideo(sender, incoming, video);
 			}
-		});
+		}
+	}
 
-		webRtcEndpoint.addNewCandidatePairSelectedListener(new EventListener<NewCandidatePairSelectedEvent>() {
-			@Override
-			public void onEvent(NewCandidatePairSelectedEvent event) {
-				LOGGER.info("NewCandidatePairSelectedEvent : {}", event.getCandidatePair());
-			}
-		});
-		
-		webRtcEndpoint.addMediaTranscodingStateChangeListener(new EventListener<MediaTranscodingStateChangeEvent>() {
-			@Override
-			public void onEvent(MediaTranscodingStateChangeEvent event) {
-				LOGGER.info("MediaTranscodingStateChangeEvent : {}", event.getState().name());
-			}
-		});
-		
-		webRtcEndpoint.addMediaFlowInStateChangeListener(new EventListener<MediaFlowInStateChangeEvent>() {
-			@Override
-			public void onEvent(MediaFlowInStateChangeEvent event) {
-				LOGGER.info("MediaFlowInStateChangeEvent : {}", event.getState().name());
-			}
-		});
-		
-		webRtcEndpoint.addMediaFlowOutStateChangeListener(new EventListener<MediaFlowOutStateChangeEvent>() {
-			@Override
-			public void onEvent(MediaFlowOutStateChangeEvent event) {
-				LOGGER.info("MediaFlowOutStateChangeEvent {}", event.getState().name());
-			}
-		});
-		
-		webRtcEndpoint.addElementConnectedListener(new EventListener<ElementConnectedEvent>() {
-			@Override
-			public void onEvent(ElementConnectedEvent event) {
-				LOGGER.info("ElementConnectedEvent {}", event.getMediaType().name());
-			}
-		});
-		
-		webRtcEndpoint.addElementDisconnectedListener(new EventListener<ElementDisconnectedEvent>() {
-			@Override
-			public void onEvent(ElementDisconnectedEvent event) {
-				LOGGER.info("ElementDisconnectedEvent : {}", event.getType());
-			}
-		});
-		
-		webRtcEndpoint.addConnectionStateChangedListener(new EventListener<ConnectionStateChangedEvent>() {
-			@Override
-			public void onEvent(ConnectionStateChangedEvent event) {
-				LOGGER.info("ConnectionStateChangedEvent : {}", event.getNewState().name());
-			}
-		});
-		
-		webRtcEndpoint.addMediaStateChangedListener(new EventListener<MediaStateChangedEvent>() {
-			@Override
-			public void onEvent(MediaStateChangedEvent event) {
-				LOGGER.info("MediaStateChangedEvent : {}", event.getNewState().name());
-			}
-		});
-		
-		webRtcEndpoint.addMediaSessionStartedListener(new EventListener<MediaSessionStartedEvent>() {
-			@Override
-			public void onEvent(MediaSessionStartedEvent event) {
-				LOGGER.info("MediaSessionStartedEvent : {}", event.getType());
-			}
-		});
-		
-		webRtcEndpoint.addMediaSessionTerminatedListener(new EventListener<MediaSessionTerminatedEvent>() {
-			@Override
-			public void onEvent(MediaSessionTerminatedEvent event) {
-				LOGGER.info("MediaSessionStartedEvent : {}", event.getType());
+	/**
+	 * Subscribes the events of a new endpoint according to the current profile.
+	 * The subscriptions are sent asynchronously; the endpoint is usable at once.
+	 */
+	private void subscribeEvents(WebRtcEndpoint endpoint, String name) {
+		EndpointEvents events = new EndpointEvents(endpoint, this.name, name, this::sendIceCandidateMessage);
+		endpointEvents.put(name, events);
+		events.apply(getEventProfile());
+	}
+
+	/**
+	 * Reports the audio flow of the outgoing endpoint to the room, which picks
+	 * its active speakers from it.
+	 */
+	private void subscribeAudioFlow() {
+		KurentoAsync.call("subscribe", c -> outgoingMedia.addMediaFlowInStateChangeListener(event -> {
+			if (event.getMediaType() == MediaType.AUDIO) {
+				room.audioFlowing(name, event.getState() == MediaFlowState.FLOWING);
 			}
-		});
-		
-		webRtcEndpoint.addErrorListener(new EventListener<ErrorEvent>() {
-			@Override
-			public void onEvent(ErrorEvent event) {
-				LOGGER.error("Error code : {}, Error description : {}", event.getErrorCode(), event.getDescription());
+		}, c)).whenComplete((subscription, error) -> {
+			if (error != null) {
+				LOGGER.warn("PARTICIPANT {}: could not follow its audio flow: {}", this.name, KurentoAsync.unwrap(error).getMessage());
 			}
 		});
 	}
 
-	private void sendIceCandidateMessage(String name, JsonObject jsonObj) {
-		JsonObject response = new JsonObject();
-		response.addProperty("id", "iceCandidate");
-		response.addProperty("name", name);
-		response.add("candidate", jsonObj);
+	/**
+	 * Completes once the endpoint carrying the given participant's media can
+	 * report its candidates.
+	 */
+	private CompletableFuture<Void> eventsReady(String name) {
+		EndpointEvents events = endpointEvents.get(name);
+		return events != null ? events.ready() : CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * The profile in effect for this participant: the most detailed of the
+	 * room's and the one set for the participant itself.
+	 */
+	public EventProfile getEventProfile() {
+		return EventProfile.max(room.getEventProfile(), eventProfile);
+	}
+
+	/**
+	 * Overrides the event profile of this participant, null to follow the room.
+	 */
+	public void setEventProfile(EventProfile eventProfile) {
+		this.eventProfile = eventProfile;
+		applyEventProfile();
+	}
+
+	/**
+	 * Re-applies the current profile to every endpoint of the participant.
+	 */
+	public void applyEventProfile() {
+		EventProfile profile = getEventProfile();
+		LOGGER.info("PARTICIPANT {}: applying event profile {}", this.name, profile);
+		for (EndpointEvents events : endpointEvents.values()) {
+			events.apply(profile);
+		}
+	}
+
+	private void releaseEvents(String name) {
+		EndpointEvents events = endpointEvents.remove(name);
+		if (events != null) {
+			events.released();
+		}
+	}
+
+	private void sendIceCandidateMessage(String name, IceCandidate candidate) {
+		if (Boolean.TRUE.equals(session.getAttributes().get(Constants.ICE_BATCHING))) {
+			iceCandidateBatcher.add(name, candidate);
+			return;
+		}
+
 		try {
-			synchronized (session) {
-				session.sendMessage(new TextMessage(response.toString()));
-			}
+			sendMessage(new IceCandidateMessage(name, candidate));
 		} catch (Exception e) {
 			LOGGER.error(e.getMessage());
 		}
@@ -270,12 +488,19 @@ public class UserSession implements Closeable {
 
 	public void cancelVideoFrom(final String senderName) {
 		LOGGER.info("PARTICIPANT {}: canceling video reception from {}", this.name, senderName);
-		final WebRtcEndpoint incoming = incomingMedia.remove(senderName);
+		final CompletableFuture<WebRtcEndpoint> incoming = incomingMedia.remove(senderName);
+		videoForwarded.remove(senderName);
+		connectionChanges.remove(senderName);
+		earlyCandidates.discard(senderName);
+		room.getStatsCollector().untrack(this, senderName);
+		room.getBandwidthPolicy().endpointReleased(this, senderName);
+		releaseEvents(senderName);
 
 		LOGGER.info("PARTICIPANT {}: removing endpoint for {}", this.name, senderName);
 
 		if (incoming != null) {
-			incoming.release(new Continuation<Void>() {
+			// The endpoint may still be under construction; release it once it exists
+			incoming.thenAccept(ep -> releaseEndpoint(ep, new Continuation<Void>() {
 				@Override
 				public void onSuccess(Void result) throws Exception {
 					LOGGER.info("PARTICIPANT {}: Released successfully incoming EP for {}", UserSession.this.name, senderName);
@@ -285,7 +510,7 @@ public class UserSession implements Closeable {
 				public void onError(Throwable cause) throws Exception {
 					LOGGER.error("PARTICIPANT {}: Could not release incoming EP for {}", UserSession.this.name, senderName);
 				}
-			});
+			}));
 		} else {
 			LOGGER.info("incoming video is not available for the user");
 		}
@@ -294,56 +519,184 @@ public class UserSession implements Closeable {
 	@Override
 	public void close() throws IOException {
 		LOGGER.info("PARTICIPANT {}: Releasing resources", this.name);
+		final long start = GroupCallMetrics.start();
+		earlyCandidates.clear();
+		videoForwarded.clear();
+		connectionChanges.clear();
+		room.getStatsCollector().untrack(this);
+		room.getBandwidthPolicy().unregister(this);
+		final List<CompletableFuture<Boolean>> releases = new ArrayList<>();
 		for (final String remoteParticipantName : incomingMedia.keySet()) {
 
 			LOGGER.info("PARTICIPANT {}: Released incoming EP for {}", this.name, remoteParticipantName);
 
-			final WebRtcEndpoint ep = this.incomingMedia.get(remoteParticipantName);
+			final CompletableFuture<WebRtcEndpoint> ep = this.incomingMedia.remove(remoteParticipantName);
+			releaseEvents(remoteParticipantName);
+			if (ep == null) {
+				continue;
+			}
 
-			ep.release(new Continuation<Void>() {
-				@Override
-				public void onSuccess(Void result) throws Exception {
-					LOGGER.info("PARTICIPANT {}: Released successfully incoming EP for {}", UserSession.this.name, remoteParticipantName);
-				}
+			// An endpoint that could not be created has nothing to release
+			releases.add(ep.exceptionally(e -> null)
+					.thenCompose(endpoint -> endpoint == null ? CompletableFuture.completedFuture(true) : releaseEndpoint(endpoint).handle((ignored, e) -> {
+						if (e != null) {
+							LOGGER.error("PARTICIPANT {}: Could not release incoming EP for {}", UserSession.this.name, remoteParticipantName);
+							return false;
+						}
+						LOGGER.info("PARTICIPANT {}: Released successfully incoming EP for {}", UserSession.this.name, remoteParticipantName);
+						return true;
+					})));
+		}
 
-				@Override
-				public void onError(Throwable cause) throws Exception {
-					LOGGER.error("PARTICIPANT {}: Could not release incoming EP for {}", UserSession.this.name, remoteParticipantName);
+		final CompletableFuture<HubPort> port = hubPort;
+		hubPort = null;
+		if (port != null) {
+			releases.add(port.exceptionally(e -> null).thenCompose(mix -> {
+				if (mix == null) {
+					return CompletableFuture.completedFuture(true);
 				}
-			});
+				server.endpointReleased();
+				return KurentoAsync.<Void>call("releaseHubPort", c -> mix.release(c)).handle((ignored, e) -> {
+					if (e != null) {
+						LOGGER.error("PARTICIPANT {}: Could not release its hub port", UserSession.this.name);
+						return false;
+					}
+					return true;
+				});
+			}));
 		}
 
-		outgoingMedia.release(new Continuation<Void>() {
-			@Override
-			public void onSuccess(Void result) throws Exception {
-				LOGGER.info("PARTICIPANT {}: Released outgoing EP", UserSession.this.name);
-			}
-
-			@Override
-			public void onError(Throwable cause) throws Exception {
+		releaseEvents(this.name);
+		releases.add(releaseEndpoint(outgoingMedia).handle((ignored, e) -> {
+			if (e != null) {
 				LOGGER.error("USER {}: Could not release outgoing EP", UserSession.this.name);
+				return false;
 			}
-		});
+			LOGGER.info("PARTICIPANT {}: Released outgoing EP", UserSession.this.name);
+			return true;
+		}));
+
+		// The participant is closed once every one of its media elements is released
+		CompletableFuture.allOf(releases.toArray(new CompletableFuture<?>[0])).thenRun(() -> GroupCallMetrics
+				.recordParticipantClose(releases.stream().allMatch(CompletableFuture::join), start));
+	}
+
+	private CompletableFuture<Void> releaseEndpoint(WebRtcEndpoint endpoint) {
+		server.endpointReleased();
+		return KurentoAsync.call("release", c -> endpoint.release(c));
+	}
+
+	private void releaseEndpoint(WebRtcEndpoint endpoint, Continuation<Void> continuation) {
+		server.endpointReleased();
+		endpoint.release(KurentoAsync.timed("release", continuation));
+	}
+
+	public void sendMessage(SignalingMessage message) throws IOException {
+		LOGGER.info(LogMarkers.PAYLOAD, "USER {}: Sending message {}", name, message.getId());
+		session.sendMessage(SignalingCodec.frame(session, message));
+	}
+
+	/**
+	 * Queues a frame shared with other recipients, see {@link Room#broadcast}.
+	 * Fails when the session can no longer deliver it.
+	 */
+	public void sendFrame(SharedFrame frame) throws IOException {
+		if (!session.isOpen() || (session instanceof OutboundSessionDecorator && ((OutboundSessionDecorator) session).isEvicted())) {
+			throw new IOException("session " + session.getId() + " is closed");
+		}
+		LOGGER.info(LogMarkers.PAYLOAD, "USER {}: Sending message {}", name, frame.getMessage().getId());
+		session.sendMessage(frame.forSession(session));
+	}
+
+	private void sendErrorResponse(String responseId, Throwable throwable) {
+		try {
+			sendMessage(ResponseMessage.rejected(responseId, throwable));
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage());
+		}
+	}
+
+	/**
+	 * The endpoint receiving media from the given participant, or null while it
+	 * has not been created yet.
+	 */
+	private WebRtcEndpoint getIncomingEndpoint(String senderName) {
+		CompletableFuture<WebRtcEndpoint> incoming = incomingMedia.get(senderName);
+		if (incoming == null || !incoming.isDone() || incoming.isCompletedExceptionally()) {
+			return null;
+		}
+		return incoming.join();
 	}
 
-	public void sendMessage(JsonObject message) throws IOException {
-		LOGGER.info("USER {}: Sending message {}", name, message);
-		synchronized (session) {
-			session.sendMessage(new TextMessage(message.toString()));
+	/**
+	 * The endpoints receiving the other participants that are created, by
+	 * sender.
+	 */
+	public Map<String, WebRtcEndpoint> getIncomingEndpoints() {
+		Map<String, WebRtcEndpoint> endpoints = new HashMap<>();
+		for (String senderName : incomingMedia.keySet()) {
+			WebRtcEndpoint endpoint = getIncomingEndpoint(senderName);
+			if (endpoint != null) {
+				endpoints.put(senderName, endpoint);
+			}
 		}
+		return endpoints;
 	}
 
+	/**
+	 * Applies a remote candidate to the endpoint it belongs to. When that
+	 * endpoint is still being created the candidate is buffered and applied as
+	 * soon as it exists.
+	 */
 	public void addCandidate(IceCandidate candidate, String name) {
 		if (this.name.compareTo(name) == 0) {
 			outgoingMedia.addIceCandidate(candidate);
 		} else {
-			WebRtcEndpoint webRtc = incomingMedia.get(name);
+			WebRtcEndpoint webRtc = getIncomingEndpoint(name);
 			if (webRtc != null) {
 				webRtc.addIceCandidate(candidate);
+			} else {
+				bufferCandidate(candidate, name);
 			}
 		}
 	}
-	
+
+	private void bufferCandidate(IceCandidate candidate, String name) {
+		earlyCandidates.add(name, candidate);
+		// The endpoint may have completed between the lookup and the buffering
+		WebRtcEndpoint webRtc = getIncomingEndpoint(name);
+		if (webRtc != null) {
+			earlyCandidates.flush(name, webRtc);
+		}
+	}
+
+	/**
+	 * Applies a batch of remote candidates for one endpoint. The candidates are
+	 * handed to KMS without waiting for each other; failures are only logged, as
+	 * ICE tolerates a missing candidate.
+	 */
+	public void addCandidates(List<IceCandidate> candidates, String name) {
+		WebRtcEndpoint webRtc = this.name.equals(name) ? outgoingMedia : getIncomingEndpoint(name);
+		if (webRtc == null) {
+			for (IceCandidate candidate : candidates) {
+				bufferCandidate(candidate, name);
+			}
+			return;
+		}
+		for (final IceCandidate candidate : candidates) {
+			webRtc.addIceCandidate(candidate, KurentoAsync.timed("addIceCandidate", new Continuation<Void>() {
+				@Override
+				public void onSuccess(Void result) throws Exception {
+				}
+
+				@Override
+				public void onError(Throwable cause) throws Exception {
+					LOGGER.warn("PARTICIPANT {}: could not add candidate for {}: {}", UserSession.this.name, name, cause.getMessage());
+				}
+			}));
+		}
+	}
+
 	/*public String getSdpOffer() {
 		return sdpOffer;
 	}
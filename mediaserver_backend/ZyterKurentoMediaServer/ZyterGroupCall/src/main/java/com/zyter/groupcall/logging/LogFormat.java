@@ -0,0 +1,86 @@
+package com.zyter.groupcall.logging;
+
+import org.slf4j.ILoggerFactory;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.LoggerContext;
+
+/**
+ * Log arguments that keep large or sensitive values out of the log. SDPs and
+ * payloads are truncated lazily, only when the statement is actually written,
+ * to the lengths set by the {@code SDP_LOG_LENGTH} and
+ * {@code PAYLOAD_LOG_LENGTH} properties of {@code logback-spring.xml}.
+ */
+public final class LogFormat {
+
+	public static final String SDP_LENGTH_PROPERTY = "SDP_LOG_LENGTH";
+
+	public static final String PAYLOAD_LENGTH_PROPERTY = "PAYLOAD_LOG_LENGTH";
+
+	private static final int DEFAULT_SDP_LENGTH = 200;
+
+	private static final int DEFAULT_PAYLOAD_LENGTH = 512;
+
+	private LogFormat() {
+	}
+
+	public static Object sdp(String sdp) {
+		return new Truncated(sdp, SDP_LENGTH_PROPERTY, DEFAULT_SDP_LENGTH);
+	}
+
+	public static Object payload(String payload) {
+		return new Truncated(payload, PAYLOAD_LENGTH_PROPERTY, DEFAULT_PAYLOAD_LENGTH);
+	}
+
+	/**
+	 * Hides a token or password, keeping just enough to tell two apart.
+	 */
+	public static String mask(String secret) {
+		if (secret == null || secret.isEmpty()) {
+			return secret;
+		}
+		if (secret.length() <= 8) {
+			return "****";
+		}
+		return secret.substring(0, 4) + "****";
+	}
+
+	private static int limit(String property, int defaultLimit) {
+		ILoggerFactory factory = LoggerFactory.getILoggerFactory();
+		if (factory instanceof LoggerContext) {
+			String value = ((LoggerContext) factory).getProperty(property);
+			if (value != null) {
+				try {
+					return Integer.parseInt(value.trim());
+				} catch (NumberFormatException e) {
+					return defaultLimit;
+				}
+			}
+		}
+		return defaultLimit;
+	}
+
+	private static final class Truncated {
+		private final String text;
+		private final String property;
+		private final int defaultLimit;
+
+		private Truncated(String text, String property, int defaultLimit) {
+			this.text = text;
+			this.property = property;
+			this.defaultLimit = defaultLimit;
+		}
+
+		@Override
+		public String toString() {
+			if (text == null) {
+				return "null";
+			}
+			int limit = limit(property, defaultLimit);
+			if (limit < 0 || text.length() <= limit) {
+				return text;
+			}
+			return text.substring(0, limit) + "... (" + text.length() + " chars)";
+		}
+	}
+}
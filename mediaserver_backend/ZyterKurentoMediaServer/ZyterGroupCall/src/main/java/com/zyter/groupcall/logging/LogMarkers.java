@@ -0,0 +1,34 @@
+package com.zyter.groupcall.logging;
+
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+/**
+ * Categories of the high volume log statements. Each one can be sampled and
+ * rate limited on its own with a {@link SamplingTurboFilter}.
+ */
+public final class LogMarkers {
+
+	/**
+	 * Incoming and outgoing signaling messages.
+	 */
+	public static final Marker PAYLOAD = MarkerFactory.getMarker("PAYLOAD");
+
+	/**
+	 * SDP offers and answers.
+	 */
+	public static final Marker SDP = MarkerFactory.getMarker("SDP");
+
+	/**
+	 * ICE candidates, local and remote.
+	 */
+	public static final Marker ICE = MarkerFactory.getMarker("ICE");
+
+	/**
+	 * Events raised by the media elements.
+	 */
+	public static final Marker MEDIA_EVENT = MarkerFactory.getMarker("MEDIA_EVENT");
+
+	private LogMarkers() {
+	}
+}
@@ -0,0 +1,109 @@
+package com.zyter.groupcall.logging;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * Thins out the statements of one {@link LogMarkers} category before they are
+ * formatted: only one in {@code sampleRate} is kept, and no more than
+ * {@code maxPerSecond} per second. Statements at {@code alwaysLogLevel} or
+ * above (WARN by default) always pass. Declared in {@code logback-spring.xml},
+ * so the limits follow the file when it is rescanned.
+ */
+public class SamplingTurboFilter extends TurboFilter {
+
+	private String markerName;
+
+	private Marker marker;
+
+	private int sampleRate = 1;
+
+	private int maxPerSecond;
+
+	private Level alwaysLogLevel = Level.WARN;
+
+	private final AtomicLong seen = new AtomicLong();
+
+	private final AtomicLong suppressed = new AtomicLong();
+
+	private final AtomicLong currentSecond = new AtomicLong();
+
+	private final AtomicInteger loggedThisSecond = new AtomicInteger();
+
+	@Override
+	public void start() {
+		if (markerName == null || markerName.trim().isEmpty()) {
+			addError("No marker set for " + getName());
+			return;
+		}
+		marker = MarkerFactory.getMarker(markerName.trim());
+		super.start();
+	}
+
+	@Override
+	public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+		if (!isStarted() || marker == null || !marker.contains(this.marker)) {
+			return FilterReply.NEUTRAL;
+		}
+		// Statements below the logger level are dropped anyway and must not use up the budget
+		if (level.isGreaterOrEqual(alwaysLogLevel) || !level.isGreaterOrEqual(logger.getEffectiveLevel())) {
+			return FilterReply.NEUTRAL;
+		}
+
+		if (sampleRate > 1 && seen.incrementAndGet() % sampleRate != 0) {
+			suppressed.incrementAndGet();
+			return FilterReply.DENY;
+		}
+		if (maxPerSecond > 0 && !withinRate()) {
+			suppressed.incrementAndGet();
+			return FilterReply.DENY;
+		}
+		return FilterReply.NEUTRAL;
+	}
+
+	private boolean withinRate() {
+		long second = System.currentTimeMillis() / 1000;
+		long current = currentSecond.get();
+		if (second != current && currentSecond.compareAndSet(current, second)) {
+			loggedThisSecond.set(0);
+		}
+		return loggedThisSecond.incrementAndGet() <= maxPerSecond;
+	}
+
+	public void setMarker(String markerName) {
+		this.markerName = markerName;
+	}
+
+	/**
+	 * Keep one statement out of this many, 1 keeps all of them.
+	 */
+	public void setSampleRate(int sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Statements kept per second after sampling, 0 for no limit.
+	 */
+	public void setMaxPerSecond(int maxPerSecond) {
+		this.maxPerSecond = maxPerSecond;
+	}
+
+	public void setAlwaysLogLevel(String level) {
+		this.alwaysLogLevel = Level.toLevel(level, Level.WARN);
+	}
+
+	/**
+	 * Statements of the category discarded since the filter was configured.
+	 */
+	public long getSuppressedCount() {
+		return suppressed.get();
+	}
+}
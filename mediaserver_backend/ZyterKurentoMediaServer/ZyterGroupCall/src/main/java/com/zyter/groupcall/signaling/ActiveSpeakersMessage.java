@@ -0,0 +1,35 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Participants whose video is currently forwarded in a room in last-N mode,
+ * most recent speaker first. The others are only heard.
+ */
+public class ActiveSpeakersMessage extends SignalingMessage {
+
+	public static final String ID = "activeSpeakers";
+
+	private final Collection<String> names;
+
+	public ActiveSpeakersMessage(Collection<String> names) {
+		this.names = names;
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	@Override
+	protected void writeFields(JsonGenerator generator) throws IOException {
+		generator.writeArrayFieldStart("data");
+		for (String name : names) {
+			generator.writeString(name);
+		}
+		generator.writeEndArray();
+	}
+}
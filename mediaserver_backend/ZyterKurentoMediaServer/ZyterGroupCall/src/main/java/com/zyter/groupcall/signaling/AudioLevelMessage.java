@@ -0,0 +1,38 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Audio level of the client's own microphone, between 0 and 1 as reported by
+ * the browser's {@code getStats}. Used to pick the active speakers of rooms in
+ * last-N mode.
+ */
+public class AudioLevelMessage extends SignalingMessage {
+
+	public static final String ID = "audioLevel";
+
+	private double level;
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	public double getLevel() {
+		return level;
+	}
+
+	@Override
+	protected void readField(String field, JsonParser parser) throws IOException {
+		switch (field) {
+			case "level":
+				level = parser.getValueAsDouble();
+				break;
+			default:
+				parser.skipChildren();
+				break;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Starts a call from one user to a comma separated list of users.
+ */
+public class CallMessage extends SignalingMessage {
+
+	public static final String ID = "call";
+
+	private String from;
+
+	private String to;
+
+	private String domain;
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	public String getFrom() {
+		return from;
+	}
+
+	public String getTo() {
+		return to;
+	}
+
+	public String getDomain() {
+		return domain;
+	}
+
+	@Override
+	protected void readField(String field, JsonParser parser) throws IOException {
+		switch (field) {
+			case "from":
+				from = parser.getValueAsString();
+				break;
+			case "to":
+				to = parser.getValueAsString();
+				break;
+			case "domain":
+				domain = parser.getValueAsString();
+				break;
+			default:
+				parser.skipChildren();
+				break;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.zyter.groupcall.signaling;
+
+import org.kurento.client.IceCandidate;
+
+/**
+ * A candidate together with the name of the participant whose endpoint it
+ * belongs to, as carried in batched candidate messages.
+ */
+public class CandidateEntry {
+
+	private final String name;
+
+	private final IceCandidate candidate;
+
+	public CandidateEntry(String name, IceCandidate candidate) {
+		this.name = name;
+		this.candidate = candidate;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public IceCandidate getCandidate() {
+		return candidate;
+	}
+}
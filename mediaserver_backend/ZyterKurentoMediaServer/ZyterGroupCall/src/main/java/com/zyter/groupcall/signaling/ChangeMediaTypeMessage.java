@@ -0,0 +1,45 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+public class ChangeMediaTypeMessage extends SignalingMessage {
+
+	public static final String ID = "changeMediaType";
+
+	private String type;
+
+	private String name;
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	/**
+	 * VIDEO, AUDIO or anything else for both.
+	 */
+	public String getType() {
+		return type;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	protected void readField(String field, JsonParser parser) throws IOException {
+		switch (field) {
+			case "type":
+				type = parser.getValueAsString();
+				break;
+			case "name":
+				name = parser.getValueAsString();
+				break;
+			default:
+				parser.skipChildren();
+				break;
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+public class ExistingParticipantsMessage extends SignalingMessage {
+
+	public static final String ID = "existingParticipants";
+
+	private final List<String> names;
+
+	public ExistingParticipantsMessage(List<String> names) {
+		this.names = names;
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	public List<String> getNames() {
+		return names;
+	}
+
+	@Override
+	protected void writeFields(JsonGenerator generator) throws IOException {
+		generator.writeArrayFieldStart("data");
+		for (String name : names) {
+			generator.writeString(name);
+		}
+		generator.writeEndArray();
+	}
+}
@@ -0,0 +1,36 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import org.kurento.client.IceCandidate;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * A candidate gathered by KMS for the endpoint associated to {@code name}.
+ */
+public class IceCandidateMessage extends SignalingMessage {
+
+	public static final String ID = "iceCandidate";
+
+	private final String name;
+
+	private final IceCandidate candidate;
+
+	public IceCandidateMessage(String name, IceCandidate candidate) {
+		this.name = name;
+		this.candidate = candidate;
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	@Override
+	protected void writeFields(JsonGenerator generator) throws IOException {
+		generator.writeStringField("name", name);
+		generator.writeFieldName("candidate");
+		IceCandidates.write(generator, candidate);
+	}
+}
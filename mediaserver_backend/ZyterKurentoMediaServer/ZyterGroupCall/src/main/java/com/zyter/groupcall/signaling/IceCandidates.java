@@ -0,0 +1,56 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import org.kurento.client.IceCandidate;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads and writes the {@code {candidate, sdpMid, sdpMLineIndex}} object
+ * shared by every candidate message.
+ */
+final class IceCandidates {
+
+	private IceCandidates() {
+	}
+
+	static IceCandidate read(JsonParser parser) throws IOException {
+		if (parser.currentToken() != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return null;
+		}
+		String candidate = null;
+		String sdpMid = null;
+		int sdpMLineIndex = 0;
+		String field;
+		while ((field = parser.nextFieldName()) != null) {
+			parser.nextToken();
+			switch (field) {
+				case "candidate":
+					candidate = parser.getValueAsString();
+					break;
+				case "sdpMid":
+					sdpMid = parser.getValueAsString();
+					break;
+				case "sdpMLineIndex":
+					sdpMLineIndex = parser.getValueAsInt();
+					break;
+				default:
+					parser.skipChildren();
+					break;
+			}
+		}
+		return new IceCandidate(candidate, sdpMid, sdpMLineIndex);
+	}
+
+	static void write(JsonGenerator generator, IceCandidate candidate) throws IOException {
+		generator.writeStartObject();
+		generator.writeStringField("candidate", candidate.getCandidate());
+		generator.writeStringField("sdpMid", candidate.getSdpMid());
+		generator.writeNumberField("sdpMLineIndex", candidate.getSdpMLineIndex());
+		generator.writeEndObject();
+	}
+}
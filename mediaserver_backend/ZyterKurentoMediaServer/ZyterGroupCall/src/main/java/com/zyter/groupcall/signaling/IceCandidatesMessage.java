@@ -0,0 +1,43 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Candidates gathered by KMS for several of the client's endpoints, sent to
+ * clients that accept batching.
+ */
+public class IceCandidatesMessage extends SignalingMessage {
+
+	public static final String ID = "iceCandidates";
+
+	private final List<CandidateEntry> candidates;
+
+	public IceCandidatesMessage(List<CandidateEntry> candidates) {
+		this.candidates = candidates;
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	public List<CandidateEntry> getCandidates() {
+		return candidates;
+	}
+
+	@Override
+	protected void writeFields(JsonGenerator generator) throws IOException {
+		generator.writeArrayFieldStart("candidates");
+		for (CandidateEntry entry : candidates) {
+			generator.writeStartObject();
+			generator.writeStringField("name", entry.getName());
+			generator.writeFieldName("candidate");
+			IceCandidates.write(generator, entry.getCandidate());
+			generator.writeEndObject();
+		}
+		generator.writeEndArray();
+	}
+}
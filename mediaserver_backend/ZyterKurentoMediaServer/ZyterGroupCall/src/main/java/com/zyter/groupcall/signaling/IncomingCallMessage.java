@@ -0,0 +1,29 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Rings a callee on behalf of {@code from}.
+ */
+public class IncomingCallMessage extends SignalingMessage {
+
+	public static final String ID = "incomingCall";
+
+	private final String from;
+
+	public IncomingCallMessage(String from) {
+		this.from = from;
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	@Override
+	protected void writeFields(JsonGenerator generator) throws IOException {
+		generator.writeStringField("from", from);
+	}
+}
@@ -0,0 +1,42 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+public class IncomingCallResponseMessage extends SignalingMessage {
+
+	public static final String ID = "incomingCallResponse";
+
+	private String callResponse;
+
+	private String from;
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	public String getCallResponse() {
+		return callResponse;
+	}
+
+	public String getFrom() {
+		return from;
+	}
+
+	@Override
+	protected void readField(String field, JsonParser parser) throws IOException {
+		switch (field) {
+			case "callResponse":
+				callResponse = parser.getValueAsString();
+				break;
+			case "from":
+				from = parser.getValueAsString();
+				break;
+			default:
+				parser.skipChildren();
+				break;
+		}
+	}
+}
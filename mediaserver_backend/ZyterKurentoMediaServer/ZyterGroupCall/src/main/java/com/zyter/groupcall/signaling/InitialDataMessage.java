@@ -0,0 +1,90 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Identifies the user of a connection whose client could not send the
+ * handshake headers.
+ */
+public class InitialDataMessage extends SignalingMessage {
+
+	public static final String ID = "initialData";
+
+	private String userId;
+
+	private String domain;
+
+	private String authToken;
+
+	private String displayName;
+
+	private Boolean iceBatching;
+
+	private Boolean sdpCompression;
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public String getDomain() {
+		return domain;
+	}
+
+	public String getAuthToken() {
+		return authToken;
+	}
+
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	/**
+	 * Whether the client accepts batched {@code iceCandidates} messages, or
+	 * null when it did not say.
+	 */
+	public Boolean getIceBatching() {
+		return iceBatching;
+	}
+
+	/**
+	 * Whether the client wants SDP answers in the compressed envelope, or null
+	 * when it did not say.
+	 */
+	public Boolean getSdpCompression() {
+		return sdpCompression;
+	}
+
+	@Override
+	protected void readField(String field, JsonParser parser) throws IOException {
+		switch (field) {
+			case "userid":
+				userId = parser.getValueAsString();
+				break;
+			case "domain":
+				domain = parser.getValueAsString();
+				break;
+			case "auth_token":
+				authToken = parser.getValueAsString();
+				break;
+			case "display_name":
+				displayName = parser.getValueAsString();
+				break;
+			case "ice_batching":
+				iceBatching = parser.getValueAsBoolean();
+				break;
+			case "sdp_compression":
+				sdpCompression = parser.getValueAsBoolean();
+				break;
+			default:
+				parser.skipChildren();
+				break;
+		}
+	}
+}
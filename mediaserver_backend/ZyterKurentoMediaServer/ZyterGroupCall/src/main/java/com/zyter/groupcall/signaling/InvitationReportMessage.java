@@ -0,0 +1,48 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Tells a caller which callees were rung: those with at least one device that
+ * received {@code incomingCall}, and why the others were not.
+ */
+public class InvitationReportMessage extends SignalingMessage {
+
+	public static final String ID = "invitationReport";
+
+	private final String room;
+
+	private final List<String> delivered;
+
+	private final Map<String, String> failed;
+
+	public InvitationReportMessage(String room, List<String> delivered, Map<String, String> failed) {
+		this.room = room;
+		this.delivered = delivered;
+		this.failed = failed;
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	@Override
+	protected void writeFields(JsonGenerator generator) throws IOException {
+		generator.writeStringField("room", room);
+		generator.writeArrayFieldStart("delivered");
+		for (String name : delivered) {
+			generator.writeString(name);
+		}
+		generator.writeEndArray();
+		generator.writeObjectFieldStart("failed");
+		for (Map.Entry<String, String> entry : failed.entrySet()) {
+			generator.writeStringField(entry.getKey(), entry.getValue());
+		}
+		generator.writeEndObject();
+	}
+}
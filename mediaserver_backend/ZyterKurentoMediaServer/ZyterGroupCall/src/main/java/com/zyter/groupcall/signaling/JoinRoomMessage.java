@@ -0,0 +1,42 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+public class JoinRoomMessage extends SignalingMessage {
+
+	public static final String ID = "joinRoom";
+
+	private String room;
+
+	private String name;
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	public String getRoom() {
+		return room;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	protected void readField(String field, JsonParser parser) throws IOException {
+		switch (field) {
+			case "room":
+				room = parser.getValueAsString();
+				break;
+			case "name":
+				name = parser.getValueAsString();
+				break;
+			default:
+				parser.skipChildren();
+				break;
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package com.zyter.groupcall.signaling;
+
+public class LeaveRoomMessage extends SignalingMessage {
+
+	public static final String ID = "leaveRoom";
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+}
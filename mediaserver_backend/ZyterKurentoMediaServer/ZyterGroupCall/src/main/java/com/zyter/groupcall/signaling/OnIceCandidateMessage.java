@@ -0,0 +1,47 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import org.kurento.client.IceCandidate;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * A single remote candidate for the endpoint associated to {@code name}.
+ */
+public class OnIceCandidateMessage extends SignalingMessage {
+
+	public static final String ID = "onIceCandidate";
+
+	private String name;
+
+	private IceCandidate candidate;
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public IceCandidate getCandidate() {
+		return candidate;
+	}
+
+	@Override
+	protected void readField(String field, JsonParser parser) throws IOException {
+		switch (field) {
+			case "name":
+				name = parser.getValueAsString();
+				break;
+			case "candidate":
+				candidate = IceCandidates.read(parser);
+				break;
+			default:
+				parser.skipChildren();
+				break;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.kurento.client.IceCandidate;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * A batch of remote candidates, each tagged with the participant whose
+ * endpoint it belongs to.
+ */
+public class OnIceCandidatesMessage extends SignalingMessage {
+
+	public static final String ID = "onIceCandidates";
+
+	private final List<CandidateEntry> candidates = new ArrayList<>();
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	public List<CandidateEntry> getCandidates() {
+		return candidates;
+	}
+
+	@Override
+	protected void readField(String field, JsonParser parser) throws IOException {
+		if (!"candidates".equals(field) || parser.currentToken() != JsonToken.START_ARRAY) {
+			parser.skipChildren();
+			return;
+		}
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+			if (token != JsonToken.START_OBJECT) {
+				// A malformed entry is dropped, not the rest of the batch
+				parser.skipChildren();
+				continue;
+			}
+			String name = null;
+			IceCandidate candidate = null;
+			String entryField;
+			while ((entryField = parser.nextFieldName()) != null) {
+				parser.nextToken();
+				if ("name".equals(entryField)) {
+					name = parser.getValueAsString();
+				} else if ("candidate".equals(entryField)) {
+					candidate = IceCandidates.read(parser);
+				} else {
+					parser.skipChildren();
+				}
+			}
+			if (name != null && candidate != null) {
+				candidates.add(new CandidateEntry(name, candidate));
+			}
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+public class ParticipantLeftMessage extends SignalingMessage {
+
+	public static final String ID = "participantLeft";
+
+	private final String name;
+
+	public ParticipantLeftMessage(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	@Override
+	protected void writeFields(JsonGenerator generator) throws IOException {
+		generator.writeStringField("name", name);
+	}
+}
@@ -0,0 +1,74 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Application level keep-alive. Its properties are kept so that the
+ * {@link PongMessage} echoes them back to the client: scalars as they are,
+ * objects and arrays as maps and lists. Decimal numbers keep their digits.
+ */
+public class PingMessage extends SignalingMessage {
+
+	public static final String ID = "ping";
+
+	private final Map<String, Object> fields = new LinkedHashMap<>();
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	public String getFrom() {
+		Object from = fields.get("from");
+		return from != null ? from.toString() : null;
+	}
+
+	public PongMessage toPong() {
+		return new PongMessage(fields);
+	}
+
+	@Override
+	protected void readField(String field, JsonParser parser) throws IOException {
+		fields.put(field, readValue(parser));
+	}
+
+	private static Object readValue(JsonParser parser) throws IOException {
+		JsonToken token = parser.currentToken();
+		if (token == JsonToken.START_OBJECT) {
+			Map<String, Object> object = new LinkedHashMap<>();
+			String field;
+			while ((field = parser.nextFieldName()) != null) {
+				parser.nextToken();
+				object.put(field, readValue(parser));
+			}
+			return object;
+		}
+		if (token == JsonToken.START_ARRAY) {
+			List<Object> array = new ArrayList<>();
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				array.add(readValue(parser));
+			}
+			return array;
+		}
+		if (token == JsonToken.VALUE_NUMBER_INT) {
+			return parser.getNumberValue();
+		}
+		if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+			return parser.getDecimalValue();
+		}
+		if (token.isBoolean()) {
+			return parser.getBooleanValue();
+		}
+		if (token == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		return parser.getValueAsString();
+	}
+}
@@ -0,0 +1,65 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Answer to a {@link PingMessage}, carrying the same properties.
+ */
+public class PongMessage extends SignalingMessage {
+
+	public static final String ID = "pong";
+
+	private final Map<String, Object> fields;
+
+	public PongMessage(Map<String, Object> fields) {
+		this.fields = fields;
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	@Override
+	protected void writeFields(JsonGenerator generator) throws IOException {
+		for (Map.Entry<String, Object> field : fields.entrySet()) {
+			generator.writeFieldName(field.getKey());
+			writeValue(generator, field.getValue());
+		}
+	}
+
+	private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+		if (value instanceof Map) {
+			generator.writeStartObject();
+			for (Map.Entry<?, ?> field : ((Map<?, ?>) value).entrySet()) {
+				generator.writeFieldName(field.getKey().toString());
+				writeValue(generator, field.getValue());
+			}
+			generator.writeEndObject();
+		} else if (value instanceof List) {
+			generator.writeStartArray();
+			for (Object item : (List<?>) value) {
+				writeValue(generator, item);
+			}
+			generator.writeEndArray();
+		} else if (value instanceof BigDecimal) {
+			generator.writeNumber((BigDecimal) value);
+		} else if (value instanceof BigInteger) {
+			generator.writeNumber((BigInteger) value);
+		} else if (value instanceof Number) {
+			generator.writeNumber(((Number) value).longValue());
+		} else if (value instanceof Boolean) {
+			generator.writeBoolean((Boolean) value);
+		} else if (value == null) {
+			generator.writeNull();
+		} else {
+			generator.writeString(value.toString());
+		}
+	}
+}
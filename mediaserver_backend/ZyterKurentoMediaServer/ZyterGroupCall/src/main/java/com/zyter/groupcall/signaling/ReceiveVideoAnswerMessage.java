@@ -0,0 +1,45 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+public class ReceiveVideoAnswerMessage extends SignalingMessage {
+
+	public static final String ID = "receiveVideoAnswer";
+
+	private final String name;
+
+	private final String sdpAnswer;
+
+	private final boolean compressed;
+
+	public ReceiveVideoAnswerMessage(String name, String sdpAnswer) {
+		this(name, sdpAnswer, false);
+	}
+
+	/**
+	 * @param compressed whether to send the answer in the {@code sdpAnswerDeflate}
+	 * envelope, see {@link SdpCompression}
+	 */
+	public ReceiveVideoAnswerMessage(String name, String sdpAnswer, boolean compressed) {
+		this.name = name;
+		this.sdpAnswer = sdpAnswer;
+		this.compressed = compressed;
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	@Override
+	protected void writeFields(JsonGenerator generator) throws IOException {
+		generator.writeStringField("name", name);
+		if (compressed) {
+			generator.writeStringField("sdpAnswerDeflate", SdpCompression.compress(sdpAnswer));
+		} else {
+			generator.writeStringField("sdpAnswer", sdpAnswer);
+		}
+	}
+}
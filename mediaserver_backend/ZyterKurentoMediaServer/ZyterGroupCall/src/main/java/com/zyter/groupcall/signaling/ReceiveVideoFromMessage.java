@@ -0,0 +1,56 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+public class ReceiveVideoFromMessage extends SignalingMessage {
+
+	public static final String ID = "receiveVideoFrom";
+
+	private String sender;
+
+	private String sdpOffer;
+
+	private boolean compressed;
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	public String getSender() {
+		return sender;
+	}
+
+	public String getSdpOffer() {
+		return sdpOffer;
+	}
+
+	/**
+	 * Whether the offer came in the {@code sdpOfferDeflate} envelope, meaning
+	 * the client can read a compressed answer as well.
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	@Override
+	protected void readField(String field, JsonParser parser) throws IOException {
+		switch (field) {
+			case "sender":
+				sender = parser.getValueAsString();
+				break;
+			case "sdpOffer":
+				sdpOffer = parser.getValueAsString();
+				break;
+			case "sdpOfferDeflate":
+				sdpOffer = SdpCompression.decompress(parser.getValueAsString());
+				compressed = true;
+				break;
+			default:
+				parser.skipChildren();
+				break;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Outcome of a request, e.g. {@code receiveVideoFromResponse} with
+ * {@code response: rejected} and the error message.
+ */
+public class ResponseMessage extends SignalingMessage {
+
+	private final String id;
+
+	private final String response;
+
+	private final String message;
+
+	public ResponseMessage(String id, String response, String message) {
+		this.id = id;
+		this.response = response;
+		this.message = message;
+	}
+
+	public static ResponseMessage rejected(String id, Throwable throwable) {
+		return new ResponseMessage(id, "rejected", throwable.getMessage());
+	}
+
+	@Override
+	public String getId() {
+		return id;
+	}
+
+	@Override
+	protected void writeFields(JsonGenerator generator) throws IOException {
+		generator.writeStringField("response", response);
+		generator.writeStringField("message", message);
+	}
+}
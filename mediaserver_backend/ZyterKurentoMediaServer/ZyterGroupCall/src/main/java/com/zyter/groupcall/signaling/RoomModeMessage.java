@@ -0,0 +1,32 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Tells the participants of a room how its media is now carried. On
+ * {@code MCU} clients drop the connections receiving other participants and
+ * get the mix on the one they send on; on {@code SFU} they receive the
+ * {@code existingParticipants} to connect to again.
+ */
+public class RoomModeMessage extends SignalingMessage {
+
+	public static final String ID = "roomMode";
+
+	private final String mode;
+
+	public RoomModeMessage(String mode) {
+		this.mode = mode;
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	@Override
+	protected void writeFields(JsonGenerator generator) throws IOException {
+		generator.writeStringField("mode", mode);
+	}
+}
@@ -0,0 +1,123 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed SDP envelope for clients that cannot use permessage-deflate,
+ * the SockJS fallback in particular. The SDP is deflated (zlib format) and
+ * base64 encoded, and travels in {@code sdpOfferDeflate} and
+ * {@code sdpAnswerDeflate} instead of {@code sdpOffer} and {@code sdpAnswer}.
+ */
+public final class SdpCompression {
+
+	/**
+	 * Upper bound of an inflated SDP, so a crafted payload cannot exhaust memory.
+	 */
+	private static final int MAX_SDP_LENGTH = 256 * 1024;
+
+	private static final AtomicLong INFLATED_BYTES = new AtomicLong();
+
+	private static final AtomicLong INFLATED_WIRE_BYTES = new AtomicLong();
+
+	private static final AtomicLong DEFLATED_BYTES = new AtomicLong();
+
+	private static final AtomicLong DEFLATED_WIRE_BYTES = new AtomicLong();
+
+	private SdpCompression() {
+	}
+
+	/**
+	 * Deflates and base64 encodes an SDP.
+	 */
+	public static String compress(String sdp) {
+		byte[] input = sdp.getBytes(StandardCharsets.UTF_8);
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setInput(input);
+			deflater.finish();
+			ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 3 + 64);
+			byte[] buffer = new byte[4096];
+			while (!deflater.finished()) {
+				output.write(buffer, 0, deflater.deflate(buffer));
+			}
+			String encoded = Base64.getEncoder().encodeToString(output.toByteArray());
+			DEFLATED_BYTES.addAndGet(input.length);
+			DEFLATED_WIRE_BYTES.addAndGet(encoded.length());
+			return encoded;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Restores an SDP produced by {@link #compress(String)} or a client doing
+	 * the same.
+	 */
+	public static String decompress(String encoded) throws IOException {
+		byte[] input;
+		try {
+			input = Base64.getDecoder().decode(encoded);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid compressed SDP: " + e.getMessage(), e);
+		}
+
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(input);
+			ByteArrayOutputStream output = new ByteArrayOutputStream(input.length * 4);
+			byte[] buffer = new byte[4096];
+			while (!inflater.finished()) {
+				int length = inflater.inflate(buffer);
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated compressed SDP");
+				}
+				output.write(buffer, 0, length);
+				if (output.size() > MAX_SDP_LENGTH) {
+					throw new IOException("Compressed SDP exceeds " + MAX_SDP_LENGTH + " bytes");
+				}
+			}
+			INFLATED_BYTES.addAndGet(output.size());
+			INFLATED_WIRE_BYTES.addAndGet(encoded.length());
+			return new String(output.toByteArray(), StandardCharsets.UTF_8);
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid compressed SDP: " + e.getMessage(), e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Size of the SDP offers received compressed, once inflated.
+	 */
+	public static long getInflatedBytes() {
+		return INFLATED_BYTES.get();
+	}
+
+	/**
+	 * Size of the same offers as they travelled, base64 included.
+	 */
+	public static long getInflatedWireBytes() {
+		return INFLATED_WIRE_BYTES.get();
+	}
+
+	/**
+	 * Size of the SDP answers sent compressed, before compression.
+	 */
+	public static long getDeflatedBytes() {
+		return DEFLATED_BYTES.get();
+	}
+
+	/**
+	 * Size of the same answers as they were sent, base64 included.
+	 */
+	public static long getDeflatedWireBytes() {
+		return DEFLATED_WIRE_BYTES.get();
+	}
+}
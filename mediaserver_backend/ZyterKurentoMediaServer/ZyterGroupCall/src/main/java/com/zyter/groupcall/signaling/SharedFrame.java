@@ -0,0 +1,50 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * A message sent to many sessions, encoded at most once per
+ * {@link SignalingEncoding} whatever the number of recipients.
+ *
+ * Text recipients share the same immutable frame. Binary recipients each get a
+ * {@link BinaryMessage} over the shared bytes, since the position of a frame's
+ * buffer moves while it is written.
+ */
+public final class SharedFrame {
+
+	private final SignalingMessage message;
+
+	private TextMessage text;
+
+	private byte[] binary;
+
+	public SharedFrame(SignalingMessage message) {
+		this.message = message;
+	}
+
+	public SignalingMessage getMessage() {
+		return message;
+	}
+
+	/**
+	 * The frame for the encoding negotiated by the session, encoding the message
+	 * on first use. Not meant to be shared between threads.
+	 */
+	public WebSocketMessage<?> forSession(WebSocketSession session) throws IOException {
+		if (SignalingEncoding.of(session) == SignalingEncoding.CBOR) {
+			if (binary == null) {
+				binary = SignalingCodec.encodeBinary(message);
+			}
+			return new BinaryMessage(binary);
+		}
+		if (text == null) {
+			text = new TextMessage(SignalingCodec.encode(message));
+		}
+		return text;
+	}
+}
@@ -0,0 +1,278 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+/**
+ * Streaming encoder and decoder for the signaling messages.
+ *
+ * Decoding reads the {@code id} first and hands the remaining properties to the
+ * matching {@link SignalingMessage} class, which keeps only what it needs.
+ * Clients put {@code id} first in practice; when they do not, the payload is
+ * scanned once for the id and then bound, still without building a tree.
+ *
+ * Encoding writes into a buffer taken from a small shared pool and returned
+ * afterwards. Handlers run on short-lived virtual threads, so per-thread
+ * buffers would be allocated for nearly every message.
+ *
+ * The same message classes are used for JSON text frames and for CBOR binary
+ * frames, see {@link SignalingEncoding}.
+ */
+public final class SignalingCodec {
+
+	private static final JsonFactory JSON = new JsonFactory();
+
+	private static final CBORFactory CBOR = new CBORFactory();
+
+	private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+	private static final int POOLED_BUFFERS = 64;
+
+	private static final Map<String, Supplier<SignalingMessage>> INCOMING = new HashMap<>();
+
+	private static final BlockingQueue<StringBuilderWriter> BUFFERS = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+
+	private static final BlockingQueue<ByteArrayBuilder> BINARY_BUFFERS = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+
+	static {
+		INCOMING.put(PingMessage.ID, PingMessage::new);
+		INCOMING.put(InitialDataMessage.ID, InitialDataMessage::new);
+		INCOMING.put(JoinRoomMessage.ID, JoinRoomMessage::new);
+		INCOMING.put(CallMessage.ID, CallMessage::new);
+		INCOMING.put(IncomingCallResponseMessage.ID, IncomingCallResponseMessage::new);
+		INCOMING.put(ReceiveVideoFromMessage.ID, ReceiveVideoFromMessage::new);
+		INCOMING.put(LeaveRoomMessage.ID, LeaveRoomMessage::new);
+		INCOMING.put(OnIceCandidateMessage.ID, OnIceCandidateMessage::new);
+		INCOMING.put(OnIceCandidatesMessage.ID, OnIceCandidatesMessage::new);
+		INCOMING.put(ChangeMediaTypeMessage.ID, ChangeMediaTypeMessage::new);
+		INCOMING.put(AudioLevelMessage.ID, AudioLevelMessage::new);
+	}
+
+	private SignalingCodec() {
+	}
+
+	/**
+	 * Decodes a text frame.
+	 *
+	 * @return the typed message, or null when the payload has no {@code id}
+	 */
+	public static SignalingMessage decode(String payload) throws IOException {
+		return decode(() -> JSON.createParser(payload));
+	}
+
+	/**
+	 * Decodes a CBOR binary frame.
+	 *
+	 * @return the typed message, or null when the payload has no {@code id}
+	 */
+	public static SignalingMessage decode(ByteBuffer payload) throws IOException {
+		final byte[] data;
+		final int offset;
+		final int length = payload.remaining();
+		if (payload.hasArray()) {
+			data = payload.array();
+			offset = payload.arrayOffset() + payload.position();
+		} else {
+			data = new byte[length];
+			payload.duplicate().get(data);
+			offset = 0;
+		}
+		return decode(() -> CBOR.createParser(data, offset, length));
+	}
+
+	/**
+	 * Builds the frame carrying the message in the encoding negotiated for the
+	 * session.
+	 */
+	public static WebSocketMessage<?> frame(WebSocketSession session, SignalingMessage message) throws IOException {
+		if (SignalingEncoding.of(session) == SignalingEncoding.CBOR) {
+			return new BinaryMessage(encodeBinary(message));
+		}
+		return new TextMessage(encode(message));
+	}
+
+	/**
+	 * Encodes a message as a CBOR binary frame payload.
+	 */
+	public static byte[] encodeBinary(SignalingMessage message) throws IOException {
+		ByteArrayBuilder buffer = BINARY_BUFFERS.poll();
+		if (buffer == null) {
+			buffer = new ByteArrayBuilder(512);
+		}
+		try {
+			buffer.reset();
+			try (JsonGenerator generator = CBOR.createGenerator(buffer)) {
+				write(message, generator);
+			}
+			byte[] result = buffer.toByteArray();
+			if (result.length <= MAX_RETAINED_BUFFER) {
+				// Dropped when the pool is full
+				BINARY_BUFFERS.offer(buffer);
+			}
+			return result;
+		} catch (IOException | RuntimeException e) {
+			BINARY_BUFFERS.offer(buffer);
+			throw e;
+		}
+	}
+
+	/**
+	 * Encodes a message as a JSON text frame payload.
+	 */
+	public static String encode(SignalingMessage message) throws IOException {
+		StringBuilderWriter buffer = BUFFERS.poll();
+		if (buffer == null) {
+			buffer = new StringBuilderWriter();
+		}
+		try {
+			buffer.reset();
+			try (JsonGenerator generator = JSON.createGenerator(buffer)) {
+				write(message, generator);
+			}
+			return buffer.toString();
+		} finally {
+			// Dropped when the pool is full
+			BUFFERS.offer(buffer);
+		}
+	}
+
+	static SignalingMessage decode(ParserSource source) throws IOException {
+		try (JsonParser parser = source.open()) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return null;
+			}
+			String field = parser.nextFieldName();
+			if ("id".equals(field)) {
+				parser.nextToken();
+				SignalingMessage message = create(parser.getValueAsString());
+				bind(message, parser);
+				return message;
+			}
+		}
+
+		// The id is not the first property: find it, then bind from the start
+		String id = scanId(source);
+		if (id == null) {
+			return null;
+		}
+		try (JsonParser parser = source.open()) {
+			parser.nextToken();
+			SignalingMessage message = create(id);
+			bind(message, parser);
+			return message;
+		}
+	}
+
+	static void write(SignalingMessage message, JsonGenerator generator) throws IOException {
+		generator.writeStartObject();
+		generator.writeStringField("id", message.getId());
+		message.writeFields(generator);
+		generator.writeEndObject();
+	}
+
+	private static SignalingMessage create(String id) {
+		if (id == null) {
+			return null;
+		}
+		Supplier<SignalingMessage> factory = INCOMING.get(id);
+		return factory != null ? factory.get() : new UnknownMessage(id);
+	}
+
+	private static void bind(SignalingMessage message, JsonParser parser) throws IOException {
+		if (message == null) {
+			return;
+		}
+		String field;
+		while ((field = parser.nextFieldName()) != null) {
+			parser.nextToken();
+			if ("id".equals(field)) {
+				continue;
+			}
+			message.readField(field, parser);
+		}
+	}
+
+	private static String scanId(ParserSource source) throws IOException {
+		try (JsonParser parser = source.open()) {
+			parser.nextToken();
+			String field;
+			while ((field = parser.nextFieldName()) != null) {
+				parser.nextToken();
+				if ("id".equals(field)) {
+					return parser.getValueAsString();
+				}
+				parser.skipChildren();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Opens a fresh parser over the same payload, so that it can be read twice.
+	 */
+	interface ParserSource {
+		JsonParser open() throws IOException;
+	}
+
+	/**
+	 * Unsynchronized writer over a reusable {@link StringBuilder}.
+	 */
+	private static final class StringBuilderWriter extends Writer {
+
+		private StringBuilder builder = new StringBuilder(512);
+
+		void reset() {
+			if (builder.capacity() > MAX_RETAINED_BUFFER) {
+				builder = new StringBuilder(512);
+			} else {
+				builder.setLength(0);
+			}
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			builder.append(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			builder.append(str, off, off + len);
+		}
+
+		@Override
+		public void write(int c) {
+			builder.append((char) c);
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public String toString() {
+			return builder.toString();
+		}
+	}
+}
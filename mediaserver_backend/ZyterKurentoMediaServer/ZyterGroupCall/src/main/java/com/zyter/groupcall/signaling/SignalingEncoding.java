@@ -0,0 +1,61 @@
+package com.zyter.groupcall.signaling;
+
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+import org.springframework.web.socket.sockjs.transport.SockJsSession;
+
+/**
+ * Wire encoding of the signaling messages on a connection. JSON text frames
+ * are the default; native clients may negotiate CBOR on binary frames, which
+ * carries the same message set with less parsing and fewer bytes.
+ */
+public enum SignalingEncoding {
+
+	JSON("zyter-json"),
+
+	CBOR("zyter-cbor");
+
+	private final String subProtocol;
+
+	SignalingEncoding(String subProtocol) {
+		this.subProtocol = subProtocol;
+	}
+
+	/**
+	 * The web socket subprotocol selecting this encoding.
+	 */
+	public String getSubProtocol() {
+		return subProtocol;
+	}
+
+	/**
+	 * Matches a subprotocol, e.g. {@code zyter-cbor}.
+	 *
+	 * @return the encoding, or null when the value names none
+	 */
+	public static SignalingEncoding fromSubProtocol(String value) {
+		if (value == null) {
+			return null;
+		}
+		for (SignalingEncoding encoding : values()) {
+			if (encoding.subProtocol.equalsIgnoreCase(value.trim())) {
+				return encoding;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The encoding of the subprotocol accepted at handshake, JSON when none
+	 * was. The accepted subprotocol is what both ends agreed on, so nothing
+	 * else the client sent may choose the frames it gets. SockJS cannot carry
+	 * binary frames so its sessions always use JSON.
+	 */
+	public static SignalingEncoding of(WebSocketSession session) {
+		if (WebSocketSessionDecorator.unwrap(session) instanceof SockJsSession) {
+			return JSON;
+		}
+		SignalingEncoding encoding = fromSubProtocol(session.getAcceptedProtocol());
+		return encoding != null ? encoding : JSON;
+	}
+}
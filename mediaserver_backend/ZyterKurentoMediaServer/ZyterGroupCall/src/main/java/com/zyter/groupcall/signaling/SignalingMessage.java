@@ -0,0 +1,34 @@
+package com.zyter.groupcall.signaling;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Base class of every message exchanged with the clients. Incoming messages
+ * bind the fields they care about in {@link #readField(String, JsonParser)} and
+ * skip the rest; outgoing messages write themselves in
+ * {@link #writeFields(JsonGenerator)}. Neither direction builds a JSON tree.
+ */
+public abstract class SignalingMessage {
+
+	/**
+	 * The {@code id} property identifying the message type.
+	 */
+	public abstract String getId();
+
+	/**
+	 * Binds one property of an incoming message. The parser is positioned on
+	 * the value; implementations must consume it entirely.
+	 */
+	protected void readField(String field, JsonParser parser) throws IOException {
+		parser.skipChildren();
+	}
+
+	/**
+	 * Writes the properties of an outgoing message, other than {@code id}.
+	 */
+	protected void writeFields(JsonGenerator generator) throws IOException {
+	}
+}
@@ -0,0 +1,18 @@
+package com.zyter.groupcall.signaling;
+
+/**
+ * Message whose id this server does not handle; its properties are skipped.
+ */
+public class UnknownMessage extends SignalingMessage {
+
+	private final String id;
+
+	public UnknownMessage(String id) {
+		this.id = id;
+	}
+
+	@Override
+	public String getId() {
+		return id;
+	}
+}
@@ -0,0 +1,136 @@
+package com.zyter.groupcall;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kurento.client.KurentoClient;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.zyter.mediaserver.standin.StandInKurentoHandler;
+import com.zyter.mediaserver.standin.StandInProperties;
+
+/**
+ * Places rooms on several stand-in media servers, each answering the Kurento
+ * JSON-RPC protocol in-process, and checks where their pipelines end up.
+ */
+class KurentoServerPoolTest {
+
+	private final List<KurentoServer> started = new ArrayList<>();
+
+	private KurentoServerPool pool;
+
+	private RoomManager roomManager;
+
+	@BeforeEach
+	void setUp() {
+		pool = new KurentoServerPool();
+		roomManager = new RoomManager();
+		ReflectionTestUtils.setField(roomManager, "kurentoServers", pool);
+		ReflectionTestUtils.setField(roomManager, "settings", new GroupCallSettings());
+	}
+
+	@AfterEach
+	void tearDown() {
+		for (KurentoServer server : started) {
+			server.getPipelinePool().shutdown();
+			server.getClient().destroy();
+		}
+	}
+
+	@Test
+	void roomsGoToTheLeastLoadedServer() {
+		KurentoServer first = standIn("first", 100);
+		KurentoServer second = standIn("second", 100);
+		KurentoServer third = standIn("third", 100);
+
+		for (int i = 0; i < 6; i++) {
+			roomManager.getRoom("room-" + i);
+		}
+
+		for (KurentoServer server : new KurentoServer[] { first, second, third }) {
+			assertEquals(2, server.getPipelineCount(), server.getUri());
+			assertEquals(2, server.getClient().getServerManager().getPipelines().size(), server.getUri());
+		}
+	}
+
+	@Test
+	void biggerServersGetProportionallyMoreRooms() {
+		KurentoServer small = standIn("small", 100);
+		KurentoServer big = standIn("big", 200);
+
+		for (int i = 0; i < 6; i++) {
+			roomManager.getRoom("room-" + i);
+		}
+
+		assertEquals(2, small.getPipelineCount());
+		assertEquals(4, big.getPipelineCount());
+	}
+
+	@Test
+	void endpointsCountTowardsTheLoad() {
+		KurentoServer busy = standIn("busy", 100);
+		KurentoServer quiet = standIn("quiet", 100);
+		assertSame(busy, roomManager.getRoom("busy-room").getServer());
+		assertSame(quiet, roomManager.getRoom("quiet-room").getServer());
+
+		for (int i = 0; i < 5; i++) {
+			busy.endpointCreated();
+		}
+
+		assertSame(quiet, roomManager.getRoom("next-room").getServer());
+	}
+
+	@Test
+	void roomsPlacedByOtherNodesCountOnceReported() {
+		KurentoServer shared = standIn("shared", 100);
+		KurentoServer own = standIn("own", 100);
+		// Pipelines of another signaling node, which this pool did not place
+		shared.getClient().createMediaPipeline();
+		shared.getClient().createMediaPipeline();
+
+		ReflectionTestUtils.invokeMethod(pool, "refreshLoad");
+
+		assertSame(own, roomManager.getRoom("first-room").getServer());
+		assertSame(own, roomManager.getRoom("second-room").getServer());
+	}
+
+	@Test
+	void serversThatAreDownAreSkipped() {
+		KurentoServer down = standIn("down", 1000);
+		KurentoServer up = standIn("up", 100);
+		down.getClient().destroy();
+
+		for (int i = 0; i < 3; i++) {
+			Room room = roomManager.getRoom("room-" + i);
+			assertNotSame(down, room.getServer());
+		}
+		assertEquals(0, down.getPipelineCount());
+		assertEquals(3, up.getPipelineCount());
+
+		up.getClient().destroy();
+		assertThrows(IllegalStateException.class, () -> roomManager.getRoom("unplaced"));
+	}
+
+	/**
+	 * Adds a stand-in media server to the pool, with an empty pipeline pool so
+	 * that every room creates its pipeline on the server directly.
+	 */
+	@SuppressWarnings("unchecked")
+	private KurentoServer standIn(String uri, int capacity) {
+		KurentoClient client = StandInKurentoHandler.createLocalClient(StandInProperties.instant());
+		MediaPipelinePool pipelinePool = new MediaPipelinePool(uri, client, 0, 0, 60000, 60000);
+		pipelinePool.start();
+		KurentoServer server = new KurentoServer(uri, client, capacity, 4, pipelinePool);
+		((List<KurentoServer>) ReflectionTestUtils.getField(pool, "servers")).add(server);
+		started.add(server);
+		return server;
+	}
+}
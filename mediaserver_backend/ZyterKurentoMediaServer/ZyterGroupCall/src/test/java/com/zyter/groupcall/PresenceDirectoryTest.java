@@ -0,0 +1,128 @@
+package com.zyter.groupcall;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.WebSocketSession;
+
+class PresenceDirectoryTest {
+
+	private PresenceDirectory directory;
+
+	@BeforeEach
+	void setUp() {
+		directory = new PresenceDirectory();
+		ReflectionTestUtils.setField(directory, "maxEntries", 3);
+	}
+
+	@Test
+	void closedSessionsLeaveNothingBehind() {
+		WebSocketSession phone = session("phone");
+		WebSocketSession laptop = session("laptop");
+		WebSocketSession other = session("other");
+		directory.register(phone, "alice", "zyter", "token", "Alice");
+		directory.register(laptop, "alice", "zyter", "token", "Alice");
+		directory.register(other, "bob", "molzyter", "token", "Bob");
+		assertEquals(2, directory.getDevices("zyter", "alice").size());
+
+		directory.unregister(phone);
+		assertEquals(1, directory.getDevices("zyter", "alice").size());
+		directory.unregister(laptop);
+		directory.unregister(other);
+
+		assertEquals(0, directory.getEntryCount());
+		assertTrue(directory.getDevices("zyter", "alice").isEmpty());
+		assertNoUsers();
+	}
+
+	@Test
+	void registeringAgainReplacesTheSessionsEntry() {
+		WebSocketSession session = session("session");
+		directory.register(session, "alice", "zyter", "token", "Alice");
+		directory.register(session, "alice2", "zyter", "token", "Alice");
+
+		assertEquals(1, directory.getEntryCount());
+		assertTrue(directory.getDevices("zyter", "alice").isEmpty());
+		assertEquals(1, directory.getDevices("zyter", "alice2").size());
+
+		directory.unregister(session);
+		assertNoUsers();
+	}
+
+	@Test
+	void registrationsBeyondTheCapacityAreRejected() {
+		for (int i = 0; i < 3; i++) {
+			assertNotNull(directory.register(session("session-" + i), "user-" + i, "zyter", "token", "User"));
+		}
+
+		WebSocketSession extra = session("extra");
+		assertNull(directory.register(extra, "extra", "zyter", "token", "Extra"));
+		assertEquals(1, directory.getRejectedCount());
+		assertEquals(3, directory.getEntryCount());
+		assertNull(directory.get(extra));
+		assertTrue(directory.getDevices("zyter", "extra").isEmpty());
+
+		// A session already in the directory may still register again
+		assertNotNull(directory.register(session("session-0"), "user-0", "zyter", "token", "User"));
+		assertEquals(1, directory.getRejectedCount());
+	}
+
+	@Test
+	void staleEntriesAreSweptToMakeRoom() {
+		WebSocketSession stale = session("stale");
+		directory.register(stale, "gone", "zyter", "token", "Gone");
+		directory.register(session("live-1"), "live-1", "zyter", "token", "Live");
+		directory.register(session("live-2"), "live-2", "zyter", "token", "Live");
+
+		// Closed without afterConnectionClosed ever unregistering it
+		when(stale.isOpen()).thenReturn(false);
+		assertEquals(1, directory.getStaleCount());
+		assertEquals(2, directory.getLiveCount());
+
+		assertNotNull(directory.register(session("new"), "new", "zyter", "token", "New"));
+		assertEquals(0, directory.getRejectedCount());
+		assertEquals(3, directory.getEntryCount());
+		assertEquals(0, directory.getStaleCount());
+		assertNull(directory.get(stale));
+		assertTrue(directory.getDevices("zyter", "gone").isEmpty());
+	}
+
+	@Test
+	void sweepOnlyRemovesClosedSessions() {
+		WebSocketSession closed = session("closed");
+		WebSocketSession open = session("open");
+		directory.register(closed, "alice", "zyter", "token", "Alice");
+		directory.register(open, "alice", "zyter", "token", "Alice");
+		when(closed.isOpen()).thenReturn(false);
+
+		assertEquals(1, directory.sweep());
+		assertEquals(0, directory.sweep());
+		assertEquals(1, directory.getEntryCount());
+		assertEquals(1, directory.getDevices("zyter", "alice").size());
+		assertNotNull(directory.get(open));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void assertNoUsers() {
+		Map<String, Map<String, ?>> domains = (Map<String, Map<String, ?>>) ReflectionTestUtils.getField(directory, "domains");
+		for (Map.Entry<String, Map<String, ?>> domain : domains.entrySet()) {
+			assertTrue(domain.getValue().isEmpty(), () -> "users left in " + domain.getKey() + ": " + domain.getValue().keySet());
+		}
+	}
+
+	private static WebSocketSession session(String id) {
+		WebSocketSession session = mock(WebSocketSession.class);
+		when(session.getId()).thenReturn(id);
+		when(session.isOpen()).thenReturn(true);
+		return session;
+	}
+}
@@ -0,0 +1,156 @@
+package com.zyter.groupcall;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * Drives the timer wheel one tick at a time. The heartbeat is started with an
+ * interval long enough for its own scheduler never to tick before it is
+ * stopped, then given the short interval the tests wait on.
+ */
+class SessionHeartbeatTest {
+
+	private static final long INTERVAL = 50;
+
+	private static final int MISSED_INTERVALS = 2;
+
+	private static final int SLOTS = 4;
+
+	private SessionHeartbeat heartbeat;
+
+	private final CompletableFuture<List<WebSocketSession>> reaped = new CompletableFuture<>();
+
+	@BeforeEach
+	void setUp() {
+		heartbeat = new SessionHeartbeat();
+		ReflectionTestUtils.setField(heartbeat, "interval", TimeUnit.HOURS.toMillis(1));
+		ReflectionTestUtils.setField(heartbeat, "missedIntervals", MISSED_INTERVALS);
+		ReflectionTestUtils.setField(heartbeat, "wheelSlots", SLOTS);
+		ReflectionTestUtils.invokeMethod(heartbeat, "start");
+		ReflectionTestUtils.invokeMethod(heartbeat, "shutdown");
+		ReflectionTestUtils.setField(heartbeat, "interval", INTERVAL);
+		heartbeat.setReaper(reaped::complete);
+	}
+
+	@Test
+	void silentSessionsAreReapedOnceTheirSlotComesUpAfterTheMissedIntervals() throws Exception {
+		WebSocketSession silent = session("silent");
+		WebSocketSession chatty = session("chatty");
+		heartbeat.register(silent);
+		heartbeat.register(chatty);
+
+		turn();
+		verify(silent).sendMessage(any(PingMessage.class));
+		assertEquals(2, heartbeat.getSessionCount());
+
+		Thread.sleep(INTERVAL * MISSED_INTERVALS + INTERVAL);
+		heartbeat.touch(chatty);
+		// Both sit in the slot just before the cursor, the last of the turn
+		tick(SLOTS - 1);
+		assertEquals(2, heartbeat.getSessionCount());
+		tick(1);
+
+		assertEquals(1, heartbeat.getSessionCount());
+		assertEquals(Collections.singletonList(silent), reaped.get(5, TimeUnit.SECONDS));
+		verify(silent, timeout(5000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+		verify(chatty, never()).close(any());
+	}
+
+	@Test
+	void sessionsAreKeptWithinTheMissedIntervals() throws Exception {
+		WebSocketSession session = session("session");
+		heartbeat.register(session);
+
+		Thread.sleep(INTERVAL / 2);
+		turn();
+
+		assertEquals(1, heartbeat.getSessionCount());
+		verify(session).sendMessage(any(PingMessage.class));
+	}
+
+	@Test
+	void closedSessionsAreReapedAtTheirSlot() throws Exception {
+		WebSocketSession session = session("session");
+		heartbeat.register(session);
+		when(session.isOpen()).thenReturn(false);
+
+		turn();
+
+		assertEquals(0, heartbeat.getSessionCount());
+		assertEquals(Collections.singletonList(session), reaped.get(5, TimeUnit.SECONDS));
+		verify(session, never()).sendMessage(any());
+	}
+
+	@Test
+	void registeringAgainMovesTheSessionToANewSlot() throws Exception {
+		WebSocketSession session = session("session");
+		heartbeat.register(session);
+		// Registered at cursor 0, so in the last slot
+		tick(2);
+		heartbeat.register(session);
+		assertEquals(1, heartbeat.getSessionCount());
+
+		// Now in slot 1, one before the cursor: the old slot 3 no longer holds it
+		tick(2);
+		verify(session, never()).sendMessage(any());
+		tick(1);
+		verify(session, never()).sendMessage(any());
+		tick(1);
+		verify(session, times(1)).sendMessage(any(PingMessage.class));
+
+		clearInvocations(session);
+		turn();
+		verify(session, times(1)).sendMessage(any(PingMessage.class));
+	}
+
+	@Test
+	void unregisteredSessionsAreNeitherPingedNorReaped() throws Exception {
+		WebSocketSession session = session("session");
+		heartbeat.register(session);
+		heartbeat.unregister(session);
+		when(session.isOpen()).thenReturn(false);
+
+		turn();
+
+		assertEquals(0, heartbeat.getSessionCount());
+		verify(session, never()).sendMessage(any());
+		assertFalse(reaped.isDone());
+	}
+
+	private void turn() {
+		tick(SLOTS);
+	}
+
+	private void tick(int ticks) {
+		for (int i = 0; i < ticks; i++) {
+			ReflectionTestUtils.invokeMethod(heartbeat, "tick");
+		}
+	}
+
+	private static WebSocketSession session(String id) {
+		WebSocketSession session = mock(WebSocketSession.class);
+		when(session.getId()).thenReturn(id);
+		when(session.isOpen()).thenReturn(true);
+		return session;
+	}
+}
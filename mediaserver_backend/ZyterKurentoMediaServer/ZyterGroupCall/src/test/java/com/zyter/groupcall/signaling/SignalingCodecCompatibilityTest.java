@@ -0,0 +1,154 @@
+package com.zyter.groupcall.signaling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.kurento.client.IceCandidate;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Checks that the streaming codec reads and writes the messages the way the
+ * Gson tree code it replaced did, so that existing clients see no difference.
+ * The expected messages are built as the Gson code built them, and compared
+ * as JSON trees since property order is not significant.
+ */
+class SignalingCodecCompatibilityTest {
+
+	private static final String CANDIDATE = "candidate:1 1 UDP 2122252543 192.168.1.10 54321 typ host";
+
+	@Test
+	void pongEchoesEveryPropertyOfThePing() throws IOException {
+		String ping = "{\"from\":\"alice\",\"id\":\"ping\",\"seq\":42,\"ratio\":1.50,\"big\":12345678901234567890,\"ok\":true,"
+				+ "\"none\":null,\"device\":{\"os\":\"android\",\"versions\":[1,2.0,\"3\"]},\"tags\":[{\"a\":1},[],null]}";
+
+		assertSameJson(gsonPong(ping), SignalingCodec.encode(((PingMessage) SignalingCodec.decode(ping)).toPong()));
+	}
+
+	@Test
+	void pongEchoesACborPingLikeAJsonOne() throws IOException {
+		String ping = "{\"id\":\"ping\",\"from\":\"bob\",\"seq\":7,\"ratio\":0.25,\"device\":{\"os\":\"ios\",\"versions\":[17,4]}}";
+
+		PingMessage decoded = (PingMessage) SignalingCodec.decode(ByteBuffer.wrap(toCbor(ping)));
+
+		assertEquals("bob", decoded.getFrom());
+		assertSameJson(gsonPong(ping), SignalingCodec.encode(decoded.toPong()));
+	}
+
+	@Test
+	void outgoingMessagesMatchGson() throws IOException {
+		JsonObject arrived = new JsonObject();
+		arrived.addProperty("id", "newParticipantArrived");
+		arrived.addProperty("name", "alice");
+		assertSameJson(arrived.toString(), SignalingCodec.encode(new NewParticipantArrivedMessage("alice")));
+
+		JsonObject left = new JsonObject();
+		left.addProperty("id", "participantLeft");
+		left.addProperty("name", "alice");
+		assertSameJson(left.toString(), SignalingCodec.encode(new ParticipantLeftMessage("alice")));
+
+		JsonArray names = new JsonArray();
+		names.add("alice");
+		names.add("bob");
+		JsonObject existing = new JsonObject();
+		existing.addProperty("id", "existingParticipants");
+		existing.add("data", names);
+		assertSameJson(existing.toString(), SignalingCodec.encode(new ExistingParticipantsMessage(Arrays.asList("alice", "bob"))));
+
+		JsonObject answer = new JsonObject();
+		answer.addProperty("id", "receiveVideoAnswer");
+		answer.addProperty("name", "bob");
+		answer.addProperty("sdpAnswer", "v=0\r\no=- 0 0 IN IP4 127.0.0.1\r\n");
+		assertSameJson(answer.toString(), SignalingCodec.encode(new ReceiveVideoAnswerMessage("bob", "v=0\r\no=- 0 0 IN IP4 127.0.0.1\r\n")));
+
+		// As JsonUtils.toJsonObject serialized Kurento's IceCandidate
+		JsonObject candidateJson = new JsonObject();
+		candidateJson.addProperty("candidate", CANDIDATE);
+		candidateJson.addProperty("sdpMid", "0");
+		candidateJson.addProperty("sdpMLineIndex", 0);
+		JsonObject iceCandidate = new JsonObject();
+		iceCandidate.addProperty("id", "iceCandidate");
+		iceCandidate.addProperty("name", "bob");
+		iceCandidate.add("candidate", candidateJson);
+		assertSameJson(iceCandidate.toString(), SignalingCodec.encode(new IceCandidateMessage("bob", new IceCandidate(CANDIDATE, "0", 0))));
+
+		JsonObject rejected = new JsonObject();
+		rejected.addProperty("id", "joinRoomResponse");
+		rejected.addProperty("response", "rejected");
+		rejected.addProperty("message", (String) null);
+		assertSameJson(rejected.toString(), SignalingCodec.encode(new ResponseMessage("joinRoomResponse", "rejected", null)));
+	}
+
+	@Test
+	void incomingMessagesReadAsGsonDid() throws IOException {
+		String offer = "{\"sdpOffer\":\"v=0\\r\\n\",\"id\":\"receiveVideoFrom\",\"sender\":\"alice\",\"extra\":{\"ignored\":[1]}}";
+		ReceiveVideoFromMessage receive = (ReceiveVideoFromMessage) SignalingCodec.decode(offer);
+		JsonObject gson = new Gson().fromJson(offer, JsonObject.class);
+		assertEquals(gson.get("sender").getAsString(), receive.getSender());
+		assertEquals(gson.get("sdpOffer").getAsString(), receive.getSdpOffer());
+
+		String onIceCandidate = "{\"id\":\"onIceCandidate\",\"name\":\"alice\",\"candidate\":{\"candidate\":\"" + CANDIDATE
+				+ "\",\"sdpMid\":\"video\",\"sdpMLineIndex\":1}}";
+		OnIceCandidateMessage ice = (OnIceCandidateMessage) SignalingCodec.decode(onIceCandidate);
+		JsonObject candidate = new Gson().fromJson(onIceCandidate, JsonObject.class).get("candidate").getAsJsonObject();
+		assertEquals("alice", ice.getName());
+		assertEquals(candidate.get("candidate").getAsString(), ice.getCandidate().getCandidate());
+		assertEquals(candidate.get("sdpMid").getAsString(), ice.getCandidate().getSdpMid());
+		assertEquals(candidate.get("sdpMLineIndex").getAsInt(), ice.getCandidate().getSdpMLineIndex());
+	}
+
+	@Test
+	void candidateBatchSkipsMalformedEntries() throws IOException {
+		String batch = "{\"id\":\"onIceCandidates\",\"candidates\":["
+				+ "{\"name\":\"alice\",\"candidate\":{\"candidate\":\"" + CANDIDATE + "\",\"sdpMid\":\"0\",\"sdpMLineIndex\":0}},"
+				+ "42,\"garbage\",[{\"name\":\"nested\"}],null,"
+				+ "{\"name\":\"bob\",\"candidate\":{\"candidate\":\"" + CANDIDATE + "\",\"sdpMid\":\"1\",\"sdpMLineIndex\":1}}"
+				+ "],\"after\":true}";
+
+		List<CandidateEntry> candidates = ((OnIceCandidatesMessage) SignalingCodec.decode(batch)).getCandidates();
+
+		assertEquals(2, candidates.size());
+		assertEquals("alice", candidates.get(0).getName());
+		assertEquals("bob", candidates.get(1).getName());
+		assertEquals(1, candidates.get(1).getCandidate().getSdpMLineIndex());
+	}
+
+	/**
+	 * What the Gson code answered to a ping: the same object with its id
+	 * replaced.
+	 */
+	private static String gsonPong(String ping) {
+		JsonObject message = new Gson().fromJson(ping, JsonObject.class);
+		message.addProperty("id", "pong");
+		return message.toString();
+	}
+
+	private static void assertSameJson(String expected, String actual) {
+		JsonElement expectedTree = new Gson().fromJson(expected, JsonElement.class);
+		JsonElement actualTree = new Gson().fromJson(actual, JsonElement.class);
+		assertTrue(expectedTree.equals(actualTree), () -> "expected " + expected + " but was " + actual);
+	}
+
+	private static byte[] toCbor(String json) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonParser parser = new JsonFactory().createParser(json); JsonGenerator generator = new CBORFactory().createGenerator(out)) {
+			parser.nextToken();
+			generator.copyCurrentStructure(parser);
+		}
+		return out.toByteArray();
+	}
+}
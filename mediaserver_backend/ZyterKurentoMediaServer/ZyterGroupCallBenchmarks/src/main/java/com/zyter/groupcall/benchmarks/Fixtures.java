@@ -0,0 +1,259 @@
+package com.zyter.groupcall.benchmarks;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.kurento.client.KurentoClient;
+import org.springframework.beans.factory.annotation.Value;
+
+import com.zyter.groupcall.BandwidthPolicy;
+import com.zyter.groupcall.CallHandler;
+import com.zyter.groupcall.CallInvitations;
+import com.zyter.groupcall.GroupCallSettings;
+import com.zyter.groupcall.KurentoServer;
+import com.zyter.groupcall.KurentoServerPool;
+import com.zyter.groupcall.MediaPipelinePool;
+import com.zyter.groupcall.OutboundMessageWriter;
+import com.zyter.groupcall.PresenceDirectory;
+import com.zyter.groupcall.Room;
+import com.zyter.groupcall.RoomManager;
+import com.zyter.groupcall.SessionHeartbeat;
+import com.zyter.groupcall.SignalingDispatcher;
+import com.zyter.groupcall.StatsCollector;
+import com.zyter.groupcall.UserRegistry;
+import com.zyter.mediaserver.standin.StandInKurentoHandler;
+import com.zyter.mediaserver.standin.StandInProperties;
+
+/**
+ * Wires the group call beans the way Spring would, with every {@code @Value}
+ * at its default and an in-process {@link StandInKurentoHandler} in place of
+ * the media server.
+ */
+public final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	public static KurentoServer fakeServer() {
+		KurentoClient client = StandInKurentoHandler.createLocalClient(StandInProperties.instant());
+		// Empty pool: every room creates its pipeline on the fake server directly
+		MediaPipelinePool pipelinePool = new MediaPipelinePool("fake", client, 0, 0, 60000, 60000);
+		pipelinePool.start();
+		return new KurentoServer("fake", client, 100, 4, pipelinePool);
+	}
+
+	public static GroupCallSettings settings() {
+		return withDefaults(new GroupCallSettings());
+	}
+
+	public static StatsCollector statsCollector() {
+		return started(withDefaults(new StatsCollector()));
+	}
+
+	public static BandwidthPolicy bandwidthPolicy(StatsCollector statsCollector) {
+		BandwidthPolicy bandwidthPolicy = withDefaults(new BandwidthPolicy());
+		set(bandwidthPolicy, "presenceDirectory", withDefaults(new PresenceDirectory()));
+		set(bandwidthPolicy, "statsCollector", statsCollector);
+		return started(bandwidthPolicy);
+	}
+
+	public static OutboundMessageWriter outboundWriter() {
+		return started(withDefaults(new OutboundMessageWriter()));
+	}
+
+	public static Room room(String name, KurentoServer server, GroupCallSettings settings) {
+		StatsCollector statsCollector = statsCollector();
+		return new Room(name, server.acquirePipeline(), server, settings, bandwidthPolicy(statsCollector), statsCollector, new DirectExecutorService());
+	}
+
+	@SuppressWarnings("unchecked")
+	public static RoomManager roomManager(KurentoServer server, GroupCallSettings settings) {
+		KurentoServerPool servers = withDefaults(new KurentoServerPool());
+		((List<KurentoServer>) get(servers, "servers")).add(server);
+
+		RoomManager roomManager = new RoomManager();
+		set(roomManager, "kurentoServers", servers);
+		set(roomManager, "settings", settings);
+		StatsCollector statsCollector = statsCollector();
+		set(roomManager, "bandwidthPolicy", bandwidthPolicy(statsCollector));
+		set(roomManager, "statsCollector", statsCollector);
+		// Room commands run on the calling thread, as the handlers do
+		set(roomManager, "scheduler", new DirectExecutorService());
+		return roomManager;
+	}
+
+	/**
+	 * A dispatcher that handles every message on the calling thread, so that
+	 * a benchmark measures the handling itself rather than a hand-off.
+	 */
+	public static SignalingDispatcher directDispatcher() {
+		SignalingDispatcher dispatcher = withDefaults(new SignalingDispatcher());
+		set(dispatcher, "executor", new DirectExecutorService());
+		return dispatcher;
+	}
+
+	public static CallHandler callHandler(RoomManager roomManager, UserRegistry userRegistry, OutboundMessageWriter outboundWriter) {
+		CallHandler handler = new CallHandler();
+		set(handler, "roomManager", roomManager);
+		set(handler, "userRegistry", userRegistry);
+		set(handler, "outboundWriter", outboundWriter);
+		set(handler, "signalingDispatcher", directDispatcher());
+		PresenceDirectory presenceDirectory = withDefaults(new PresenceDirectory());
+		CallInvitations callInvitations = withDefaults(new CallInvitations());
+		set(callInvitations, "presenceDirectory", presenceDirectory);
+		set(handler, "presenceDirectory", presenceDirectory);
+		set(handler, "callInvitations", callInvitations);
+		set(handler, "sessionHeartbeat", started(withDefaults(new SessionHeartbeat())));
+		return handler;
+	}
+
+	/**
+	 * Assigns every {@code @Value("${key:default}")} field its default.
+	 */
+	public static <T> T withDefaults(T bean) {
+		for (Class<?> type = bean.getClass(); type != Object.class; type = type.getSuperclass()) {
+			for (Field field : type.getDeclaredFields()) {
+				Value value = field.getAnnotation(Value.class);
+				if (value == null) {
+					continue;
+				}
+				String expression = value.value();
+				int separator = expression.indexOf(':');
+				if (!expression.startsWith("${") || separator < 0) {
+					continue;
+				}
+				String text = expression.substring(separator + 1, expression.length() - 1);
+				set(bean, field, convert(text, field.getType()));
+			}
+		}
+		return bean;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object convert(String text, Class<?> type) {
+		if (type == int.class || type == Integer.class) {
+			return Integer.valueOf(text);
+		}
+		if (type == long.class || type == Long.class) {
+			return Long.valueOf(text);
+		}
+		if (type == double.class || type == Double.class) {
+			return Double.valueOf(text);
+		}
+		if (type == boolean.class || type == Boolean.class) {
+			return Boolean.valueOf(text);
+		}
+		if (type == String[].class) {
+			return text.isEmpty() ? new String[0] : text.split(",");
+		}
+		if (type.isEnum()) {
+			return Enum.valueOf((Class<? extends Enum>) type, text);
+		}
+		return text;
+	}
+
+	/**
+	 * Runs the {@code @PostConstruct} methods of a bean, as Spring would once it
+	 * is wired.
+	 */
+	public static <T> T started(T bean) {
+		for (Class<?> type = bean.getClass(); type != Object.class; type = type.getSuperclass()) {
+			for (Method method : type.getDeclaredMethods()) {
+				if (method.isAnnotationPresent(PostConstruct.class)) {
+					try {
+						method.setAccessible(true);
+						method.invoke(bean);
+					} catch (ReflectiveOperationException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			}
+		}
+		return bean;
+	}
+
+	public static Object get(Object target, String name) {
+		try {
+			Field field = field(target.getClass(), name);
+			return field.get(target);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static Object getStatic(Class<?> type, String name) {
+		try {
+			return field(type, name).get(null);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static void set(Object target, String name, Object value) {
+		set(target, field(target.getClass(), name), value);
+	}
+
+	private static void set(Object target, Field field, Object value) {
+		try {
+			field.setAccessible(true);
+			field.set(target, value);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static Field field(Class<?> type, String name) {
+		for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+			try {
+				Field field = current.getDeclaredField(name);
+				field.setAccessible(true);
+				return field;
+			} catch (NoSuchFieldException e) {
+				// keep looking in the superclass
+			}
+		}
+		throw new IllegalArgumentException("No field " + name + " in " + type.getName());
+	}
+
+	private static final class DirectExecutorService extends AbstractExecutorService {
+
+		private volatile boolean shutdown;
+
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+
+		@Override
+		public void shutdown() {
+			shutdown = true;
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			shutdown = true;
+			return Collections.emptyList();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return shutdown;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return shutdown;
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) {
+			return true;
+		}
+	}
+}
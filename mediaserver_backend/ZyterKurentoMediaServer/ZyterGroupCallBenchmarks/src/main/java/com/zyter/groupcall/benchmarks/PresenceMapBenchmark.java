@@ -0,0 +1,67 @@
+package com.zyter.groupcall.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zyter.groupcall.PresenceDirectory;
+
+/**
+ * The {@link PresenceDirectory} under several threads while users reconnect:
+ * a device connecting and disconnecting, and a callee's devices being looked
+ * up. Every user starts with a second device connected, so a reconnect adds
+ * to and removes from a non-empty set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PresenceMapBenchmark {
+
+	@Param({ "100", "10000" })
+	private int users;
+
+	private PresenceDirectory directory;
+
+	private StubWebSocketSession[] sessions;
+
+	@Setup
+	public void setUp() {
+		directory = Fixtures.withDefaults(new PresenceDirectory());
+
+		sessions = new StubWebSocketSession[users];
+		for (int i = 0; i < users; i++) {
+			sessions[i] = new StubWebSocketSession("session-" + i);
+			directory.register(new StubWebSocketSession("other-" + i), "user-" + i, "bench", "token", "Bench User");
+		}
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void reconnect() {
+		int user = ThreadLocalRandom.current().nextInt(users);
+		directory.register(sessions[user], "user-" + user, "bench", "token", "Bench User");
+		directory.unregister(sessions[user]);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public int lookup() {
+		int user = ThreadLocalRandom.current().nextInt(users);
+		return directory.getDevices("bench", "user-" + user).size();
+	}
+}
@@ -0,0 +1,76 @@
+package com.zyter.groupcall.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zyter.groupcall.GroupCallSettings;
+import com.zyter.groupcall.KurentoServer;
+import com.zyter.groupcall.Room;
+import com.zyter.groupcall.UserSession;
+
+/**
+ * Notification fan-out of a room as it grows: announcing a participant to
+ * everybody else, and a participant leaving and joining again, which notifies
+ * everybody twice and releases and recreates its endpoints.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoomFanOutBenchmark {
+
+	@Param({ "2", "10", "50", "200" })
+	private int participants;
+
+	private Room room;
+
+	private UserSession newcomer;
+
+	private StubWebSocketSession newcomerSession;
+
+	@Setup
+	public void setUp() throws Exception {
+		KurentoServer server = Fixtures.fakeServer();
+		GroupCallSettings settings = Fixtures.settings();
+		room = Fixtures.room("bench-room", server, settings);
+		for (int i = 0; i < participants - 1; i++) {
+			room.join("user-" + i, new StubWebSocketSession("session-" + i));
+		}
+		newcomerSession = new StubWebSocketSession("session-newcomer");
+		newcomer = room.join("newcomer", newcomerSession);
+	}
+
+	@TearDown
+	public void tearDown() {
+		room.close();
+	}
+
+	@Benchmark
+	public void sendNewParticipantName() throws Exception {
+		room.sendNewParticipantName(newcomer);
+	}
+
+	/**
+	 * {@code Room.removeParticipant} is only reachable through {@code leave};
+	 * the participant joins again so the room keeps its size.
+	 */
+	@Benchmark
+	public void removeParticipantAndRejoin() throws Exception {
+		room.leave(newcomer);
+		newcomer = room.join("newcomer", newcomerSession);
+	}
+}
@@ -0,0 +1,86 @@
+package com.zyter.groupcall.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.socket.TextMessage;
+
+import com.zyter.groupcall.CallHandler;
+import com.zyter.groupcall.GroupCallSettings;
+import com.zyter.groupcall.KurentoServer;
+import com.zyter.groupcall.UserRegistry;
+
+/**
+ * Cost of {@link CallHandler#handleTextMessage} for one message of each type,
+ * from the text frame to the reply being queued: decoding, dispatch and the
+ * handler itself, with the media server calls answered in memory. The
+ * per-session dispatcher runs the handler on the benchmark thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignalingDispatchBenchmark {
+
+	private static final String CANDIDATE = "{\"candidate\":\"candidate:1 1 UDP 2013266431 10.0.0.2 50000 typ host\",\"sdpMid\":\"video0\",\"sdpMLineIndex\":1}";
+
+	@Param({ "ping", "onIceCandidate", "onIceCandidates", "changeMediaType", "initialData", "unknown" })
+	private String messageType;
+
+	private CallHandler handler;
+
+	private StubWebSocketSession session;
+
+	private TextMessage message;
+
+	@Setup
+	public void setUp() throws Exception {
+		KurentoServer server = Fixtures.fakeServer();
+		GroupCallSettings settings = Fixtures.settings();
+		handler = Fixtures.callHandler(Fixtures.roomManager(server, settings), new UserRegistry(), Fixtures.outboundWriter());
+
+		session = new StubWebSocketSession("bench-session");
+		handler.afterConnectionEstablished(session);
+		handler.handleTextMessage(session, new TextMessage("{\"id\":\"joinRoom\",\"room\":\"bench-room\",\"name\":\"bench-user\"}"));
+
+		message = new TextMessage(payload(messageType));
+	}
+
+	static String payload(String messageType) {
+		switch (messageType) {
+			case "ping":
+				return "{\"id\":\"ping\",\"from\":\"bench-user\",\"timestamp\":1589290000000}";
+			case "onIceCandidate":
+				return "{\"id\":\"onIceCandidate\",\"name\":\"bench-user\",\"candidate\":" + CANDIDATE + "}";
+			case "onIceCandidates":
+				StringBuilder batch = new StringBuilder("{\"id\":\"onIceCandidates\",\"candidates\":[");
+				for (int i = 0; i < 8; i++) {
+					batch.append(i > 0 ? "," : "").append("{\"name\":\"bench-user\",\"candidate\":").append(CANDIDATE).append('}');
+				}
+				return batch.append("]}").toString();
+			case "changeMediaType":
+				return "{\"id\":\"changeMediaType\",\"name\":\"bench-user\",\"type\":\"AUDIO\"}";
+			case "initialData":
+				return "{\"id\":\"initialData\",\"userid\":\"bench-user\",\"domain\":\"bench\",\"auth_token\":\"token\",\"display_name\":\"Bench\"}";
+			default:
+				return "{\"id\":\"" + messageType + "\",\"payload\":{\"nested\":[1,2,3]}}";
+		}
+	}
+
+	@Benchmark
+	public void dispatch() throws Exception {
+		handler.handleTextMessage(session, message);
+	}
+}
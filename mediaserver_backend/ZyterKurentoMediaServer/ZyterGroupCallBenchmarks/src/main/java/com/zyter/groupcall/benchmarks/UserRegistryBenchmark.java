@@ -0,0 +1,97 @@
+package com.zyter.groupcall.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zyter.groupcall.KurentoServer;
+import com.zyter.groupcall.Room;
+import com.zyter.groupcall.UserRegistry;
+import com.zyter.groupcall.UserSession;
+
+/**
+ * {@link UserRegistry} lookups by name and by session from many threads, with
+ * and without participants registering and leaving at the same time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserRegistryBenchmark {
+
+	@Param({ "100", "5000" })
+	private int users;
+
+	private UserRegistry registry;
+
+	private UserSession[] sessions;
+
+	private Room room;
+
+	@Setup
+	public void setUp() throws Exception {
+		KurentoServer server = Fixtures.fakeServer();
+		room = Fixtures.room("bench-room", server, Fixtures.settings());
+		registry = new UserRegistry();
+		sessions = new UserSession[users];
+		for (int i = 0; i < users; i++) {
+			// Not joined to the room: only the registry is under test
+			sessions[i] = new UserSession("user-" + i, room, new StubWebSocketSession("session-" + i));
+			registry.register(sessions[i]);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		room.close();
+	}
+
+	private UserSession pick() {
+		return sessions[ThreadLocalRandom.current().nextInt(sessions.length)];
+	}
+
+	@Benchmark
+	@Threads(8)
+	public UserSession getByName() {
+		return registry.getByName(pick().getName());
+	}
+
+	@Benchmark
+	@Threads(8)
+	public UserSession getBySession() {
+		return registry.getBySession(pick().getSession());
+	}
+
+	@Benchmark
+	@Group("churn")
+	@GroupThreads(6)
+	public UserSession churnLookup() {
+		return registry.getByName(pick().getName());
+	}
+
+	@Benchmark
+	@Group("churn")
+	@GroupThreads(2)
+	public void churnReRegister() {
+		UserSession user = pick();
+		registry.removeBySession(user.getSession());
+		registry.register(user);
+	}
+}
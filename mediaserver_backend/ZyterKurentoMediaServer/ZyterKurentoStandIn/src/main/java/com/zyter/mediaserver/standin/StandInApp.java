@@ -0,0 +1,39 @@
+package com.zyter.mediaserver.standin;
+
+import org.kurento.jsonrpc.internal.server.config.JsonRpcConfiguration;
+import org.kurento.jsonrpc.server.JsonRpcConfigurer;
+import org.kurento.jsonrpc.server.JsonRpcHandlerRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+
+/**
+ * Kurento stand-in: serves the media server's JSON-RPC protocol on
+ * {@code ws://localhost:8888/kurento} so the signaling applications can be
+ * run and load tested without a real KMS.
+ */
+@SpringBootApplication
+@Import(JsonRpcConfiguration.class)
+@EnableConfigurationProperties(StandInProperties.class)
+public class StandInApp implements JsonRpcConfigurer {
+
+	@Autowired
+	private StandInProperties properties;
+
+	@Bean(destroyMethod = "shutdown")
+	public StandInKurentoHandler standInKurentoHandler() {
+		return new StandInKurentoHandler(properties);
+	}
+
+	@Override
+	public void registerJsonRpcHandlers(JsonRpcHandlerRegistry registry) {
+		registry.addHandler(standInKurentoHandler(), "/kurento");
+	}
+
+	public static void main(String[] args) throws Exception {
+		SpringApplication.run(StandInApp.class, args);
+	}
+}
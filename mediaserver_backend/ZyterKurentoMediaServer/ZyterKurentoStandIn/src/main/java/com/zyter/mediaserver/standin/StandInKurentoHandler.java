@@ -0,0 +1,431 @@
+package com.zyter.mediaserver.standin;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kurento.client.KurentoClient;
+import org.kurento.jsonrpc.DefaultJsonRpcHandler;
+import org.kurento.jsonrpc.Session;
+import org.kurento.jsonrpc.Transaction;
+import org.kurento.jsonrpc.client.JsonRpcClientLocal;
+import org.kurento.jsonrpc.message.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Answers the Kurento JSON-RPC protocol the way a media server would, without
+ * handling any media: objects are created, connected and released in memory,
+ * offers get a matching answer and gathering raises
+ * {@code IceCandidateFound} and {@code IceGatheringDone} events to the
+ * subscribed sessions.
+ *
+ * Every response is delayed by the configured latency and jitter, grows slower
+ * as endpoints approach the capacity limits, and may be replaced by an error
+ * at the configured failure rate.
+ */
+public class StandInKurentoHandler extends DefaultJsonRpcHandler<JsonObject> {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(StandInKurentoHandler.class);
+
+	private static final String SERVER_MANAGER = "manager_ServerManager";
+
+	private static final int UNEXPECTED_ERROR = 40000;
+
+	private static final int NOT_ENOUGH_RESOURCES = 40001;
+
+	private static final int MEDIA_OBJECT_NOT_FOUND = 40101;
+
+	private final String sessionId = UUID.randomUUID().toString();
+
+	private final StandInProperties properties;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final ConcurrentMap<String, StandInObject> objects = new ConcurrentHashMap<>();
+
+	private final AtomicInteger pipelines = new AtomicInteger();
+
+	private final AtomicInteger endpoints = new AtomicInteger();
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong injectedFailures = new AtomicLong();
+
+	private final AtomicLong rejectedCreations = new AtomicLong();
+
+	public StandInKurentoHandler(StandInProperties properties) {
+		this.properties = properties;
+		this.scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+			Thread thread = new Thread(r, "standin");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * A client served in-process by a new stand-in, without any network.
+	 */
+	public static KurentoClient createLocalClient(StandInProperties properties) {
+		return KurentoClient.createFromJsonRpcClient(new JsonRpcClientLocal(new StandInKurentoHandler(properties)));
+	}
+
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	@Override
+	public void afterConnectionEstablished(Session session) throws Exception {
+		LOGGER.info("Client connected: {}", session.getSessionId());
+	}
+
+	@Override
+	public void afterConnectionClosed(Session session, String status) throws Exception {
+		LOGGER.info("Client disconnected: {} ({}), {} pipelines and {} endpoints alive", session.getSessionId(), status,
+				pipelines.get(), endpoints.get());
+	}
+
+	@Override
+	public void handleRequest(Transaction transaction, Request<JsonObject> request) throws Exception {
+		requests.incrementAndGet();
+		JsonObject params = request.getParams() != null ? request.getParams() : new JsonObject();
+		String operation = "invoke".equals(request.getMethod()) && params.has("operation")
+				? params.get("operation").getAsString()
+				: request.getMethod();
+
+		long delay = delayFor(operation);
+		if (delay <= 0) {
+			respond(transaction, request.getMethod(), operation, params);
+			return;
+		}
+
+		transaction.startAsync();
+		scheduler.schedule(() -> {
+			try {
+				respond(transaction, request.getMethod(), operation, params);
+			} catch (IOException e) {
+				LOGGER.warn("Could not answer {}: {}", operation, e.getMessage());
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void respond(Transaction transaction, String method, String operation, JsonObject params) throws IOException {
+		double failureRate = properties.failureRateFor(operation);
+		if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+			injectedFailures.incrementAndGet();
+			transaction.sendError(UNEXPECTED_ERROR, "UNEXPECTED_ERROR", "Injected failure on " + operation, null);
+			return;
+		}
+
+		try {
+			switch (method) {
+				case "create":
+					transaction.sendResponse(value(create(params)));
+					break;
+				case "invoke":
+					transaction.sendResponse(invoke(operation, params));
+					break;
+				case "subscribe":
+					transaction.sendResponse(value(subscribe(transaction.getSession(), params)));
+					break;
+				case "unsubscribe":
+					find(params.get("object").getAsString()).unsubscribe(params.get("subscription").getAsString());
+					transaction.sendResponse(value(null));
+					break;
+				case "release":
+					release(find(params.get("object").getAsString()));
+					transaction.sendResponse(value(null));
+					break;
+				case "describe":
+					transaction.sendResponse(describe(find(params.get("object").getAsString())));
+					break;
+				case "ping":
+					transaction.sendResponse(value("pong"));
+					break;
+				default:
+					// connect and anything else only need the session id back
+					transaction.sendResponse(value(null));
+					break;
+			}
+		} catch (StandInException e) {
+			transaction.sendError(e.code, e.type, e.getMessage(), null);
+		}
+	}
+
+	private String create(JsonObject params) throws StandInException {
+		String type = params.get("type").getAsString();
+		JsonObject constructorParams = params.getAsJsonObject("constructorParams");
+
+		if ("MediaPipeline".equals(type)) {
+			reserve(pipelines, properties.getMaxPipelines(), type);
+			StandInObject pipeline = new StandInObject(UUID.randomUUID() + "_kurento.MediaPipeline", type, null);
+			objects.put(pipeline.getId(), pipeline);
+			return pipeline.getId();
+		}
+
+		if (constructorParams == null || !constructorParams.has("mediaPipeline")) {
+			throw new StandInException(UNEXPECTED_ERROR, "CONSTRUCTOR_PARAMS", type + " needs a mediaPipeline");
+		}
+		StandInObject pipeline = find(constructorParams.get("mediaPipeline").getAsString());
+		StandInObject element = new StandInObject(pipeline.getId() + "/" + UUID.randomUUID() + "_kurento." + type, type,
+				pipeline);
+		if (element.isEndpoint()) {
+			reserve(endpoints, properties.getMaxEndpoints(), type);
+		}
+		objects.put(element.getId(), element);
+		pipeline.getChildren().add(element);
+		return element.getId();
+	}
+
+	private void reserve(AtomicInteger counter, int max, String type) throws StandInException {
+		if (counter.incrementAndGet() > max) {
+			counter.decrementAndGet();
+			rejectedCreations.incrementAndGet();
+			throw new StandInException(NOT_ENOUGH_RESOURCES, "NOT_ENOUGH_RESOURCES",
+					"Capacity exhausted, cannot create " + type);
+		}
+	}
+
+	private JsonObject invoke(String operation, JsonObject params) throws StandInException {
+		String id = params.get("object").getAsString();
+		JsonObject operationParams = params.getAsJsonObject("operationParams");
+
+		if (SERVER_MANAGER.equals(id)) {
+			if ("getPipelines".equals(operation)) {
+				JsonArray ids = new JsonArray();
+				for (StandInObject object : objects.values()) {
+					if (object.isPipeline()) {
+						ids.add(object.getId());
+					}
+				}
+				return value(ids);
+			}
+			return value(null);
+		}
+
+		StandInObject object = find(id);
+		switch (operation) {
+			case "processOffer":
+				String offer = operationParams.get("offer").getAsString();
+				object.setFirstMid(firstMid(offer));
+				return value(StandInSdp.answer(offer));
+			case "generateOffer":
+				return value(StandInSdp.offer());
+			case "processAnswer":
+				return value(operationParams.get("answer").getAsString());
+			case "gatherCandidates":
+				scheduleCandidates(object);
+				return value(null);
+			case "connect":
+				find(operationParams.get("sink").getAsString());
+				return value(null);
+			case "getChildren":
+				JsonArray children = new JsonArray();
+				for (StandInObject child : object.getChildren()) {
+					children.add(child.getId());
+				}
+				return value(children);
+			case "getMediaPipeline":
+			case "getParent":
+				return value(object.isPipeline() ? null : object.getPipeline().getId());
+			default:
+				// addIceCandidate, disconnect and the bandwidth setters change nothing here
+				return value(null);
+		}
+	}
+
+	private String subscribe(Session session, JsonObject params) throws StandInException {
+		StandInObject object = find(params.get("object").getAsString());
+		String subscription = UUID.randomUUID().toString();
+		object.subscribe(subscription, params.get("type").getAsString(), session);
+		return subscription;
+	}
+
+	private void release(StandInObject object) {
+		if (objects.remove(object.getId()) == null) {
+			return;
+		}
+		if (object.isPipeline()) {
+			pipelines.decrementAndGet();
+			for (StandInObject child : object.getChildren()) {
+				release(child);
+			}
+		} else {
+			object.getPipeline().getChildren().remove(object);
+			if (object.isEndpoint()) {
+				endpoints.decrementAndGet();
+			}
+		}
+	}
+
+	private JsonObject describe(StandInObject object) {
+		JsonObject result = new JsonObject();
+		result.addProperty("type", object.getType());
+		result.addProperty("qualifiedType", "kurento." + object.getType());
+		JsonArray hierarchy = new JsonArray();
+		hierarchy.add("kurento.MediaObject");
+		result.add("hierarchy", hierarchy);
+		result.addProperty("sessionId", sessionId);
+		return result;
+	}
+
+	/**
+	 * Raises the configured number of candidates, one interval apart, followed
+	 * by the end of the gathering.
+	 */
+	private void scheduleCandidates(StandInObject object) {
+		int count = properties.getCandidatesPerGather();
+		long interval = properties.getCandidateInterval();
+		for (int i = 0; i < count; i++) {
+			int index = i;
+			scheduler.schedule(() -> emit(object, "IceCandidateFound", candidate(object, index)), interval * i,
+					TimeUnit.MILLISECONDS);
+		}
+		scheduler.schedule(() -> emit(object, "IceGatheringDone", null), interval * count, TimeUnit.MILLISECONDS);
+	}
+
+	private JsonObject candidate(StandInObject object, int index) {
+		JsonObject candidate = new JsonObject();
+		candidate.addProperty("__module__", "kurento");
+		candidate.addProperty("__type__", "IceCandidate");
+		candidate.addProperty("candidate",
+				"candidate:" + (index + 1) + " 1 UDP " + (2013266431 - index) + " 127.0.0.1 " + (40000 + index) + " typ host");
+		candidate.addProperty("sdpMid", object.getFirstMid());
+		candidate.addProperty("sdpMLineIndex", 0);
+
+		JsonObject extra = new JsonObject();
+		extra.add("candidate", candidate);
+		return extra;
+	}
+
+	private void emit(StandInObject object, String type, JsonObject extra) {
+		if (!objects.containsKey(object.getId())) {
+			return;
+		}
+		for (StandInObject.Subscription subscription : object.subscriptions()) {
+			if (!subscription.eventType.equals(type)) {
+				continue;
+			}
+
+			long now = System.currentTimeMillis();
+			JsonObject data = extra != null ? extra.deepCopy() : new JsonObject();
+			data.addProperty("source", object.getId());
+			data.addProperty("type", type);
+			data.addProperty("timestamp", String.valueOf(now / 1000));
+			data.addProperty("timestampMillis", String.valueOf(now));
+			data.add("tags", new JsonArray());
+
+			JsonObject event = new JsonObject();
+			event.addProperty("object", object.getId());
+			event.addProperty("type", type);
+			event.add("data", data);
+
+			JsonObject notification = new JsonObject();
+			notification.add("value", event);
+			try {
+				subscription.session.sendNotification("onEvent", notification);
+			} catch (IOException e) {
+				LOGGER.debug("Could not send {} of {}: {}", type, object.getId(), e.getMessage());
+			}
+		}
+	}
+
+	private long delayFor(String operation) {
+		long latency = properties.latencyFor(operation);
+		long jitter = properties.jitterFor(operation);
+		double load = properties.getMaxEndpoints() > 0
+				? Math.min(1.0, (double) endpoints.get() / properties.getMaxEndpoints())
+				: 0;
+		double delay = latency * (1 + properties.getLoadPenalty() * load);
+		if (jitter > 0) {
+			delay += ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+		}
+		return Math.max(0, Math.round(delay));
+	}
+
+	private StandInObject find(String id) throws StandInException {
+		StandInObject object = objects.get(id);
+		if (object == null) {
+			throw new StandInException(MEDIA_OBJECT_NOT_FOUND, "MEDIA_OBJECT_NOT_FOUND", "Object '" + id + "' not found");
+		}
+		return object;
+	}
+
+	private static String firstMid(String sdp) {
+		int start = sdp.indexOf("a=mid:");
+		if (start < 0) {
+			return "0";
+		}
+		start += "a=mid:".length();
+		int end = start;
+		while (end < sdp.length() && sdp.charAt(end) != '\r' && sdp.charAt(end) != '\n') {
+			end++;
+		}
+		return sdp.substring(start, end);
+	}
+
+	private JsonObject value(Object value) {
+		JsonObject result = new JsonObject();
+		if (value instanceof String) {
+			result.addProperty("value", (String) value);
+		} else if (value instanceof JsonArray) {
+			result.add("value", (JsonArray) value);
+		}
+		result.addProperty("sessionId", sessionId);
+		return result;
+	}
+
+	public int getPipelineCount() {
+		return pipelines.get();
+	}
+
+	public int getEndpointCount() {
+		return endpoints.get();
+	}
+
+	/**
+	 * Requests received since startup.
+	 */
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * Requests answered with an error by the failure injection.
+	 */
+	public long getInjectedFailureCount() {
+		return injectedFailures.get();
+	}
+
+	/**
+	 * Creations refused because a capacity limit was reached.
+	 */
+	public long getRejectedCreationCount() {
+		return rejectedCreations.get();
+	}
+
+	private static final class StandInException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int code;
+
+		private final String type;
+
+		private StandInException(int code, String type, String message) {
+			super(message);
+			this.code = code;
+			this.type = type;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package com.zyter.mediaserver.standin;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.kurento.jsonrpc.Session;
+
+/**
+ * A media object living in the stand-in server: its type, the pipeline it
+ * belongs to and the events clients subscribed to.
+ */
+class StandInObject {
+
+	private final String id;
+
+	private final String type;
+
+	private final StandInObject pipeline;
+
+	private final Set<StandInObject> children = ConcurrentHashMap.newKeySet();
+
+	private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+	private volatile String firstMid = "0";
+
+	StandInObject(String id, String type, StandInObject pipeline) {
+		this.id = id;
+		this.type = type;
+		this.pipeline = pipeline;
+	}
+
+	String getId() {
+		return id;
+	}
+
+	String getType() {
+		return type;
+	}
+
+	StandInObject getPipeline() {
+		return pipeline;
+	}
+
+	Set<StandInObject> getChildren() {
+		return children;
+	}
+
+	boolean isPipeline() {
+		return pipeline == null;
+	}
+
+	boolean isEndpoint() {
+		return type.endsWith("Endpoint");
+	}
+
+	/**
+	 * Media id of the first section of the last negotiated SDP, used for the
+	 * candidates raised by this endpoint.
+	 */
+	String getFirstMid() {
+		return firstMid;
+	}
+
+	void setFirstMid(String firstMid) {
+		this.firstMid = firstMid;
+	}
+
+	void subscribe(String subscriptionId, String eventType, Session session) {
+		subscriptions.put(subscriptionId, new Subscription(eventType, session));
+	}
+
+	boolean unsubscribe(String subscriptionId) {
+		return subscriptions.remove(subscriptionId) != null;
+	}
+
+	/**
+	 * Every subscription made on this object, whatever its event type.
+	 */
+	Iterable<Subscription> subscriptions() {
+		return subscriptions.values();
+	}
+
+	@Override
+	public String toString() {
+		return id;
+	}
+
+	static final class Subscription {
+		final String eventType;
+		final Session session;
+
+		private Subscription(String eventType, Session session) {
+			this.eventType = eventType;
+			this.session = session;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package com.zyter.mediaserver.standin;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Behaviour of the stand-in server, bound from the {@code standin.*}
+ * properties. Per operation maps are keyed by JSON-RPC method ({@code create},
+ * {@code subscribe}, {@code release}...) or, for {@code invoke}, by the invoked
+ * operation ({@code processOffer}, {@code gatherCandidates}...). Keys are
+ * matched ignoring case.
+ */
+@ConfigurationProperties(prefix = "standin")
+public class StandInProperties {
+
+	private long latency = 2;
+
+	private long jitter = 1;
+
+	private double failureRate;
+
+	private Map<String, Long> operationLatency = new HashMap<>();
+
+	private Map<String, Long> operationJitter = new HashMap<>();
+
+	private Map<String, Double> operationFailureRate = new HashMap<>();
+
+	private int maxPipelines = 200;
+
+	private int maxEndpoints = 2000;
+
+	private double loadPenalty = 1.0;
+
+	private int candidatesPerGather = 2;
+
+	private long candidateInterval = 20;
+
+	/**
+	 * Settings that answer every request at once and never fail, for in-process
+	 * use where only the caller should be measured.
+	 */
+	public static StandInProperties instant() {
+		StandInProperties properties = new StandInProperties();
+		properties.setLatency(0);
+		properties.setJitter(0);
+		properties.setLoadPenalty(0);
+		properties.setCandidatesPerGather(1);
+		properties.setCandidateInterval(0);
+		properties.setMaxPipelines(Integer.MAX_VALUE);
+		properties.setMaxEndpoints(Integer.MAX_VALUE);
+		return properties;
+	}
+
+	public long latencyFor(String operation) {
+		return lookup(operationLatency, operation, latency);
+	}
+
+	public long jitterFor(String operation) {
+		return lookup(operationJitter, operation, jitter);
+	}
+
+	public double failureRateFor(String operation) {
+		return lookup(operationFailureRate, operation, failureRate);
+	}
+
+	private static <T> T lookup(Map<String, T> overrides, String operation, T fallback) {
+		T value = overrides.get(operation);
+		if (value != null) {
+			return value;
+		}
+		for (Map.Entry<String, T> entry : overrides.entrySet()) {
+			if (entry.getKey().equalsIgnoreCase(operation)) {
+				return entry.getValue();
+			}
+		}
+		return fallback;
+	}
+
+	/**
+	 * Milliseconds before every response unless overridden for the operation.
+	 */
+	public long getLatency() {
+		return latency;
+	}
+
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * Maximum random deviation, in milliseconds, added to or taken from the latency.
+	 */
+	public long getJitter() {
+		return jitter;
+	}
+
+	public void setJitter(long jitter) {
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Probability, from 0 to 1, of answering a request with an error.
+	 */
+	public double getFailureRate() {
+		return failureRate;
+	}
+
+	public void setFailureRate(double failureRate) {
+		this.failureRate = failureRate;
+	}
+
+	public Map<String, Long> getOperationLatency() {
+		return operationLatency;
+	}
+
+	public void setOperationLatency(Map<String, Long> operationLatency) {
+		this.operationLatency = operationLatency;
+	}
+
+	public Map<String, Long> getOperationJitter() {
+		return operationJitter;
+	}
+
+	public void setOperationJitter(Map<String, Long> operationJitter) {
+		this.operationJitter = operationJitter;
+	}
+
+	public Map<String, Double> getOperationFailureRate() {
+		return operationFailureRate;
+	}
+
+	public void setOperationFailureRate(Map<String, Double> operationFailureRate) {
+		this.operationFailureRate = operationFailureRate;
+	}
+
+	/**
+	 * Pipelines alive at once before creations fail.
+	 */
+	public int getMaxPipelines() {
+		return maxPipelines;
+	}
+
+	public void setMaxPipelines(int maxPipelines) {
+		this.maxPipelines = maxPipelines;
+	}
+
+	/**
+	 * Endpoints alive at once, across all pipelines, before creations fail.
+	 */
+	public int getMaxEndpoints() {
+		return maxEndpoints;
+	}
+
+	public void setMaxEndpoints(int maxEndpoints) {
+		this.maxEndpoints = maxEndpoints;
+	}
+
+	/**
+	 * How much slower a fully loaded server answers: the latency is multiplied
+	 * by {@code 1 + loadPenalty * endpoints / maxEndpoints}.
+	 */
+	public double getLoadPenalty() {
+		return loadPenalty;
+	}
+
+	public void setLoadPenalty(double loadPenalty) {
+		this.loadPenalty = loadPenalty;
+	}
+
+	/**
+	 * IceCandidateFound events raised by each gatherCandidates.
+	 */
+	public int getCandidatesPerGather() {
+		return candidatesPerGather;
+	}
+
+	public void setCandidatesPerGather(int candidatesPerGather) {
+		this.candidatesPerGather = candidatesPerGather;
+	}
+
+	/**
+	 * Milliseconds between two gathered candidates.
+	 */
+	public long getCandidateInterval() {
+		return candidateInterval;
+	}
+
+	public void setCandidateInterval(long candidateInterval) {
+		this.candidateInterval = candidateInterval;
+	}
+}
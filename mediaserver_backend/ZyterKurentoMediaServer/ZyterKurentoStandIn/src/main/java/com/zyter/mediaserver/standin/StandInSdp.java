@@ -0,0 +1,101 @@
+package com.zyter.mediaserver.standin;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Builds the SDPs the stand-in hands back. Answers mirror the offer's media
+ * sections, codecs and mids so that browsers and the signaling code accept
+ * them, but advertise no real transport.
+ */
+final class StandInSdp {
+
+	private static final String CRLF = "\r\n";
+
+	private static final String FINGERPRINT = "sha-256 "
+			+ "00:11:22:33:44:55:66:77:88:99:AA:BB:CC:DD:EE:FF:"
+			+ "00:11:22:33:44:55:66:77:88:99:AA:BB:CC:DD:EE:FF";
+
+	private StandInSdp() {
+	}
+
+	/**
+	 * Answer to the given offer, with the direction of each media section reversed.
+	 */
+	static String answer(String offer) {
+		StringBuilder sdp = header();
+		boolean inMedia = false;
+		for (String line : offer.split("\r?\n")) {
+			if (line.startsWith("a=group:")) {
+				sdp.append(line).append(CRLF);
+			} else if (line.startsWith("m=")) {
+				inMedia = true;
+				String[] fields = line.split(" ", 3);
+				sdp.append(fields[0]).append(" 1 ").append(fields.length > 2 ? fields[2] : "").append(CRLF);
+				transport(sdp, "active");
+			} else if (inMedia) {
+				String attribute = answerAttribute(line);
+				if (attribute != null) {
+					sdp.append(attribute).append(CRLF);
+				}
+			}
+		}
+		return sdp.toString();
+	}
+
+	/**
+	 * Offer for generateOffer calls: one Opus audio and one VP8 video section.
+	 */
+	static String offer() {
+		StringBuilder sdp = header();
+		sdp.append("a=group:BUNDLE 0 1").append(CRLF);
+		sdp.append("m=audio 1 UDP/TLS/RTP/SAVPF 111").append(CRLF);
+		transport(sdp, "actpass");
+		sdp.append("a=mid:0").append(CRLF);
+		sdp.append("a=sendrecv").append(CRLF);
+		sdp.append("a=rtpmap:111 opus/48000/2").append(CRLF);
+		sdp.append("m=video 1 UDP/TLS/RTP/SAVPF 96").append(CRLF);
+		transport(sdp, "actpass");
+		sdp.append("a=mid:1").append(CRLF);
+		sdp.append("a=sendrecv").append(CRLF);
+		sdp.append("a=rtpmap:96 VP8/90000").append(CRLF);
+		return sdp.toString();
+	}
+
+	private static String answerAttribute(String line) {
+		if (line.startsWith("a=mid:") || line.startsWith("a=rtpmap:") || line.startsWith("a=fmtp:")
+				|| line.startsWith("a=rtcp-fb:") || line.startsWith("a=extmap:")) {
+			return line;
+		}
+		switch (line) {
+			case "a=sendonly":
+				return "a=recvonly";
+			case "a=recvonly":
+				return "a=sendonly";
+			case "a=sendrecv":
+			case "a=inactive":
+				return line;
+			default:
+				// Transport, candidates, ssrcs and the rest belong to the offerer
+				return null;
+		}
+	}
+
+	private static StringBuilder header() {
+		long version = ThreadLocalRandom.current().nextLong(1L << 32);
+		return new StringBuilder(1024)
+				.append("v=0").append(CRLF)
+				.append("o=- ").append(version).append(' ').append(version).append(" IN IP4 0.0.0.0").append(CRLF)
+				.append("s=Kurento Stand-In").append(CRLF)
+				.append("c=IN IP4 0.0.0.0").append(CRLF)
+				.append("t=0 0").append(CRLF);
+	}
+
+	private static void transport(StringBuilder sdp, String setup) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		sdp.append("a=ice-ufrag:").append(Long.toHexString(random.nextLong(1L << 32))).append(CRLF);
+		sdp.append("a=ice-pwd:").append(Long.toHexString(random.nextLong())).append(Long.toHexString(random.nextLong())).append(CRLF);
+		sdp.append("a=fingerprint:").append(FINGERPRINT).append(CRLF);
+		sdp.append("a=setup:").append(setup).append(CRLF);
+		sdp.append("a=rtcp-mux").append(CRLF);
+	}
+}
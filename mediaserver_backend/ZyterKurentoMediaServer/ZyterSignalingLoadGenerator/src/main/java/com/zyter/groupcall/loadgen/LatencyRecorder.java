@@ -0,0 +1,132 @@
+package com.zyter.groupcall.loadgen;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latencies and outcomes per message type, kept both for the whole run and
+ * for the current reporting interval. Latencies are recorded in microseconds,
+ * from the request being sent to the message that completes it.
+ */
+public class LatencyRecorder {
+
+	private static final long HIGHEST_TRACKABLE = TimeUnit.MINUTES.toMicros(5);
+
+	private final long startedAt = System.nanoTime();
+
+	private final ConcurrentMap<String, TypeStats> stats = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, LongAdder> received = new ConcurrentHashMap<>();
+
+	private final LongAdder sent = new LongAdder();
+
+	private long intervalStartedAt = startedAt;
+
+	public void success(String type, long startNanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+		stats(type).record(Math.min(micros, HIGHEST_TRACKABLE));
+	}
+
+	public void error(String type) {
+		stats(type).errors.increment();
+	}
+
+	public void timeout(String type) {
+		stats(type).timeouts.increment();
+	}
+
+	public void sent() {
+		sent.increment();
+	}
+
+	public void received(String id) {
+		received.computeIfAbsent(id, key -> new LongAdder()).increment();
+	}
+
+	private TypeStats stats(String type) {
+		return stats.computeIfAbsent(type, key -> new TypeStats());
+	}
+
+	/**
+	 * Prints what happened since the previous interval report.
+	 */
+	public synchronized void printInterval(PrintStream out) {
+		long now = System.nanoTime();
+		double seconds = (now - intervalStartedAt) / 1e9;
+		intervalStartedAt = now;
+
+		out.printf("%n--- %ds elapsed ---%n", TimeUnit.NANOSECONDS.toSeconds(now - startedAt));
+		printHeader(out);
+		for (Map.Entry<String, TypeStats> entry : new TreeMap<>(stats).entrySet()) {
+			TypeStats typeStats = entry.getValue();
+			long errors = typeStats.errors.sum();
+			long timeouts = typeStats.timeouts.sum();
+			printRow(out, entry.getKey(), typeStats.interval.getIntervalHistogram(), errors - typeStats.reportedErrors,
+					timeouts - typeStats.reportedTimeouts, seconds);
+			typeStats.reportedErrors = errors;
+			typeStats.reportedTimeouts = timeouts;
+		}
+	}
+
+	/**
+	 * Prints the whole run: per message type latencies and the messages
+	 * exchanged.
+	 */
+	public synchronized void printSummary(PrintStream out) {
+		double seconds = (System.nanoTime() - startedAt) / 1e9;
+
+		out.printf("%n=== Summary over %.1fs ===%n", seconds);
+		printHeader(out);
+		for (Map.Entry<String, TypeStats> entry : new TreeMap<>(stats).entrySet()) {
+			TypeStats typeStats = entry.getValue();
+			synchronized (typeStats.total) {
+				printRow(out, entry.getKey(), typeStats.total, typeStats.errors.sum(), typeStats.timeouts.sum(), seconds);
+			}
+		}
+
+		out.printf("%nMessages sent: %d (%.1f/s)%n", sent.sum(), sent.sum() / seconds);
+		out.println("Messages received:");
+		for (Map.Entry<String, LongAdder> entry : new TreeMap<>(received).entrySet()) {
+			out.printf("  %-24s %10d (%.1f/s)%n", entry.getKey(), entry.getValue().sum(), entry.getValue().sum() / seconds);
+		}
+	}
+
+	private static void printHeader(PrintStream out) {
+		out.printf("%-22s %9s %7s %8s %9s %9s %9s %9s %9s%n", "type", "count", "errors", "timeouts", "rate/s", "p50 ms",
+				"p99 ms", "p999 ms", "max ms");
+	}
+
+	private static void printRow(PrintStream out, String type, Histogram histogram, long errors, long timeouts, double seconds) {
+		out.printf("%-22s %9d %7d %8d %9.1f %9.2f %9.2f %9.2f %9.2f%n", type, histogram.getTotalCount(), errors, timeouts,
+				histogram.getTotalCount() / seconds, millis(histogram, 50.0), millis(histogram, 99.0),
+				millis(histogram, 99.9), histogram.getTotalCount() == 0 ? 0.0 : histogram.getMaxValue() / 1000.0);
+	}
+
+	private static double millis(Histogram histogram, double percentile) {
+		return histogram.getTotalCount() == 0 ? 0.0 : histogram.getValueAtPercentile(percentile) / 1000.0;
+	}
+
+	private static final class TypeStats {
+		private final Histogram total = new Histogram(HIGHEST_TRACKABLE, 3);
+		private final Recorder interval = new Recorder(HIGHEST_TRACKABLE, 3);
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder timeouts = new LongAdder();
+		private long reportedErrors;
+		private long reportedTimeouts;
+
+		private void record(long micros) {
+			synchronized (total) {
+				total.recordValue(micros);
+			}
+			interval.recordValue(micros);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.zyter.groupcall.loadgen;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.ContainerProvider;
+import javax.websocket.WebSocketContainer;
+
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+
+import com.zyter.groupcall.loadgen.LoadOptions.Scenario;
+
+/**
+ * Headless load generator for the group call signaling: opens a fleet of
+ * simulated clients against {@code /webSocketServer}, has them run the call
+ * and group room flows in a loop, and reports the throughput and the
+ * p50/p99/p999 latencies of every message type.
+ *
+ * Run against a node backed by a real KMS or by the Kurento stand-in, e.g.
+ * {@code java -jar loadgen.jar --clients=2000 --scenario=mixed --duration=300}.
+ */
+public final class LoadGenerator {
+
+	private LoadGenerator() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoadOptions options;
+		try {
+			options = LoadOptions.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			LoadOptions.printUsage(System.err);
+			System.exit(2);
+			return;
+		}
+
+		LatencyRecorder recorder = run(options);
+		recorder.printSummary(System.out);
+		// The WebSocket container keeps non-daemon threads around
+		System.exit(0);
+	}
+
+	public static LatencyRecorder run(LoadOptions options) throws InterruptedException {
+		WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+		container.setDefaultMaxTextMessageBufferSize(64 * 1024);
+		container.setDefaultMaxBinaryMessageBufferSize(64 * 1024);
+		StandardWebSocketClient client = new StandardWebSocketClient(container);
+
+		int groupSize = options.getScenario() == Scenario.CALL ? 2 : options.getRoomSize();
+		int groups = Math.max(1, options.getClients() / groupSize);
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(options.getDuration());
+		long rampUp = TimeUnit.SECONDS.toMillis(options.getRampUp());
+
+		System.out.printf("%d groups of %d clients against %s, scenario %s, for %ds%n", groups, groupSize,
+				options.getUrl(), options.getScenario(), options.getDuration());
+
+		LatencyRecorder recorder = new LatencyRecorder();
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+		reporter.scheduleAtFixedRate(() -> recorder.printInterval(System.out), options.getReportInterval(),
+				options.getReportInterval(), TimeUnit.SECONDS);
+
+		ExecutorService workers = Executors.newFixedThreadPool(groups);
+		for (int group = 0; group < groups; group++) {
+			boolean call = options.getScenario() == Scenario.CALL
+					|| (options.getScenario() == Scenario.MIXED && group % 2 == 1);
+			workers.execute(new ScenarioRunner(group, call, options, recorder, client, rampUp * group / groups, deadline));
+		}
+
+		workers.shutdown();
+		// Iterations running at the deadline still hold and leave their room
+		long grace = options.getHold() + 10 * options.getTimeout();
+		if (!workers.awaitTermination(options.getDuration() + grace, TimeUnit.SECONDS)) {
+			workers.shutdownNow();
+		}
+		reporter.shutdownNow();
+		return recorder;
+	}
+}
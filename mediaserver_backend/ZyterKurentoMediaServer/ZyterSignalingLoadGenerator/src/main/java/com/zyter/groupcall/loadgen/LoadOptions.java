@@ -0,0 +1,186 @@
+package com.zyter.groupcall.loadgen;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Command line options of the {@link LoadGenerator}, given as
+ * {@code --name=value}.
+ */
+public class LoadOptions {
+
+	/**
+	 * What each group of simulated clients does in a loop.
+	 */
+	public enum Scenario {
+		/** {@code joinRoom} of a whole room, then publishing and subscribing. */
+		GROUP,
+		/** {@code call} answered by {@code incomingCallResponse}, then the same media setup. */
+		CALL,
+		/** Groups alternate between both. */
+		MIXED
+	}
+
+	private String url = "ws://localhost:8080/webSocketServer";
+
+	private Scenario scenario = Scenario.GROUP;
+
+	private int clients = 100;
+
+	private int roomSize = 4;
+
+	private long duration = 60;
+
+	private long rampUp = 10;
+
+	private long hold = 5;
+
+	private int candidates = 4;
+
+	private String domain = "molzyter";
+
+	private String token = "load-test";
+
+	private String prefix = "load";
+
+	private boolean cbor;
+
+	private long timeout = 10;
+
+	private long reportInterval = 10;
+
+	public static LoadOptions parse(String[] args) {
+		LoadOptions options = new LoadOptions();
+		for (String arg : args) {
+			if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+				throw new IllegalArgumentException("Unexpected argument '" + arg + "', expected --name=value");
+			}
+			String name = arg.substring(2, arg.indexOf('='));
+			String value = arg.substring(arg.indexOf('=') + 1);
+			switch (name) {
+				case "url":
+					options.url = value;
+					break;
+				case "scenario":
+					options.scenario = Scenario.valueOf(value.toUpperCase(Locale.ROOT));
+					break;
+				case "clients":
+					options.clients = Integer.parseInt(value);
+					break;
+				case "room-size":
+					options.roomSize = Integer.parseInt(value);
+					break;
+				case "duration":
+					options.duration = Long.parseLong(value);
+					break;
+				case "ramp-up":
+					options.rampUp = Long.parseLong(value);
+					break;
+				case "hold":
+					options.hold = Long.parseLong(value);
+					break;
+				case "candidates":
+					options.candidates = Integer.parseInt(value);
+					break;
+				case "domain":
+					options.domain = value;
+					break;
+				case "token":
+					options.token = value;
+					break;
+				case "prefix":
+					options.prefix = value;
+					break;
+				case "encoding":
+					options.cbor = "cbor".equalsIgnoreCase(value);
+					break;
+				case "timeout":
+					options.timeout = Long.parseLong(value);
+					break;
+				case "report-interval":
+					options.reportInterval = Long.parseLong(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option --" + name);
+			}
+		}
+		if (options.roomSize < 2) {
+			throw new IllegalArgumentException("--room-size must be at least 2");
+		}
+		return options;
+	}
+
+	public static void printUsage(PrintStream out) {
+		out.println("Usage: java -jar loadgen.jar [--name=value...]");
+		out.println("  --url=ws://localhost:8080/webSocketServer  signaling endpoint");
+		out.println("  --scenario=group|call|mixed                 flow run by each group of clients (group)");
+		out.println("  --clients=100                               simulated clients");
+		out.println("  --room-size=4                               participants per room in the group scenario");
+		out.println("  --duration=60                               seconds of load, ramp-up included");
+		out.println("  --ramp-up=10                                seconds over which the groups start");
+		out.println("  --hold=5                                    seconds a room stays up before leaving");
+		out.println("  --candidates=4                              ICE candidates trickled per endpoint");
+		out.println("  --domain=molzyter                           schemaName header");
+		out.println("  --token=load-test                           X-Auth-Token header");
+		out.println("  --prefix=load                               prefix of the simulated user names");
+		out.println("  --encoding=json|cbor                        signaling encoding (json)");
+		out.println("  --timeout=10                                seconds to wait for each answer");
+		out.println("  --report-interval=10                        seconds between progress reports");
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public Scenario getScenario() {
+		return scenario;
+	}
+
+	public int getClients() {
+		return clients;
+	}
+
+	public int getRoomSize() {
+		return roomSize;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	public long getRampUp() {
+		return rampUp;
+	}
+
+	public long getHold() {
+		return hold;
+	}
+
+	public int getCandidates() {
+		return candidates;
+	}
+
+	public String getDomain() {
+		return domain;
+	}
+
+	public String getToken() {
+		return token;
+	}
+
+	public String getPrefix() {
+		return prefix;
+	}
+
+	public boolean isCbor() {
+		return cbor;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public long getReportInterval() {
+		return reportInterval;
+	}
+}
@@ -0,0 +1,250 @@
+package com.zyter.groupcall.loadgen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.client.WebSocketClient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Drives one group of simulated clients through its scenario until the end of
+ * the run: a room of {@code room-size} participants, or a caller and a callee.
+ *
+ * Every iteration sets up the media of all participants
+ * ({@code receiveVideoFrom} towards each one, themselves included), trickles
+ * ICE candidates, switches the media type, holds the call and leaves. Requests
+ * the server does not answer ({@code onIceCandidate}, {@code changeMediaType})
+ * are timed until the pong of a ping sent right after them. When an iteration
+ * fails the clients are reconnected under new names so that the next one does
+ * not trip over what the server kept of the previous one.
+ */
+class ScenarioRunner implements Runnable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ScenarioRunner.class);
+
+	private final int group;
+
+	private final boolean call;
+
+	private final LoadOptions options;
+
+	private final LatencyRecorder recorder;
+
+	private final WebSocketClient client;
+
+	private final long startDelay;
+
+	private final long deadline;
+
+	private final List<SimulatedClient> clients = new ArrayList<>();
+
+	private int generation;
+
+	private int iteration;
+
+	ScenarioRunner(int group, boolean call, LoadOptions options, LatencyRecorder recorder, WebSocketClient client,
+			long startDelay, long deadline) {
+		this.group = group;
+		this.call = call;
+		this.options = options;
+		this.recorder = recorder;
+		this.client = client;
+		this.startDelay = startDelay;
+		this.deadline = deadline;
+	}
+
+	@Override
+	public void run() {
+		try {
+			Thread.sleep(startDelay);
+			while (System.currentTimeMillis() < deadline) {
+				try {
+					connect();
+					if (call) {
+						callIteration();
+					} else {
+						groupIteration();
+					}
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (Exception e) {
+					LOGGER.warn("Group {} iteration {} failed: {}", group, iteration, e.toString());
+					disconnect();
+				}
+				iteration++;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			disconnect();
+		}
+	}
+
+	private void connect() throws Exception {
+		if (!clients.isEmpty()) {
+			return;
+		}
+		generation++;
+		int size = call ? 2 : options.getRoomSize();
+		for (int i = 0; i < size; i++) {
+			SimulatedClient simulated = new SimulatedClient(
+					options.getPrefix() + "-" + group + "-" + generation + "-" + i, options, recorder);
+			clients.add(simulated);
+			simulated.connect(client);
+		}
+	}
+
+	private void disconnect() {
+		for (SimulatedClient simulated : clients) {
+			simulated.close();
+		}
+		clients.clear();
+	}
+
+	private void groupIteration() throws Exception {
+		String room = options.getPrefix() + "-room-" + group + "-" + iteration;
+		for (SimulatedClient participant : clients) {
+			await("joinRoom", send("joinRoom", participant, SignalingMessages.joinRoom(room, participant.getName()),
+					participant.expect("joinRoom", "existingParticipants")));
+		}
+
+		setUpMedia();
+		Thread.sleep(TimeUnit.SECONDS.toMillis(options.getHold()));
+		leave();
+	}
+
+	private void callIteration() throws Exception {
+		SimulatedClient caller = clients.get(0);
+		SimulatedClient callee = clients.get(1);
+
+		await("call", send("call", caller, SignalingMessages.call(caller.getName(), callee.getName(), options.getDomain()),
+				callee.expect("call", "incomingCall:" + caller.getName())));
+
+		CompletableFuture<JsonNode> callerParticipants = caller.expect("incomingCallResponse", "existingParticipants");
+		await("incomingCallResponse", send("incomingCallResponse", callee,
+				SignalingMessages.incomingCallResponse(callee.getName(), true),
+				callee.expect("incomingCallResponse", "existingParticipants")));
+		await("incomingCallResponse", callerParticipants);
+
+		setUpMedia();
+		Thread.sleep(TimeUnit.SECONDS.toMillis(options.getHold()));
+		leave();
+	}
+
+	private void setUpMedia() throws Exception {
+		List<CompletableFuture<JsonNode>> answers = new ArrayList<>();
+		for (SimulatedClient participant : clients) {
+			for (SimulatedClient sender : clients) {
+				answers.add(send("receiveVideoFrom", participant, SignalingMessages.receiveVideoFrom(sender.getName()),
+						participant.expect("receiveVideoFrom", "receiveVideoAnswer:" + sender.getName())));
+			}
+		}
+		awaitAll("receiveVideoFrom", answers);
+
+		List<CompletableFuture<JsonNode>> trickled = new ArrayList<>();
+		for (SimulatedClient participant : clients) {
+			long start = System.nanoTime();
+			for (SimulatedClient sender : clients) {
+				for (int i = 0; i < options.getCandidates(); i++) {
+					sendOnly("onIceCandidate", participant, SignalingMessages.onIceCandidate(sender.getName(), i));
+				}
+			}
+			trickled.add(timed("onIceCandidate", start, participant.barrier("onIceCandidate")));
+		}
+		awaitAll("onIceCandidate", trickled);
+
+		List<CompletableFuture<JsonNode>> changed = new ArrayList<>();
+		for (int i = 0; i < clients.size(); i++) {
+			SimulatedClient participant = clients.get(i);
+			long start = System.nanoTime();
+			sendOnly("changeMediaType", participant,
+					SignalingMessages.changeMediaType(participant.getName(), (i + iteration) % 2 == 0 ? "AUDIO" : "VIDEO"));
+			changed.add(timed("changeMediaType", start, participant.barrier("changeMediaType")));
+		}
+		awaitAll("changeMediaType", changed);
+	}
+
+	/**
+	 * Participants leave one after the other; each departure is complete when
+	 * everyone still in the room was told.
+	 */
+	private void leave() throws Exception {
+		for (int i = 0; i < clients.size(); i++) {
+			SimulatedClient leaving = clients.get(i);
+			List<SimulatedClient> remaining = clients.subList(i + 1, clients.size());
+
+			long start = System.nanoTime();
+			CompletableFuture<?> notified;
+			if (remaining.isEmpty()) {
+				sendOnly("leaveRoom", leaving, SignalingMessages.leaveRoom());
+				notified = leaving.barrier("leaveRoom");
+			} else {
+				List<CompletableFuture<JsonNode>> left = new ArrayList<>();
+				for (SimulatedClient participant : remaining) {
+					left.add(participant.expect("leaveRoom", "participantLeft:" + leaving.getName()));
+				}
+				sendOnly("leaveRoom", leaving, SignalingMessages.leaveRoom());
+				notified = CompletableFuture.allOf(left.toArray(new CompletableFuture<?>[0]));
+			}
+			await("leaveRoom", notified.whenComplete((result, error) -> {
+				if (error == null) {
+					recorder.success("leaveRoom", start);
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Sends a request and returns its completion, timed from now.
+	 */
+	private CompletableFuture<JsonNode> send(String type, SimulatedClient from, ObjectNode message,
+			CompletableFuture<JsonNode> completion) throws IOException {
+		long start = System.nanoTime();
+		sendOnly(type, from, message);
+		return timed(type, start, completion);
+	}
+
+	private void sendOnly(String type, SimulatedClient from, ObjectNode message) throws IOException {
+		try {
+			from.send(message);
+		} catch (IOException e) {
+			recorder.error(type);
+			throw e;
+		}
+	}
+
+	private CompletableFuture<JsonNode> timed(String type, long start, CompletableFuture<JsonNode> completion) {
+		return completion.whenComplete((message, error) -> {
+			if (error == null) {
+				recorder.success(type, start);
+			}
+		});
+	}
+
+	private void awaitAll(String type, List<CompletableFuture<JsonNode>> completions) throws Exception {
+		for (CompletableFuture<JsonNode> completion : completions) {
+			await(type, completion);
+		}
+	}
+
+	private void await(String type, CompletableFuture<?> completion) throws Exception {
+		try {
+			completion.get(options.getTimeout(), TimeUnit.SECONDS);
+		} catch (TimeoutException e) {
+			recorder.timeout(type);
+			throw new TimeoutException(type + " not answered within " + options.getTimeout() + "s");
+		} catch (ExecutionException e) {
+			recorder.error(type);
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.zyter.groupcall.loadgen;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The client messages of the group call protocol, as a browser sends them.
+ */
+final class SignalingMessages {
+
+	/**
+	 * A browser offer with one audio and one video section, bundled.
+	 */
+	static final String SDP_OFFER = "v=0\r\n"
+			+ "o=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n"
+			+ "s=-\r\n"
+			+ "t=0 0\r\n"
+			+ "a=group:BUNDLE 0 1\r\n"
+			+ "a=msid-semantic: WMS stream\r\n"
+			+ "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 0 8\r\n"
+			+ "c=IN IP4 0.0.0.0\r\n"
+			+ "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+			+ "a=ice-ufrag:loAd\r\n"
+			+ "a=ice-pwd:loadgeneratoricepassword0\r\n"
+			+ "a=ice-options:trickle\r\n"
+			+ "a=fingerprint:sha-256 6B:8B:F0:65:5F:78:E2:51:3B:AC:6F:F3:3F:46:1B:35:DC:B8:5F:64:1A:24:C2:43:F0:A1:58:D0:A1:2C:19:08\r\n"
+			+ "a=setup:actpass\r\n"
+			+ "a=mid:0\r\n"
+			+ "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n"
+			+ "a=sendrecv\r\n"
+			+ "a=rtcp-mux\r\n"
+			+ "a=rtpmap:111 opus/48000/2\r\n"
+			+ "a=rtcp-fb:111 transport-cc\r\n"
+			+ "a=fmtp:111 minptime=10;useinbandfec=1\r\n"
+			+ "a=rtpmap:103 ISAC/16000\r\n"
+			+ "a=rtpmap:0 PCMU/8000\r\n"
+			+ "a=rtpmap:8 PCMA/8000\r\n"
+			+ "a=ssrc:1001 cname:loadgen\r\n"
+			+ "m=video 9 UDP/TLS/RTP/SAVPF 96 97\r\n"
+			+ "c=IN IP4 0.0.0.0\r\n"
+			+ "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+			+ "a=ice-ufrag:loAd\r\n"
+			+ "a=ice-pwd:loadgeneratoricepassword0\r\n"
+			+ "a=ice-options:trickle\r\n"
+			+ "a=fingerprint:sha-256 6B:8B:F0:65:5F:78:E2:51:3B:AC:6F:F3:3F:46:1B:35:DC:B8:5F:64:1A:24:C2:43:F0:A1:58:D0:A1:2C:19:08\r\n"
+			+ "a=setup:actpass\r\n"
+			+ "a=mid:1\r\n"
+			+ "a=extmap:2 urn:ietf:params:rtp-hdrext:toffset\r\n"
+			+ "a=sendrecv\r\n"
+			+ "a=rtcp-mux\r\n"
+			+ "a=rtcp-rsize\r\n"
+			+ "a=rtpmap:96 VP8/90000\r\n"
+			+ "a=rtcp-fb:96 goog-remb\r\n"
+			+ "a=rtcp-fb:96 transport-cc\r\n"
+			+ "a=rtcp-fb:96 ccm fir\r\n"
+			+ "a=rtcp-fb:96 nack\r\n"
+			+ "a=rtcp-fb:96 nack pli\r\n"
+			+ "a=rtpmap:97 rtx/90000\r\n"
+			+ "a=fmtp:97 apt=96\r\n"
+			+ "a=ssrc:2001 cname:loadgen\r\n";
+
+	private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+	private SignalingMessages() {
+	}
+
+	static ObjectNode joinRoom(String room, String name) {
+		return message("joinRoom").put("room", room).put("name", name);
+	}
+
+	static ObjectNode call(String from, String to, String domain) {
+		return message("call").put("from", from).put("to", to).put("domain", domain);
+	}
+
+	static ObjectNode incomingCallResponse(String from, boolean accept) {
+		return message("incomingCallResponse").put("from", from).put("callResponse", accept ? "accept" : "reject");
+	}
+
+	static ObjectNode receiveVideoFrom(String sender) {
+		return message("receiveVideoFrom").put("sender", sender).put("sdpOffer", SDP_OFFER);
+	}
+
+	static ObjectNode onIceCandidate(String name, int index) {
+		ObjectNode candidate = NODES.objectNode()
+				.put("candidate", "candidate:" + (index + 1) + " 1 udp " + (2122260223 - index) + " 10.0.0." + (index % 250 + 1)
+						+ " " + (50000 + index) + " typ host generation 0")
+				.put("sdpMid", "0")
+				.put("sdpMLineIndex", 0);
+		ObjectNode message = message("onIceCandidate").put("name", name);
+		message.set("candidate", candidate);
+		return message;
+	}
+
+	static ObjectNode changeMediaType(String name, String type) {
+		return message("changeMediaType").put("name", name).put("type", type);
+	}
+
+	static ObjectNode leaveRoom() {
+		return message("leaveRoom");
+	}
+
+	static ObjectNode ping(String from, long seq) {
+		return message("ping").put("from", from).put("seq", seq);
+	}
+
+	private static ObjectNode message(String id) {
+		return NODES.objectNode().put("id", id);
+	}
+}
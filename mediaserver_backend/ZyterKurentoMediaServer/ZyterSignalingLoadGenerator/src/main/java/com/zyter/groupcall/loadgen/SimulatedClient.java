@@ -0,0 +1,220 @@
+package com.zyter.groupcall.loadgen;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+/**
+ * One simulated user: a WebSocket connection opened with the headers a real
+ * client sends, and the answers it is waiting for.
+ *
+ * Before sending a request the scenario registers the message that completes
+ * it, e.g. {@code receiveVideoAnswer} from a given sender. A
+ * {@code <request>Response} rejection fails every expectation of that request.
+ */
+class SimulatedClient extends AbstractWebSocketHandler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SimulatedClient.class);
+
+	private static final ObjectMapper JSON = new ObjectMapper();
+
+	private static final ObjectMapper CBOR = new ObjectMapper(new CBORFactory());
+
+	private final String name;
+
+	private final LoadOptions options;
+
+	private final LatencyRecorder recorder;
+
+	private final Map<String, Expectation> expectations = new ConcurrentHashMap<>();
+
+	private final AtomicLong pingSequence = new AtomicLong();
+
+	private volatile WebSocketSession session;
+
+	SimulatedClient(String name, LoadOptions options, LatencyRecorder recorder) {
+		this.name = name;
+		this.options = options;
+		this.recorder = recorder;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	boolean isOpen() {
+		WebSocketSession current = session;
+		return current != null && current.isOpen();
+	}
+
+	/**
+	 * Opens the connection and records the handshake as {@code connect}.
+	 */
+	void connect(WebSocketClient client) throws Exception {
+		WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+		headers.add("X-User-Id", name);
+		headers.add("schemaName", options.getDomain());
+		headers.add("X-Auth-Token", options.getToken());
+		headers.add("X-Display-Name", name);
+		if (options.isCbor()) {
+			headers.setSecWebSocketProtocol("zyter-cbor");
+		}
+
+		long start = System.nanoTime();
+		try {
+			session = client.doHandshake(this, headers, URI.create(options.getUrl())).get(options.getTimeout(), TimeUnit.SECONDS);
+			recorder.success("connect", start);
+		} catch (TimeoutException e) {
+			recorder.timeout("connect");
+			throw e;
+		} catch (ExecutionException e) {
+			recorder.error("connect");
+			throw e;
+		}
+	}
+
+	void close() {
+		WebSocketSession current = session;
+		if (current != null) {
+			try {
+				current.close();
+			} catch (IOException e) {
+				LOGGER.debug("Could not close {}: {}", name, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Registers the message that completes a request, before sending it.
+	 */
+	CompletableFuture<JsonNode> expect(String request, String key) {
+		Expectation expectation = new Expectation(request);
+		expectations.put(key, expectation);
+		return expectation.future;
+	}
+
+	/**
+	 * Sends a ping whose pong tells that every earlier message of this client
+	 * was handled, since the server processes a session's messages in order.
+	 */
+	CompletableFuture<JsonNode> barrier(String request) throws IOException {
+		long seq = pingSequence.incrementAndGet();
+		CompletableFuture<JsonNode> pong = expect(request, "pong:" + seq);
+		send(SignalingMessages.ping(name, seq));
+		return pong;
+	}
+
+	void send(ObjectNode message) throws IOException {
+		WebSocketSession current = session;
+		if (current == null || !current.isOpen()) {
+			throw new IOException("Connection of " + name + " is closed");
+		}
+		// A WebSocket session does not allow concurrent sends
+		synchronized (this) {
+			if (options.isCbor()) {
+				current.sendMessage(new BinaryMessage(CBOR.writeValueAsBytes(message)));
+			} else {
+				current.sendMessage(new TextMessage(JSON.writeValueAsString(message)));
+			}
+		}
+		recorder.sent();
+	}
+
+	@Override
+	protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+		handle(JSON.readTree(message.getPayload()));
+	}
+
+	@Override
+	protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+		ByteBuffer payload = message.getPayload();
+		byte[] bytes = new byte[payload.remaining()];
+		payload.get(bytes);
+		handle(CBOR.readTree(bytes));
+	}
+
+	@Override
+	public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+		IOException closed = new IOException("Connection of " + name + " closed: " + status);
+		for (Expectation expectation : expectations.values()) {
+			expectation.future.completeExceptionally(closed);
+		}
+		expectations.clear();
+	}
+
+	private void handle(JsonNode message) {
+		String id = message.path("id").asText();
+		recorder.received(id);
+
+		if (id.endsWith("Response") && "rejected".equals(message.path("response").asText())) {
+			reject(id.substring(0, id.length() - "Response".length()), message);
+			return;
+		}
+
+		String key;
+		switch (id) {
+			case "receiveVideoAnswer":
+			case "participantLeft":
+				key = id + ":" + message.path("name").asText();
+				break;
+			case "incomingCall":
+				key = id + ":" + message.path("from").asText();
+				break;
+			case "pong":
+				key = id + ":" + message.path("seq").asText();
+				break;
+			default:
+				key = id;
+				break;
+		}
+
+		Expectation expectation = expectations.remove(key);
+		if (expectation != null) {
+			expectation.future.complete(message);
+		}
+	}
+
+	private void reject(String request, JsonNode message) {
+		IOException rejected = new IOException(request + " rejected for " + name + ": " + message.path("message").asText());
+		Iterator<Expectation> it = expectations.values().iterator();
+		while (it.hasNext()) {
+			Expectation expectation = it.next();
+			if (expectation.request.equals(request)) {
+				it.remove();
+				expectation.future.completeExceptionally(rejected);
+			}
+		}
+	}
+
+	private static final class Expectation {
+		private final String request;
+		private final CompletableFuture<JsonNode> future = new CompletableFuture<>();
+
+		private Expectation(String request) {
+			this.request = request;
+		}
+	}
+}